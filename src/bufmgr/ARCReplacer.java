@@ -0,0 +1,246 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between T1 (referenced once since read in) and T2 (referenced again), and
+ * the PIDs of pages recently evicted from each are remembered in the ghost
+ * lists B1 and B2. Reading in a page remembered in B1 grows the target size of
+ * T1, one remembered in B2 shrinks it; victims come from T1 while it is over
+ * target. A sweep of pages referenced once stays in T1 and cannot flush T2.
+ * <p>
+ * Only a pin that finds the page unpinned counts as a reference. A page read
+ * ahead waits in T1 unreferenced; its first pin is its first reference.
+ */
+public class ARCReplacer extends Replacer {
+
+    //Number of frames in the partition.
+    private final int capacity;
+    //Adaptive target size of T1, in frames.
+    private int target;
+
+    //Page each frame holds, as last reported by newPage or prefetched.
+    private final int[] resident;
+    //Frames holding pages read ahead and not pinned since.
+    private final boolean[] unreferenced;
+
+    //Frames holding pages referenced once, least recently used first.
+    private final FrameList t1;
+    //Frames holding pages referenced at least twice, least recently used first.
+    private final FrameList t2;
+    //PIDs recently evicted from T1 and T2, oldest first.
+    private final LinkedHashSet<Integer> b1;
+    private final LinkedHashSet<Integer> b2;
+
+    /**
+     * Constructs the replacer, given the buffer manager and its partition.
+     *
+     * @param bufmgr
+     * @param partition
+     */
+    protected ARCReplacer(BufMgr bufmgr, BufferPartition partition) {
+
+        super(bufmgr, partition);
+
+        //Reference back to the buffer manager's frame table.
+        frametab = bufmgr.getFrameDesc();
+
+        //Every frame starts out empty; the cache is as large as the partition.
+        int numbufs = frametab.length;
+        capacity = partition.getQuota();
+        resident = new int[numbufs];
+        unreferenced = new boolean[numbufs];
+        t1 = new FrameList(numbufs);
+        t2 = new FrameList(numbufs);
+        b1 = new LinkedHashSet<Integer>();
+        b2 = new LinkedHashSet<Integer>();
+        for (int i = 0; i < numbufs; i++) {
+            resident[i] = INVALID_PAGEID;
+        }
+    }
+
+    /**
+     * Notifies the replacer of a new page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void newPage(FrameDesc fdesc) {
+
+        replace(fdesc);
+        firstReference(fdesc.index);
+        trimGhosts();
+    }
+
+    /**
+     * Notifies the replacer of a page read ahead.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void prefetched(FrameDesc fdesc) {
+
+        //Not referenced yet: wait in T1, and let the first pin decide.
+        replace(fdesc);
+        unreferenced[fdesc.index] = true;
+        t1.addLast(fdesc.index);
+        trimGhosts();
+    }
+
+    /**
+     * Notifies the replacer of a free page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void freePage(FrameDesc fdesc) {
+
+        t1.remove(fdesc.index);
+        t2.remove(fdesc.index);
+        resident[fdesc.index] = INVALID_PAGEID;
+        unreferenced[fdesc.index] = false;
+    }
+
+    /**
+     * Notifies the replacer of a pined page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void pinPage(FrameDesc fdesc) {
+
+        int frameNo = fdesc.index;
+        if (fdesc.pincnt != 1 || !(t1.contains(frameNo) || t2.contains(frameNo))) {
+            return;
+        }
+
+        //The first reference of a page read ahead is counted now.
+        if (unreferenced[frameNo]) {
+            unreferenced[frameNo] = false;
+            t1.remove(frameNo);
+            firstReference(frameNo);
+            trimGhosts();
+            return;
+        }
+
+        //A second reference moves the page to the most recent end of T2.
+        t1.remove(frameNo);
+        t2.addLast(frameNo);
+    }
+
+    /**
+     * Notifies the replacer of an unpinned page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void unpinPage(FrameDesc fdesc) {
+
+        //List positions only change on references.
+    }
+
+    /**
+     * Selects the best frame to use for pinning a new page.
+     *
+     * @return victim frame number, or -1 if none available
+     */
+    @Override
+    public synchronized int pickVictim() {
+
+        //Take from T1 while it exceeds its target, otherwise from T2.
+        int victim;
+        if (t1.size() > 0 && t1.size() > target) {
+            victim = firstUnpinned(t1);
+            if (victim == -1) {
+                victim = firstUnpinned(t2);
+            }
+        } else {
+            victim = firstUnpinned(t2);
+            if (victim == -1) {
+                victim = firstUnpinned(t1);
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Lists the frames holding a page, hottest first: T2, then T1, each most
+     * recently used first.
+     *
+     * @return frame numbers
+     */
+    @Override
+    public synchronized int[] framesByHotness() {
+
+        int[] frames = new int[frametab.length];
+        int count = appendNewestFirst(t2, frames, 0);
+        count = appendNewestFirst(t1, frames, count);
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * Takes the frame's old page out of the lists, remembering it in the ghost
+     * list of its queue if it was ever referenced, and records its new page.
+     */
+    private void replace(FrameDesc fdesc) {
+        int frameNo = fdesc.index;
+        int evicted = resident[frameNo];
+        if (evicted != INVALID_PAGEID && !unreferenced[frameNo]) {
+            if (t1.contains(frameNo)) {
+                b1.add(evicted);
+            } else if (t2.contains(frameNo)) {
+                b2.add(evicted);
+            }
+        }
+        t1.remove(frameNo);
+        t2.remove(frameNo);
+        resident[frameNo] = fdesc.pageno.pid;
+        unreferenced[frameNo] = false;
+    }
+
+    /**
+     * Counts the first reference to the frame's page since it was read in:
+     * it goes to T1, unless remembered in a ghost list, which adapts the
+     * target and also proves the page hot.
+     */
+    private void firstReference(int frameNo) {
+        int pid = resident[frameNo];
+        if (b1.contains(pid)) {
+            int delta = (b1.size() >= b2.size()) ? 1 : b2.size() / b1.size();
+            target = Math.min(capacity, target + delta);
+            b1.remove(pid);
+            t2.addLast(frameNo);
+        } else if (b2.contains(pid)) {
+            int delta = (b2.size() >= b1.size()) ? 1 : b1.size() / b2.size();
+            target = Math.max(0, target - delta);
+            b2.remove(pid);
+            t2.addLast(frameNo);
+        } else {
+            t1.addLast(frameNo);
+        }
+    }
+
+    /**
+     * Keeps the directory within its bounds: |T1|+|B1| <= c, total <= 2c.
+     */
+    private void trimGhosts() {
+        while (t1.size() + b1.size() > capacity && !b1.isEmpty()) {
+            removeOldest(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+            removeOldest(b2.isEmpty() ? b1 : b2);
+        }
+    }
+
+    /**
+     * Forgets the oldest PID in the given ghost list.
+     */
+    private static void removeOldest(LinkedHashSet<Integer> ghosts) {
+        Iterator<Integer> oldest = ghosts.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+}
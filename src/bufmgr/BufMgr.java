@@ -1,10 +1,18 @@
 package bufmgr;
 
+import diskmgr.ChannelDiskMgr;
 import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
-import java.util.HashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <h3>Minibase Buffer Manager</h3> The buffer manager reads disk pages into a
@@ -13,21 +21,144 @@ import java.util.HashMap;
  * pool. This is just an array of Page objects. The buffer manager is used by
  * access methods, heap files, and relational operators to read, write,
  * allocate, and de-allocate pages.
+ * <p>
+ * The buffer manager may be shared by concurrent sessions. The page table is
+ * split into lock stripes by PageId, so pins of resident pages only take a
+ * shared stripe lock; each frame descriptor is its own latch for pin counts
+ * and dirty status; and each replacer serializes victim selection internally.
+ * The replacement policy is chosen by name when the buffer manager is built.
+ * <p>
+ * The number of unpinned frames and the list of empty frames are maintained as
+ * pins come and go, so checking for a full pool and finding an empty frame take
+ * constant time; a replacer is only asked for a victim once the pool is full.
+ * <p>
+ * Frames are allocated on first use: the pool starts out with none, and grows
+ * a frame at a time, up to its size, whenever a page is read in and no empty
+ * frame is left. A large pool thus costs neither startup time nor memory
+ * until the database fills it.
+ * <p>
+ * Each frame keeps a WriteMask of the parts of its page changed since it was
+ * last saved, marked by the setters of the pages pinning it, so a page with a
+ * few bytes changed is written back in part, where the disk manager allows.
+ * <p>
+ * An optional page cleaner thread writes dirty, unpinned frames in the
+ * background whenever too much of the pool is dirty, so that a miss seldom
+ * has to write out its victim first.
+ * <p>
+ * flushAllPages can spread the dirty pages across several writer threads,
+ * each writing through a file channel of its own, and forces them all to the
+ * device once at the end.
+ * <p>
+ * Scans that know which pages they will read next can announce them through
+ * prefetch, which reads runs of consecutive pages with a single request.
+ * <p>
+ * For a warm restart, the resident pages can be saved at shutdown, hottest
+ * first by each partition's replacer, and read back in the background at
+ * startup, into empty frames only.
+ * <p>
+ * In off-heap mode the cached pages live in direct buffers outside the Java
+ * heap. A frame only gets a (fresh) heap array while it is pinned, shared by
+ * all its pinners, and the contents are saved back when the last pin goes.
+ * <p>
+ * Read-only callers can copy a page with copyPage instead of pinning it. A
+ * resident, unpinned page is then copied without writing any shared state,
+ * and the copy is validated against the frame's version stamp, which stays
+ * write-locked while the frame is pinned.
+ * <p>
+ * The pool can be split into named partitions, each with a quota of frames
+ * and its own replacer. A page belongs to the partition of the session that
+ * read it in, which enters the partition its files are bound to; pages read
+ * outside any partition belong to the default one, whose misses never evict
+ * pages of the others. Large scans can thus be kept from flushing small, hot
+ * tables, and a partition sized to hold a table keeps it resident.
+ * <p>
+ * Hits, misses, evictions and pin wait times are counted in a BufMgrStats.
+ * Pins can be traced as they happen with a PinTracer, and pins a query plan
+ * leaves behind reported, with their owners, by a PinLeakDetector.
  */
 
 public class BufMgr implements GlobalConst {
 
-    private final Replacer replacer;
+    //Number of page table stripes; a power of two, so a PID can be masked.
+    private static final int NUM_STRIPES = 64;
+    //Pages each page table stripe has room for at first; stripes grow as needed.
+    private static final int STRIPE_CAPACITY = 16;
+    //Longest run of consecutive pages flushAllPages writes with one request.
+    private static final int MAX_FLUSH_RUN = 64;
+    //Fewest runs flushAllPages gives each writer thread past the first.
+    private static final int MIN_FLUSH_RUNS = 4;
+    //Optimistic copies copyPage tries before falling back on a pin.
+    private static final int OPTIMISTIC_TRIES = 3;
+
+    //Name of the partition holding pages read outside any other partition.
+    public static final String DEFAULT_PARTITION = "default";
+
+    //The default partition, which may fill the whole pool.
+    private final BufferPartition defaultPartition;
+    //Partitions by name, the default one included.
+    private final ConcurrentHashMap<String, BufferPartition> partitions =
+            new ConcurrentHashMap<String, BufferPartition>();
+    //Partitions by the name of each file bound to one.
+    private final ConcurrentHashMap<String, BufferPartition> fileBindings =
+            new ConcurrentHashMap<String, BufferPartition>();
+    //Partition each session reads pages into; null for the default one.
+    private final ThreadLocal<BufferPartition> sessionPartition =
+            new ThreadLocal<BufferPartition>();
 
     //Creates a memory array to simulate the available memory for the DBMS.
+    //Off the heap, only pinned frames have a Page here.
     private final Page[] bufferPool;
-    //Holds all our FrameDescriptors, with information about the frames.
+    //Frame contents in off-heap mode, otherwise null.
+    private final OffHeapStore offHeap;
+    //Buffer for writing frames that are off the heap; guarded by ioLatch.
+    private final Page ioScratch;
+    //Holds all our FrameDescriptors, with information about the frames;
+    //null past numFrames.
     private final FrameDesc[] frameDescriptors;
-    //Maps relation between PageId and bufferPool location.
-    private final HashMap<Integer, Integer> pageMapping;
+    //Number of frames allocated so far; changed under the freeFrames lock.
+    private volatile int numFrames;
+    //Maps relation between PageId and bufferPool location, one stripe per lock.
+    private final PageTableStripe[] pageMapping;
+
+    //Number of frames with a pin count of zero, changed on 0<->1 transitions;
+    //frames not allocated yet count as unpinned.
+    private final AtomicInteger numUnpinned;
+    //Frames holding no page, used before asking the replacer; synchronized on itself.
+    private final FrameList freeFrames;
+    //Number of frames holding a dirty page.
+    private final AtomicInteger numDirty = new AtomicInteger();
+
+    //Hit, miss and eviction counts.
+    private final BufMgrStats stats = new BufMgrStats();
+
+    //Background writer, if started.
+    private volatile PageCleaner cleaner;
+    //Background reader of a saved pool, if started.
+    private PoolWarmer warmer;
+
+    //Serializes raw page I/O, since the disk manager seeks a shared file.
+    private final Object ioLatch = new Object();
+    //Serializes space map updates (allocate/deallocate) in the disk manager.
+    private final Object allocLatch = new Object();
+    //Serializes flushAllPages, whose writers latch a run of frames at a time.
+    private final Object flushLatch = new Object();
+    //Writer threads flushAllPages may use; 1 writes on the caller's thread only.
+    private volatile int flushThreads = 1;
 
-    //Used for debugging purposes.
-    private final Boolean debug = true;
+    //Ring buffer of recent pin/unpin events, off unless enabled.
+    private final PinTracer tracer = new PinTracer();
+    //Owners of pins still held at the end of a query plan, off unless enabled.
+    private final PinLeakDetector leaks = new PinLeakDetector(this);
+
+	/**
+	 * Constructs a buffer manager with the default (Clock) replacement policy.
+	 *
+	 * @param numbufs
+	 *            number of bufferPages in the buffer pool
+	 */
+	public BufMgr(int numbufs) {
+        this(numbufs, "Clock");
+	}
 
 	/**
 	 * Constructs a buffer manager with the given settings. Also initiates the
@@ -35,31 +166,95 @@ public class BufMgr implements GlobalConst {
 	 *
 	 * @param numbufs
 	 *            number of bufferPages in the buffer pool
+	 * @param replacement_policy
+	 *            Clock, LRU, LRU-K (or LRU-2, LRU-3, ...), 2Q or ARC
+	 * @throws IllegalArgumentException
+	 *             if the replacement policy is unknown
 	 */
-	public BufMgr(int numbufs) {
+	public BufMgr(int numbufs, String replacement_policy) {
+        this(numbufs, replacement_policy, false);
+	}
+
+	/**
+	 * Constructs a buffer manager with the given settings, keeping the page
+	 * contents either on or off the Java heap.
+	 *
+	 * @param numbufs
+	 *            number of bufferPages in the buffer pool
+	 * @param replacement_policy
+	 *            Clock, LRU, LRU-K (or LRU-2, LRU-3, ...), 2Q or ARC
+	 * @param offHeapPool
+	 *            true to keep unpinned pages in direct buffers
+	 * @throws IllegalArgumentException
+	 *             if the replacement policy is unknown
+	 */
+	public BufMgr(int numbufs, String replacement_policy, boolean offHeapPool) {
 
         bufferPool = new Page[numbufs];
         frameDescriptors = new FrameDesc[numbufs];
-        pageMapping = new HashMap<>(numbufs);
-        replacer = new ClockReplacer(this);
+        pageMapping = new PageTableStripe[NUM_STRIPES];
 
-        //Fill FrameDesc array, so it is ready for use:
-        for (int i=0; i<frameDescriptors.length; i++){
-            frameDescriptors[i] = new FrameDesc(i);
+        //Create page table stripes, small at first, as the pool is empty:
+        for (int i=0; i<pageMapping.length; i++){
+            pageMapping[i] = new PageTableStripe(Math.min(numbufs / NUM_STRIPES + 1,
+                    STRIPE_CAPACITY));
         }
 
-        //Fill bufferPool array, so it is ready for use:
-        for (int i=0; i<bufferPool.length; i++){
-            bufferPool[i] = new Page();
+        //No frame exists yet; allocateFrame adds them as pages are read in:
+        freeFrames = new FrameList(numbufs);
+        numUnpinned = new AtomicInteger(numbufs);
+
+        //Frames are on the heap, or in space outside the heap reserved as
+        //the pool grows:
+        if (offHeapPool) {
+            offHeap = new OffHeapStore(numbufs);
+            ioScratch = new Page();
+        } else {
+            offHeap = null;
+            ioScratch = null;
         }
+
+        defaultPartition = new BufferPartition(DEFAULT_PARTITION, numbufs);
+        defaultPartition.replacer = createReplacer(replacement_policy, defaultPartition);
+        partitions.put(DEFAULT_PARTITION, defaultPartition);
 	}
 
+    /**
+     * Creates the replacer of a partition, for the given policy name (case
+     * insensitive).
+     *
+     * @throws IllegalArgumentException
+     *             if the replacement policy is unknown
+     */
+    private Replacer createReplacer(String policy, BufferPartition part) {
+        String name = policy.toUpperCase();
+        if (name.equals("CLOCK")) {
+            return new ClockReplacer(this, part);
+        }
+        if (name.equals("LRU")) {
+            return new LRUReplacer(this, part);
+        }
+        if (name.equals("LRU-K")) {
+            return new LRUKReplacer(this, part, 2);
+        }
+        if (name.matches("LRU-[0-9]+")) {
+            return new LRUKReplacer(this, part, Integer.parseInt(name.substring(4)));
+        }
+        if (name.equals("2Q")) {
+            return new TwoQueueReplacer(this, part);
+        }
+        if (name.equals("ARC")) {
+            return new ARCReplacer(this, part);
+        }
+        throw new IllegalArgumentException("Unknown replacement policy: " + policy);
+    }
+
 	/**
 	 * Allocates a set of new pages, and pins the first one in an appropriate
 	 * frame in the buffer pool.
-	 * 
+	 *
 	 * @param firstPg
-	 *            holds the contents of the first page 
+	 *            holds the contents of the first page
 	 * @param run_size
 	 *            number of new pages to allocate
 	 * @return page id of the first new page
@@ -69,9 +264,6 @@ public class BufMgr implements GlobalConst {
 	 *             if all pages are pinned (i.e. pool exceeded)
 	 */
 	public PageId newPage(Page firstPg, int run_size) {
-        if(debug)
-            System.out.println("Method 'newPage' called.");
-
         //Error handling:
         if (firstPg == null) {
             throw new UnsupportedOperationException("Invalid page specified in PageId");
@@ -81,71 +273,149 @@ public class BufMgr implements GlobalConst {
         }
 
         //Allocate pages (often just 1), returns PageId.
-        PageId firstPgId = Minibase.DiskManager.allocate_page(run_size);
+        PageId firstPgId;
+        synchronized (allocLatch) {
+            firstPgId = Minibase.DiskManager.allocate_page(run_size);
+        }
 
         //Pins given page, and new pageId, to bufferpool.
         try{
             pinPage(firstPgId, firstPg, PIN_MEMCPY);
         } catch (Exception e){
-            Minibase.DiskManager.deallocate_page(firstPgId, run_size);
+            synchronized (allocLatch) {
+                Minibase.DiskManager.deallocate_page(firstPgId, run_size);
+            }
             return null;
         }
 
+        tracer.record(PinTracer.NEW_PAGE, firstPgId.pid, run_size);
+        return firstPgId;
+	}
+
+	/**
+	 * Allocates an extent, i.e. a run of consecutive new pages, with one
+	 * request to the disk manager, and pins every page of it. Page i of the
+	 * extent has the id of the first page plus i; its contents are copied in
+	 * from pages[i], which then refers to the page's frame, as with PIN_MEMCPY.
+	 *
+	 * @param pages
+	 *            hold the contents of the new pages, one per page
+	 * @return page id of the first new page
+	 * @throws IllegalArgumentException
+	 *             if no pages are given
+	 * @throws IllegalStateException
+	 *             if the pool cannot hold the whole extent; nothing is then
+	 *             left allocated
+	 */
+	public PageId newExtent(Page[] pages) {
+
+        //Error handling:
+        if (pages == null || pages.length == 0) {
+            throw new IllegalArgumentException("Invalid extent specified in newExtent.");
+        }
+        if (numUnpinned.get() < pages.length) {
+            throw new IllegalStateException("Not enough unpinned frames for an extent of "
+                    + pages.length + " pages");
+        }
+
+        //Allocate the whole run at once, so it is laid out sequentially.
+        PageId firstPgId;
+        synchronized (allocLatch) {
+            firstPgId = Minibase.DiskManager.allocate_page(pages.length);
+        }
+        tracer.record(PinTracer.NEW_PAGE, firstPgId.pid, pages.length);
+
+        //Pin every page; if the pool runs out, give back what was taken.
+        PageId pageno = new PageId();
+        int pinned = 0;
+        try {
+            for (; pinned < pages.length; pinned++) {
+                pageno.pid = firstPgId.pid + pinned;
+                pinPage(pageno, pages[pinned], PIN_MEMCPY);
+            }
+        } catch (RuntimeException exc) {
+            for (int i = 0; i < pinned; i++) {
+                pageno.pid = firstPgId.pid + i;
+                unpinPage(pageno, UNPIN_CLEAN);
+                freePage(pageno);
+            }
+            pageno.pid = firstPgId.pid + pinned;
+            synchronized (allocLatch) {
+                Minibase.DiskManager.deallocate_page(pageno, pages.length - pinned);
+            }
+            throw exc;
+        }
         return firstPgId;
 	}
 
     /**
-     * Checks if the buffer is full.
+     * Checks if the buffer is full. The answer is advisory when other sessions
+     * are pinning concurrently; pinPage makes the authoritative check.
      *
      * @return boolean false/true depending on result
      */
     private boolean bufferFull(){
-        for (FrameDesc frameDescriptor : frameDescriptors) {
-            if (frameDescriptor.pincnt == 0)
-                return false;
-        }
-        return true;
+        return numUnpinned.get() == 0;
     }
 
 	/**
 	 * De-allocates a single page from disk, freeing it from the pool if needed.
-	 * 
+	 *
 	 * @param pageNo
 	 *            identifies the page to remove
 	 * @throws IllegalArgumentException
 	 *            if the page is pinned
 	 */
 	public void freePage(PageId pageNo) throws IllegalArgumentException {
-        if(debug)
-            System.out.println("Method 'freePage' called with PID:" + pageNo.getPID());
+        PageTableStripe stripe = stripeFor(pageNo.getPID());
+        stripe.writeLock().lock();
+        try {
+            //Error handling; a page not in the pool is only freed on disk.
+            int frameNo = stripe.pages.get(pageNo.getPID());
+            if (frameNo != IntFrameMap.NOT_FOUND) {
+                FrameDesc fdesc = frameDescriptors[frameNo];
+                synchronized (fdesc) {
+                    if (fdesc.pincnt!=0){
+                        throw new IllegalArgumentException("Cannot free page, page is pinned");
+                    }
 
-        //Error handling:
-        if (!pageMapping.containsKey(pageNo.getPID())) {
-            return; //nothing to do.
-        }
-        if (frameDescriptors[pageMapping.get(pageNo.getPID())].pincnt!=0){
-            throw new IllegalArgumentException("Cannot free page, page is pinned");
-        }
+                    //Flush page if dirty.
+                    if (fdesc.dirty) {
+                        writeFrame(fdesc);
+                        numDirty.decrementAndGet();
+                    }
 
-        //Flush page if dirty.
-        if (frameDescriptors[pageMapping.get(pageNo.getPID())].dirty) {
-            flushPage(pageNo);
+                    //Return the frame to the pool as an empty one.
+                    lockVersion(fdesc);
+                    fdesc.pageno.pid = INVALID_PAGEID;
+                    fdesc.dirty = false;
+                    leavePartition(fdesc);
+                    addFreeFrame(frameNo);
+                    unlockVersion(fdesc);
+                }
+                //Remove from page table.
+                stripe.pages.remove(pageNo.getPID());
+            }
+        } finally {
+            stripe.writeLock().unlock();
         }
-        //Remove from HashMap.
-        pageMapping.remove(pageNo.getPID());
 
-        Minibase.DiskManager.deallocate_page(pageNo);
+        synchronized (allocLatch) {
+            Minibase.DiskManager.deallocate_page(pageNo);
+        }
+        tracer.record(PinTracer.FREE_PAGE, pageNo.pid, 0);
 	}
 
 	/**
 	 * Pins a disk page into the buffer pool. If the page is already pinned,
 	 * this simply increments the pin count. Otherwise, this selects another
 	 * page in the pool to replace, flushing it to disk if dirty.
-	 * 
-	 * (If one needs to copy the page from the memory instead of reading from the disk, one should set skipRead to PIN_MEMCPY. 
-	 * In this case, the page shouldn't be in the buffer pool. Throw an IllegalArgumentException if so. )
-	 * 
-	 * 
+	 *
+	 * (If one needs to copy the page from the memory instead of reading from the disk, one should set skipRead to PIN_MEMCPY.
+	 * In this case, the page shouldn't be in the buffer pool. Throw an IllegalArgumentException if so. A copy cached
+	 * unpinned, e.g. by prefetch, is simply replaced.)
+	 *
+	 *
 	 * @param pageNo
 	 *            identifies the page to pin
 	 * @param page
@@ -158,51 +428,584 @@ public class BufMgr implements GlobalConst {
 	 *             if all pages are pinned (i.e. pool exceeded)
 	 */
 	public void pinPage(PageId pageNo, Page page, boolean skipRead) {
-        if(debug)
-            System.out.println("Method 'pinPage' called with PID:" + pageNo.getPID());
-
         //Error handling:
         if (page == null){
             throw new UnsupportedOperationException("Invalid page specified in pinPage.");
         }
 
-        // Check if page is in pool already using HashMap:
-        if (pageMapping.containsKey(pageNo.getPID())){
-            // Page found, increment counter, set page, and stop.
-            int framePlacement = pageMapping.get(pageNo.getPID());
-            frameDescriptors[framePlacement].pincnt++;
-            frameDescriptors[framePlacement].state = 1;
-            page.setPage(bufferPool[framePlacement]);
-            return;
+        PageTableStripe stripe = stripeFor(pageNo.getPID());
+
+        // Check if page is in pool already, which only needs the shared lock:
+        stripe.readLock().lock();
+        try {
+            int frameNo = stripe.pages.get(pageNo.getPID());
+            if (frameNo != IntFrameMap.NOT_FOUND) {
+                // Page found, increment counter, set page, and stop.
+                pinFrame(frameNo, page, skipRead);
+                stats.recordHit();
+                return;
+            }
+        } finally {
+            stripe.readLock().unlock();
         }
+        long missStart = System.nanoTime();
 
-        // Page not in pool, assign frame and update HashMap, read page from disk.
-        int framePlacement = replacer.pickVictim();
+        // Page not in pool; claim a frame first, while holding no stripe of
+        // our own, so an eviction never waits on a stripe while holding one.
+        int framePlacement = claimVictim(currentPartition(), true);
+        FrameDesc fdesc = frameDescriptors[framePlacement];
 
-        if(framePlacement == -1){
-            throw new IllegalStateException("All pages are pinned (i.e. pool exceeded)");
+        // Hold the stripe exclusively while the page is read in, so no other
+        // session can load the same page twice.
+        stripe.writeLock().lock();
+        try {
+            // Another session may have loaded it while we claimed the frame.
+            int frameNo = stripe.pages.get(pageNo.getPID());
+            if (frameNo != IntFrameMap.NOT_FOUND) {
+                releaseFrame(framePlacement);
+                pinFrame(frameNo, page, skipRead);
+                stats.recordHit();
+                return;
+            }
+
+            //Update page table and frameDesc info to match new page.
+            stripe.pages.put(pageNo.getPID(), framePlacement);
+            synchronized (fdesc) {
+                fdesc.pageno.copyPageId(pageNo);
+                fdesc.dirty = false;
+                fdesc.writes.clear();
+                fdesc.partition.replacer.newPage(fdesc);
+                if (leaks.isEnabled()) {
+                    fdesc.holders = leaks.pinned(fdesc.holders, pageNo.pid);
+                }
+            }
+
+            //Either copy page in, or simply read it.
+            try {
+                if (skipRead) {
+                    bufferPool[framePlacement].copyPage(page);
+                    fdesc.writes.markAll();
+                } else {
+                    readPage(pageNo, bufferPool[framePlacement]);
+                }
+            } catch (RuntimeException exc) {
+                //The read failed: forget the page, and give the frame back.
+                stripe.pages.remove(pageNo.getPID());
+                synchronized (fdesc) {
+                    fdesc.pageno.pid = INVALID_PAGEID;
+                    fdesc.writes.clear();
+                    if (fdesc.holders != null) {
+                        fdesc.holders = leaks.unpinned(fdesc.holders, 0);
+                    }
+                }
+                releaseFrame(framePlacement);
+                throw exc;
+            }
+            page.setPage(bufferPool[framePlacement], fdesc.writes);
+        } finally {
+            stripe.writeLock().unlock();
         }
+        stats.recordMiss(System.nanoTime() - missStart);
+        tracer.record(PinTracer.PIN_MISS, pageNo.pid, 1);
+	}
+
+    /**
+     * Pins a resident frame on behalf of the caller; the caller must hold the
+     * lock of the stripe that maps the frame's page. With PIN_MEMCPY the
+     * caller's contents replace the cached ones, unless someone has it pinned.
+     */
+    private void pinFrame(int frameNo, Page page, boolean skipRead) {
+        FrameDesc fdesc = frameDescriptors[frameNo];
+        Page frame;
+        synchronized (fdesc) {
+            if (skipRead && fdesc.pincnt != 0) {
+                throw new IllegalArgumentException("Page is already pinned; cannot copy it in.");
+            }
+            if (fdesc.pincnt++ == 0) {
+                lockVersion(fdesc);
+                numUnpinned.decrementAndGet();
+                attachFrame(frameNo, !skipRead);
+            }
+            frame = bufferPool[frameNo];
+            if (skipRead) {
+                frame.copyPage(page);
+                fdesc.writes.markAll();
+            }
+            fdesc.partition.replacer.pinPage(fdesc);
+            if (leaks.isEnabled()) {
+                fdesc.holders = leaks.pinned(fdesc.holders, fdesc.pageno.pid);
+            }
+            tracer.record(PinTracer.PIN_HIT, fdesc.pageno.pid, fdesc.pincnt);
+        }
+        page.setPage(frame, fdesc.writes);
+    }
 
-        //Update HashMap.
-        pageMapping.remove(frameDescriptors[framePlacement].pageno.getPID(), framePlacement);
-        pageMapping.put(pageNo.getPID(),framePlacement);
+	/**
+	 * Copies the current contents of a disk page into the given page, which
+	 * stays the caller's own. A resident page that nobody has pinned is copied
+	 * optimistically, taking no lock and writing nothing shared: the copy is
+	 * kept if the frame's version stamp shows that it was neither pinned nor
+	 * given another page meanwhile, and retried otherwise. After a few failed
+	 * tries, or if the page is not resident, it is pinned, copied and unpinned
+	 * instead.
+	 *
+	 * @param pageNo
+	 *            identifies the page to copy
+	 * @param page
+	 *            receives the contents
+	 */
+	public void copyPage(PageId pageNo, Page page) {
+        byte[] copy = page.getData();
 
-        //Update frameDesc info to match new page.
-        frameDescriptors[framePlacement] = new FrameDesc(framePlacement);
-        frameDescriptors[framePlacement].pageno.copyPageId(pageNo);
-        frameDescriptors[framePlacement].pincnt = 1;
-        frameDescriptors[framePlacement].state = 1;
+        for (int attempt = 0; attempt < OPTIMISTIC_TRIES; attempt++) {
+            int frameNo = stripeFor(pageNo.pid).pages.getRacy(pageNo.pid);
+            if (frameNo == IntFrameMap.NOT_FOUND || frameNo >= numFrames) {
+                break;
+            }
+            FrameDesc fdesc = frameDescriptors[frameNo];
+            long stamp = fdesc.version.tryOptimisticRead();
+            if (stamp == 0) {
+                break; //pinned, maybe for an update
+            }
+            boolean found = (fdesc.pageno.pid == pageNo.pid);
+            if (found) {
+                Page frame = bufferPool[frameNo];
+                if (frame != null) {
+                    System.arraycopy(frame.getData(), 0, copy, 0, PAGE_SIZE);
+                } else {
+                    offHeap.load(frameNo, copy);
+                }
+            }
+            if (fdesc.version.validate(stamp)) {
+                if (!found) {
+                    break; //the lookup raced with a replacement
+                }
+                stats.recordHit();
+                return;
+            }
+        }
 
-        //Either copy page in, or simply read it.
-        if (skipRead) {
-            bufferPool[framePlacement].copyPage(page);
-            page.setPage(bufferPool[framePlacement]);
-        } else {
-            page.setPage(bufferPool[framePlacement]);
-            Minibase.DiskManager.read_page(pageNo, page);
+        //Fall back on a pin; the copy must not count as a write to the frame.
+        Page frame = new Page();
+        pinPage(pageNo, frame, PIN_DISKIO);
+        try {
+            new Page(copy).copyPage(frame);
+        } finally {
+            unpinPage(pageNo, UNPIN_CLEAN);
+        }
+	}
+
+	/**
+	 * Reads the given pages into the buffer pool ahead of use, so that a later
+	 * pinPage finds them resident. Pages already in the pool are skipped, and
+	 * runs of consecutive pages are read with one request. Prefetching is only
+	 * a hint: it takes at most half of the unpinned frames, leaves the pages
+	 * unpinned, and stops quietly when no frame is available.
+	 *
+	 * @param pageIds
+	 *            pages that are about to be pinned, in any order
+	 * @param count
+	 *            number of entries of pageIds to use
+	 * @return number of pages read
+	 */
+	public int prefetch(PageId[] pageIds, int count) {
+
+        int budget = Math.min(count, numUnpinned.get() / 2);
+        if (budget <= 0) {
+            return 0;
+        }
+
+        //Sort the missing pages, so neighbours end up in one run.
+        int[] pids = new int[count];
+        int missing = 0;
+        for (int i = 0; i < count; i++) {
+            int pid = pageIds[i].pid;
+            if (pid != INVALID_PAGEID && !isResident(pid)) {
+                pids[missing++] = pid;
+            }
         }
+        Arrays.sort(pids, 0, missing);
+
+        int read = readRuns(pids, missing, budget, currentPartition(), true);
+        return Math.max(read, 0);
 	}
 
+	/**
+	 * Reads the given pages into empty frames of the given partition, for a
+	 * warm restart. Pages already in the pool are skipped, and runs of
+	 * consecutive pages are read with one request. No page is evicted.
+	 *
+	 * @param part
+	 *            partition to read into
+	 * @param pids
+	 *            pages to read, in page order
+	 * @return number of pages read, or -1 if no empty frame was left
+	 */
+	int warmPages(BufferPartition part, int[] pids) {
+        int missing = 0;
+        for (int pid : pids) {
+            if (pid != INVALID_PAGEID && !isResident(pid)) {
+                pids[missing++] = pid;
+            }
+        }
+        return readRuns(pids, missing, missing, part, false);
+	}
+
+    /**
+     * Reads up to budget of the given sorted pages into the given partition,
+     * one run of consecutive pages at a time, evicting pages if allowed.
+     *
+     * @return number of pages read, or -1 if no frame could be claimed at all
+     */
+    private int readRuns(int[] pids, int count, int budget, BufferPartition part,
+            boolean evict) {
+        int read = 0;
+        for (int i = 0; i < count && read < budget; ) {
+            //A run covers consecutive pages, at most one per stripe.
+            int limit = Math.min(NUM_STRIPES, budget - read);
+            int j = i + 1;
+            while (j < count && pids[j] - pids[i] < limit && pids[j] <= pids[j - 1] + 1) {
+                j++;
+            }
+            int length = pids[j - 1] - pids[i] + 1;
+            int loaded = loadRun(part, pids[i], length, evict);
+            if (loaded < 0) {
+                return (read > 0) ? read : -1; //Pool is busy.
+            }
+            read += loaded;
+            i = j;
+        }
+        return read;
+    }
+
+    /**
+     * Checks if the given page is in the pool.
+     */
+    private boolean isResident(int pid) {
+        PageTableStripe stripe = stripeFor(pid);
+        stripe.readLock().lock();
+        try {
+            return stripe.pages.get(pid) != IntFrameMap.NOT_FOUND;
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a run of consecutive pages into the given partition, unpinned. The
+     * frames are claimed first, holding no stripe, and only among empty ones
+     * unless evicting is allowed; then the run's stripes (all different, as
+     * the run is no longer than NUM_STRIPES) are locked in stripe order, so
+     * the pages stay invisible until they are read.
+     *
+     * @return number of pages read, or -1 if no frame could be claimed
+     */
+    private int loadRun(BufferPartition part, int firstPid, int length, boolean evict) {
+
+        int[] frames = new int[length];
+        int claimed = 0;
+        try {
+            while (claimed < length) {
+                frames[claimed] = claimVictim(part, evict);
+                claimed++;
+            }
+        } catch (IllegalStateException exc) {
+            //Pool is busy; read what we have frames for.
+        }
+        if (claimed == 0) {
+            return -1;
+        }
+        length = claimed;
+
+        for (int s = 0; s < NUM_STRIPES; s++) {
+            if (((s - firstPid) & (NUM_STRIPES - 1)) < length) {
+                pageMapping[s].writeLock().lock();
+            }
+        }
+        boolean[] installed = new boolean[length];
+        boolean done = false;
+        int loaded = 0;
+        try {
+            //Map the pages nobody loaded in the meantime, still pinned.
+            for (int i = 0; i < length; i++) {
+                int pid = firstPid + i;
+                PageTableStripe stripe = stripeFor(pid);
+                if (stripe.pages.get(pid) != IntFrameMap.NOT_FOUND) {
+                    continue;
+                }
+                stripe.pages.put(pid, frames[i]);
+                FrameDesc fdesc = frameDescriptors[frames[i]];
+                synchronized (fdesc) {
+                    fdesc.pageno.pid = pid;
+                    fdesc.dirty = false;
+                    fdesc.writes.clear();
+                    //Pages read ahead are not referenced until pinned; those
+                    //of a warm restart were hot.
+                    if (evict) {
+                        fdesc.partition.replacer.prefetched(fdesc);
+                    } else {
+                        fdesc.partition.replacer.newPage(fdesc);
+                    }
+                }
+                installed[i] = true;
+            }
+
+            //Read each stretch of mapped pages with one request.
+            for (int i = 0; i < length; ) {
+                if (!installed[i]) {
+                    i++;
+                    continue;
+                }
+                int j = i + 1;
+                while (j < length && installed[j]) {
+                    j++;
+                }
+                Page[] pages = new Page[j - i];
+                for (int k = i; k < j; k++) {
+                    pages[k - i] = bufferPool[frames[k]];
+                }
+                readPages(new PageId(firstPid + i), pages);
+                loaded += j - i;
+                i = j;
+            }
+            done = true;
+            stats.recordPrefetch(loaded);
+        } finally {
+            for (int i = 0; i < length; i++) {
+                FrameDesc fdesc = frameDescriptors[frames[i]];
+                if (installed[i] && done) {
+                    //Leave the page cached, unpinned.
+                    synchronized (fdesc) {
+                        fdesc.pincnt = 0;
+                        numUnpinned.incrementAndGet();
+                        detachFrame(frames[i], true);
+                        fdesc.partition.replacer.unpinPage(fdesc);
+                        unlockVersion(fdesc);
+                    }
+                } else {
+                    //Not needed, or the read failed: forget the page.
+                    if (installed[i]) {
+                        stripeFor(firstPid + i).pages.remove(firstPid + i);
+                        synchronized (fdesc) {
+                            fdesc.pageno.pid = INVALID_PAGEID;
+                        }
+                    }
+                    releaseFrame(frames[i]);
+                }
+            }
+            for (int s = 0; s < NUM_STRIPES; s++) {
+                if (((s - firstPid) & (NUM_STRIPES - 1)) < length) {
+                    pageMapping[s].writeLock().unlock();
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Selects a victim frame for a page of the given partition, writes it out
+     * if dirty, and removes its old page from the page table. The returned
+     * frame is empty, belongs to the partition and has a pin count of one.
+     * Only the victim's stripe is locked, so evictions cannot deadlock.
+     *
+     * @param evict
+     *            false to only take an empty frame
+     * @throws IllegalStateException
+     *             if all pages are pinned (i.e. pool exceeded), or no frame
+     *             is empty and evicting is not allowed
+     */
+    private int claimVictim(BufferPartition part, boolean evict) {
+
+        for (int attempt = 0; attempt < bufferPool.length; attempt++) {
+            //Nothing to evict; no need to ask anyone.
+            if (numUnpinned.get() == 0) {
+                break;
+            }
+            int framePlacement = evict ? pickFrame(part) : pollFreeFrame();
+            if (framePlacement == -1) {
+                break;
+            }
+
+            //Lock the stripe that still maps the victim's old page, if any.
+            FrameDesc fdesc = frameDescriptors[framePlacement];
+            int oldPid = fdesc.pageno.pid;
+            BufferPartition oldPart = fdesc.partition;
+            PageTableStripe victimStripe = null;
+            if (oldPid != INVALID_PAGEID) {
+                victimStripe = stripeFor(oldPid);
+                victimStripe.writeLock().lock();
+            }
+
+            try {
+                synchronized (fdesc) {
+                    //Lost the race for this frame; pick again.
+                    if (fdesc.pincnt != 0 || fdesc.pageno.pid != oldPid
+                            || fdesc.partition != oldPart) {
+                        continue;
+                    }
+                    fdesc.pincnt = 1;
+                    lockVersion(fdesc);
+                    numUnpinned.decrementAndGet();
+                    //The frame may come off the free list; it is taken now.
+                    removeFreeFrame(framePlacement);
+
+                    if (oldPid != INVALID_PAGEID) {
+                        stats.recordEviction(fdesc.dirty);
+                        tracer.record(PinTracer.EVICT, oldPid, fdesc.dirty ? 1 : 0);
+                    }
+
+                    //Is page dirty? If so flush it before it is replaced.
+                    if (fdesc.dirty) {
+                        writeFrame(fdesc);
+                        fdesc.dirty = false;
+                        numDirty.decrementAndGet();
+                    }
+                    fdesc.pageno.pid = INVALID_PAGEID;
+                    attachFrame(framePlacement, false);
+
+                    //Hand the frame over to the partition it is claimed for.
+                    if (oldPart != part) {
+                        if (oldPart != null) {
+                            leavePartition(fdesc);
+                        }
+                        fdesc.partition = part;
+                        part.size.incrementAndGet();
+                    }
+                }
+                if (victimStripe != null) {
+                    victimStripe.pages.remove(oldPid);
+                }
+                return framePlacement;
+            } finally {
+                if (victimStripe != null) {
+                    victimStripe.writeLock().unlock();
+                }
+            }
+        }
+
+        throw new IllegalStateException("All pages are pinned (i.e. pool exceeded)");
+    }
+
+    /**
+     * Chooses a frame for a page of the given partition, without claiming it.
+     * A partition under its quota takes an empty frame, else a victim of the
+     * default partition, and only then one of its own. A partition at its
+     * quota replaces its own pages, and only grows past the quota while they
+     * are all pinned. The default partition may fill the whole pool, so it
+     * never takes frames from the others.
+     *
+     * @return frame number, or -1 if none is available
+     */
+    private int pickFrame(BufferPartition part) {
+        boolean full = part.size.get() >= part.getQuota();
+        int frameNo = full ? part.replacer.pickVictim() : -1;
+        if (frameNo == -1) {
+            frameNo = pollFreeFrame();
+        }
+        if (frameNo == FrameList.NONE && part != defaultPartition) {
+            frameNo = defaultPartition.replacer.pickVictim();
+        }
+        if (frameNo == -1 && !full) {
+            frameNo = part.replacer.pickVictim();
+        }
+        return frameNo;
+    }
+
+    /**
+     * Returns a claimed frame that turned out not to be needed to the pool.
+     */
+    private void releaseFrame(int frameNo) {
+        FrameDesc fdesc = frameDescriptors[frameNo];
+        synchronized (fdesc) {
+            fdesc.pincnt = 0;
+            numUnpinned.incrementAndGet();
+            detachFrame(frameNo, false);
+            leavePartition(fdesc);
+            addFreeFrame(frameNo);
+            unlockVersion(fdesc);
+        }
+    }
+
+    /**
+     * Takes a frame that no longer holds a page of its partition out of it;
+     * called under the frame's latch.
+     */
+    private static void leavePartition(FrameDesc fdesc) {
+        fdesc.partition.replacer.freePage(fdesc);
+        fdesc.partition.size.decrementAndGet();
+        fdesc.partition = null;
+    }
+
+    /**
+     * Write-locks a frame's version stamp, so optimistic readers back off;
+     * called under the frame's latch when it gets pinned or changes pages.
+     * Readers never lock the stamp, so this does not block.
+     */
+    private static void lockVersion(FrameDesc fdesc) {
+        fdesc.versionStamp = fdesc.version.writeLock();
+    }
+
+    /**
+     * Unlocks a frame's version stamp, giving it a new version; called under
+     * the frame's latch.
+     */
+    private static void unlockVersion(FrameDesc fdesc) {
+        fdesc.version.unlockWrite(fdesc.versionStamp);
+    }
+
+    /**
+     * Takes the oldest empty frame off the free list, or allocates a new one
+     * if the pool has not reached its size, or returns NONE. The frame is not
+     * claimed yet, so the caller must check it under its latch.
+     */
+    private int pollFreeFrame() {
+        synchronized (freeFrames) {
+            int frameNo = freeFrames.first();
+            if (frameNo != FrameList.NONE) {
+                freeFrames.remove(frameNo);
+            } else if (numFrames < frameDescriptors.length) {
+                frameNo = allocateFrame();
+            }
+            return frameNo;
+        }
+    }
+
+    /**
+     * Adds an empty frame to the pool; called under the freeFrames lock. The
+     * frame is published by the increment of numFrames, which optimistic
+     * readers check before they look at it.
+     */
+    private int allocateFrame() {
+        int frameNo = numFrames;
+        if (offHeap != null) {
+            offHeap.extend(frameNo);
+        } else {
+            bufferPool[frameNo] = new Page();
+        }
+        frameDescriptors[frameNo] = new FrameDesc(frameNo);
+        numFrames = frameNo + 1;
+        return frameNo;
+    }
+
+    /**
+     * Puts an empty frame on the free list; called under the frame's latch.
+     */
+    private void addFreeFrame(int frameNo) {
+        synchronized (freeFrames) {
+            freeFrames.addLast(frameNo);
+        }
+    }
+
+    /**
+     * Takes a claimed frame off the free list, if it is there; called under
+     * the frame's latch.
+     */
+    private void removeFreeFrame(int frameNo) {
+        synchronized (freeFrames) {
+            freeFrames.remove(frameNo);
+        }
+    }
+
 	/**
 	 * Unpins a disk page from the buffer pool, decreasing its pin count.
 	 *
@@ -214,28 +1017,53 @@ public class BufMgr implements GlobalConst {
 	 *             if the page is not present or not pinned
 	 */
 	public void unpinPage(PageId pageNo, boolean dirty) throws IllegalArgumentException {
-        if(debug)
-            System.out.println("Method 'unpinPage' called with PID:" + pageNo.getPID());
-
         //Error handling:
         if (pageNo == null) {
             throw new IllegalArgumentException("Invalid pageNo specified in unpinPage.");
         }
 
-        //Get frame location, if not found throw exception:
-        int frameDesc;
-        if (pageMapping.containsKey(pageNo.getPID()))
-            frameDesc = pageMapping.get(pageNo.getPID());
-        else
-            throw new IllegalArgumentException("Page is not present.");
+        PageTableStripe stripe = stripeFor(pageNo.getPID());
+        stripe.readLock().lock();
+        try {
+            //Get frame location, if not found throw exception:
+            int frameNo = stripe.pages.get(pageNo.getPID());
+            if (frameNo == IntFrameMap.NOT_FOUND)
+                throw new IllegalArgumentException("Page is not present.");
 
-        if (frameDescriptors[frameDesc].pincnt == 0)
-            throw new IllegalArgumentException("Page is not pinned.");
+            FrameDesc fdesc = frameDescriptors[frameNo];
+            synchronized (fdesc) {
+                if (fdesc.pincnt == 0)
+                    throw new IllegalArgumentException("Page is not pinned.");
 
-        //Decrement pin_count:
-        frameDescriptors[frameDesc].pincnt--;
-        //Set dirty status:
-        frameDescriptors[frameDesc].dirty=dirty;
+                //Decrement pin_count:
+                fdesc.pincnt--;
+                if (fdesc.holders != null) {
+                    fdesc.holders = leaks.unpinned(fdesc.holders, fdesc.pincnt);
+                }
+                //Set dirty status, never clearing an earlier unflushed update:
+                if (dirty && !fdesc.dirty) {
+                    fdesc.dirty = true;
+                    PageCleaner pc = cleaner;
+                    int count = numDirty.incrementAndGet();
+                    if (pc != null) {
+                        pc.dirtied(count);
+                    }
+                }
+                if (fdesc.pincnt == 0) {
+                    if (!fdesc.dirty) {
+                        fdesc.writes.clear();
+                    }
+                    numUnpinned.incrementAndGet();
+                    detachFrame(frameNo, true);
+                    fdesc.partition.replacer.unpinPage(fdesc);
+                    unlockVersion(fdesc);
+                }
+                tracer.record(dirty ? PinTracer.UNPIN_DIRTY : PinTracer.UNPIN_CLEAN,
+                        pageNo.pid, fdesc.pincnt);
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
 	}
 
 	/**
@@ -243,73 +1071,606 @@ public class BufMgr implements GlobalConst {
      * If the page is not found, nothing happens.
 	 */
 	public void flushPage(PageId pageNo) {
-        if(debug)
-            System.out.println("Method 'flushPage' called with PID:" + pageNo.getPID());
-
         //Error handling:
         if (pageNo == null) {
             throw new UnsupportedOperationException("Invalid pageNo specified in flushPage.");
         }
 
         //See if the PageId is in the bufferpool:
-        if (pageMapping.containsKey(pageNo.getPID())){
-            //It is found in the HashMap, assume its in the pool:
-            int frameLoc = pageMapping.get(pageNo.getPID());
-            Minibase.DiskManager.write_page(pageNo, bufferPool[frameLoc]);
-            frameDescriptors[frameLoc].dirty=false;
+        PageTableStripe stripe = stripeFor(pageNo.getPID());
+        stripe.readLock().lock();
+        try {
+            int frameNo = stripe.pages.get(pageNo.getPID());
+            if (frameNo != IntFrameMap.NOT_FOUND) {
+                flushFrame(frameNo);
+            }
+            tracer.record(PinTracer.FLUSH_PAGE, pageNo.pid, frameNo);
+        } finally {
+            stripe.readLock().unlock();
         }
 	}
 
 	/**
-	 * Immediately writes all dirty pages in the buffer pool to disk.
+	 * Immediately writes all dirty pages in the buffer pool to disk, and forces
+	 * them to the device. The dirty pages are written in page order, and runs
+	 * of consecutive pages with one request each, so the number of requests
+	 * follows the number of dirty extents rather than dirty pages. With more
+	 * than one flush thread, and enough runs, the runs are written by several
+	 * threads at once, each through its own channel, and forced with a single
+	 * sync once all are written.
 	 */
 	public void flushAllPages() {
-        if(debug)
-            System.out.println("Method 'flushAllPages' called.");
 
-        //Traverse HashMap (everything in memory is in the HashMap) looking for dirty flag:
-        for(int key: pageMapping.keySet()) {
-            if (frameDescriptors[key].dirty) {
-                PageId pageId = frameDescriptors[key].pageno;
-                flushPage(pageId);
+        //Collect the dirty frames, sorted by page number (a frame number is
+        //kept in the low half of each key).
+        long[] dirty = new long[numDirty.get() + 16];
+        int count = 0;
+        for (int i = 0, frames = numFrames; i < frames; i++) {
+            FrameDesc fdesc = frameDescriptors[i];
+            int pid = fdesc.pageno.pid;
+            if (fdesc.dirty && pid != INVALID_PAGEID) {
+                if (count == dirty.length) {
+                    dirty = Arrays.copyOf(dirty, count * 2);
+                }
+                dirty[count++] = ((long) pid << 32) | fdesc.index;
+            }
+        }
+        Arrays.sort(dirty, 0, count);
+
+        //Split them into runs of consecutive pages.
+        int[] runs = new int[count + 1];
+        int numRuns = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || i - runs[numRuns - 1] == MAX_FLUSH_RUN
+                    || (int) (dirty[i] >>> 32) != (int) (dirty[i - 1] >>> 32) + 1) {
+                runs[numRuns++] = i;
+            }
+        }
+        runs[numRuns] = count;
+
+        //Write each run.
+        int requests;
+        synchronized (flushLatch) {
+            requests = writeRuns(dirty, runs, numRuns);
+        }
+        tracer.record(PinTracer.FLUSH_ALL, INVALID_PAGEID, requests);
+
+        //Make the writes durable, where the disk manager can tell the device.
+        if (Minibase.DiskManager instanceof ChannelDiskMgr) {
+            synchronized (ioLatch) {
+                ((ChannelDiskMgr) Minibase.DiskManager).sync();
             }
         }
 	}
 
+    /**
+     * Writes the given runs of dirty frames, on the caller's thread, or on
+     * as many writer threads as there are enough runs for, each with its own
+     * channel; the caller is one of them.
+     *
+     * @return number of write requests made
+     */
+    private int writeRuns(long[] dirty, int[] runs, int numRuns) {
+        AtomicInteger nextRun = new AtomicInteger();
+        int threads = Math.min(flushThreads, 1 + (numRuns - 1) / MIN_FLUSH_RUNS);
+        FileChannel channel = null;
+        if (threads > 1 && Minibase.DiskManager instanceof ChannelDiskMgr) {
+            channel = ((ChannelDiskMgr) Minibase.DiskManager).open_channel();
+        }
+        if (channel == null) {
+            FlushWriter writer = new FlushWriter(this, dirty, runs, numRuns, nextRun, null);
+            writer.run();
+            if (writer.getFailure() != null) {
+                throw writer.getFailure();
+            }
+            return writer.getRequests();
+        }
+
+        //Start the other writers, and write along with them.
+        FlushWriter[] writers = new FlushWriter[threads];
+        Thread[] helpers = new Thread[threads - 1];
+        writers[0] = new FlushWriter(this, dirty, runs, numRuns, nextRun, channel);
+        for (int i = 1; i < threads; i++) {
+            writers[i] = new FlushWriter(this, dirty, runs, numRuns, nextRun,
+                    ((ChannelDiskMgr) Minibase.DiskManager).open_channel());
+            helpers[i - 1] = new Thread(writers[i], "FlushWriter-" + i);
+            helpers[i - 1].start();
+        }
+        writers[0].run();
+        boolean interrupted = false;
+        for (Thread helper : helpers) {
+            while (helper.isAlive()) {
+                try {
+                    helper.join();
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        int requests = 0;
+        for (FlushWriter writer : writers) {
+            if (writer.getFailure() != null) {
+                throw writer.getFailure();
+            }
+            requests += writer.getRequests();
+        }
+        return requests;
+    }
+
+    /**
+     * Latches the frames of the given run, one per level of recursion, then
+     * writes the pages that are still there and dirty; a page that was
+     * written or replaced meanwhile splits the run. Only the writers of
+     * flushAllPages latch more than one frame, and no frame is in two of
+     * their runs, so this cannot deadlock with other sessions or writers.
+     *
+     * @param channel the writer's own channel, or null to use the shared one
+     * @return number of write requests made
+     */
+    int flushRun(int[] pids, int[] frames, int size, int latched, FileChannel channel) {
+        if (latched < size) {
+            synchronized (frameDescriptors[frames[latched]]) {
+                return flushRun(pids, frames, size, latched + 1, channel);
+            }
+        }
+
+        //All frames latched: write each stretch of pages still dirty.
+        int requests = 0;
+        int first = 0;
+        for (int i = 0; i <= size; i++) {
+            if (i < size) {
+                FrameDesc fdesc = frameDescriptors[frames[i]];
+                if (fdesc.dirty && fdesc.pageno.pid == pids[i]) {
+                    continue;
+                }
+            }
+            if (i > first) {
+                writeFrames(pids, frames, first, i, channel);
+                requests++;
+            }
+            first = i + 1;
+        }
+        return requests;
+    }
+
+    /**
+     * Writes the given stretch of the latched run with one request, and marks
+     * its frames clean; of a lone page, only the changed parts. Through a
+     * writer's own channel, only the write count is updated under ioLatch.
+     */
+    private void writeFrames(int[] pids, int[] frames, int from, int to, FileChannel channel) {
+        Page[] pages = new Page[to - from];
+        if (channel == null && pages.length == 1) {
+            writeFrame(frameDescriptors[frames[from]]);
+        } else if (channel != null) {
+            long chunks = frameDescriptors[frames[from]].writes.get();
+            loadFrames(frames, from, to, pages);
+            ChannelDiskMgr disk = (ChannelDiskMgr) Minibase.DiskManager;
+            if (pages.length > 1) {
+                disk.write_pages(channel, new PageId(pids[from]), pages);
+            } else if (disk.write_page_ranges(channel, new PageId(pids[from]), pages[0], chunks)) {
+                stats.recordPartialWrite();
+            }
+            synchronized (ioLatch) {
+                disk.count_writes(pages.length);
+            }
+        } else {
+            synchronized (ioLatch) {
+                loadFrames(frames, from, to, pages);
+                if (Minibase.DiskManager instanceof ChannelDiskMgr) {
+                    ((ChannelDiskMgr) Minibase.DiskManager).write_pages(new PageId(pids[from]), pages);
+                } else {
+                    for (int i = from; i < to; i++) {
+                        Minibase.DiskManager.write_page(new PageId(pids[i]), pages[i - from]);
+                    }
+                }
+            }
+        }
+        for (int i = from; i < to; i++) {
+            FrameDesc fdesc = frameDescriptors[frames[i]];
+            fdesc.dirty = false;
+            if (fdesc.pincnt == 0) {
+                fdesc.writes.clear();
+            }
+            numDirty.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the pages of the given stretch of latched frames to write; frames
+     * off the heap and unpinned are copied out.
+     */
+    private void loadFrames(int[] frames, int from, int to, Page[] pages) {
+        for (int i = from; i < to; i++) {
+            Page frame = bufferPool[frames[i]];
+            if (frame == null) {
+                frame = new Page();
+                offHeap.load(frames[i], frame.getData());
+            }
+            pages[i - from] = frame;
+        }
+    }
+
+    /**
+     * Writes a single frame to disk if it holds a dirty page.
+     */
+    private void flushFrame(int frameNo) {
+        FrameDesc fdesc = frameDescriptors[frameNo];
+        synchronized (fdesc) {
+            if (fdesc.dirty && fdesc.pageno.pid != INVALID_PAGEID) {
+                writeFrame(fdesc);
+                fdesc.dirty = false;
+                numDirty.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes a single frame to disk if it holds a dirty page that nobody has
+     * pinned; used by the page cleaner.
+     *
+     * @return true if the frame was written
+     */
+    boolean cleanFrame(int frameNo) {
+        FrameDesc fdesc = frameDescriptors[frameNo];
+        synchronized (fdesc) {
+            if (fdesc.pincnt != 0 || !fdesc.dirty || fdesc.pageno.pid == INVALID_PAGEID) {
+                return false;
+            }
+            writeFrame(fdesc);
+            fdesc.dirty = false;
+            numDirty.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Starts a background thread that writes dirty, unpinned pages whenever
+     * at least highWater frames are dirty, until at most lowWater are.
+     *
+     * @param lowWater
+     *            number of dirty frames at which the cleaner stops
+     * @param highWater
+     *            number of dirty frames at which the cleaner starts
+     * @throws IllegalArgumentException
+     *             if the watermarks are out of order or out of range
+     * @throws IllegalStateException
+     *             if the cleaner is already running
+     */
+    public synchronized void startPageCleaner(int lowWater, int highWater) {
+        if (lowWater < 0 || highWater <= lowWater || highWater > bufferPool.length) {
+            throw new IllegalArgumentException("Invalid page cleaner watermarks: "
+                    + lowWater + ", " + highWater);
+        }
+        if (cleaner != null) {
+            throw new IllegalStateException("Page cleaner is already running");
+        }
+        cleaner = new PageCleaner(this, lowWater, highWater);
+        cleaner.start();
+    }
+
+    /**
+     * Stops the page cleaner, if running, and waits for it to finish.
+     */
+    public synchronized void stopPageCleaner() {
+        if (cleaner == null) {
+            return;
+        }
+        cleaner.shutdown();
+        cleaner = null;
+    }
+
+    /**
+     * Sets the number of writer threads flushAllPages may use; with more than
+     * one, a flush with enough runs of dirty pages writes them in parallel.
+     *
+     * @throws IllegalArgumentException
+     *             if the number is not positive
+     */
+    public void setFlushThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of flush threads: " + threads);
+        }
+        flushThreads = threads;
+    }
+
+    /**
+     * Gets the number of writer threads flushAllPages may use.
+     */
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    /**
+     * Saves the pages resident in each partition to the given file, hottest
+     * first, for a later warm restart.
+     *
+     * @return false if the file could not be written
+     */
+    public boolean saveResidentPages(String fileName) {
+        try {
+            PoolWarmer.save(this, fileName);
+            return true;
+        } catch (IOException exc) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts a background thread that reads the pages saved in the given file
+     * back into their partitions, hottest first, as long as empty frames are
+     * left. Nothing happens if there is no such file.
+     */
+    public synchronized void startWarmup(String fileName) {
+        stopWarmup();
+        if (!new File(fileName).isFile()) {
+            return;
+        }
+        warmer = new PoolWarmer(this, fileName);
+        warmer.start();
+    }
+
+    /**
+     * Stops the warm-up, if running, and waits for it to finish.
+     */
+    public synchronized void stopWarmup() {
+        if (warmer == null) {
+            return;
+        }
+        warmer.shutdown();
+        warmer = null;
+    }
+
+    /**
+     * Gets the pages resident in the given partition, hottest first as its
+     * replacer sees them. Pages may come and go meanwhile, so the answer is
+     * only a snapshot.
+     */
+    public int[] getResidentPages(BufferPartition part) {
+        int[] frames = part.replacer.framesByHotness();
+        int[] pids = new int[frames.length];
+        int count = 0;
+        for (int frameNo : frames) {
+            int pid = frameDescriptors[frameNo].pageno.pid;
+            if (pid != INVALID_PAGEID) {
+                pids[count++] = pid;
+            }
+        }
+        return Arrays.copyOf(pids, count);
+    }
+
 	/**
 	 * Gets the total number of buffer frames.
 	 */
 	public int getNumBuffers() {
-        if(debug)
-            System.out.println("Method 'getNumBuffers' called.");
-
         return bufferPool.length;
 	}
 
+	/**
+	 * Gets the number of buffer frames allocated so far.
+	 */
+	public int getNumFrames() {
+        return numFrames;
+	}
+
 	/**
 	 * Gets the total number of unpinned buffer frames.
 	 */
 	public int getNumUnpinned() {
-        if(debug)
-            System.out.println("Method 'getNumUnpinned' called.");
+        return numUnpinned.get();
+	}
 
-        //Iterates trough the frameDescriptors array, counting each pincnt == 0.
-        int pinCount = 0;
-        for (FrameDesc frameDescriptor : frameDescriptors) {
-            if (frameDescriptor.pincnt == 0) {
-                pinCount++;
-            }
+	/**
+	 * Gets the number of buffer frames holding a dirty page.
+	 */
+	public int getNumDirty() {
+        return numDirty.get();
+	}
+
+	/**
+	 * Gets the buffer pool statistics.
+	 */
+	public BufMgrStats getStats() {
+        return stats;
+	}
+
+	/**
+	 * Gets the tracer of pin/unpin events; it records nothing until enabled.
+	 */
+	public PinTracer getTracer() {
+        return tracer;
+	}
+
+	/**
+	 * Gets the detector of leaked pins; it tracks nothing until enabled.
+	 */
+	public PinLeakDetector getLeakDetector() {
+        return leaks;
+	}
+
+	/**
+	 * Creates a named partition of the buffer pool, which may fill up to the
+	 * given number of frames and chooses its victims by the given policy.
+	 *
+	 * @param name
+	 *            name of the partition
+	 * @param quota
+	 *            number of frames, less than the whole pool
+	 * @param replacement_policy
+	 *            Clock, LRU, LRU-K (or LRU-2, LRU-3, ...), 2Q or ARC
+	 * @throws IllegalArgumentException
+	 *             if the name is taken, the quota is out of range, or the
+	 *             replacement policy is unknown
+	 */
+	public BufferPartition createPartition(String name, int quota, String replacement_policy) {
+        if (quota < 1 || quota >= bufferPool.length) {
+            throw new IllegalArgumentException("Invalid partition quota: " + quota);
+        }
+        BufferPartition part = new BufferPartition(name, quota);
+        part.replacer = createReplacer(replacement_policy, part);
+        if (partitions.putIfAbsent(name, part) != null) {
+            throw new IllegalArgumentException("Partition already exists: " + name);
+        }
+        return part;
+	}
+
+	/**
+	 * Gets the partition with the given name, or null if there is none.
+	 */
+	public BufferPartition getPartition(String name) {
+        return partitions.get(name);
+	}
+
+	/**
+	 * Gets all partitions, the default one included.
+	 */
+	public Collection<BufferPartition> getPartitions() {
+        return partitions.values();
+	}
+
+	/**
+	 * Binds a file (a heap file or index, by name) to a partition, so that
+	 * its scans read its pages into that partition; null unbinds it.
+	 */
+	public void bindFile(String fileName, BufferPartition part) {
+        if (part == null) {
+            fileBindings.remove(fileName);
+        } else {
+            fileBindings.put(fileName, part);
         }
+	}
+
+	/**
+	 * Gets the partition the given file is bound to, or null if none.
+	 */
+	public BufferPartition getFilePartition(String fileName) {
+        return (fileName == null) ? null : fileBindings.get(fileName);
+	}
 
-        return pinCount;
+	/**
+	 * Makes the calling session read the pages it misses into the given
+	 * partition (the default one if null) until it enters another one.
+	 * Pages already resident stay where they are.
+	 *
+	 * @return the partition entered before, to enter again when done
+	 */
+	public BufferPartition enterPartition(BufferPartition part) {
+        BufferPartition previous = sessionPartition.get();
+        sessionPartition.set(part);
+        return previous;
 	}
 
     /**
-    * Gets the frameDesc array, which holds information about all the frames/pages.
+     * Gets the partition the calling session reads pages into.
+     */
+    private BufferPartition currentPartition() {
+        BufferPartition part = sessionPartition.get();
+        return (part != null) ? part : defaultPartition;
+    }
+
+    /**
+    * Gets the frameDesc array, which holds information about all the frames/pages;
+    * the entries of frames not allocated yet are null.
     */
     public FrameDesc[] getFrameDesc(){
 
         return frameDescriptors;
     }
 
+    /**
+     * Gets the page table stripe responsible for the given page number.
+     */
+    private PageTableStripe stripeFor(int pid) {
+        return pageMapping[pid & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Gives a frame that is becoming pinned its page buffer; called under the
+     * frame's latch. Off the heap, the frame gets a fresh array, filled with
+     * the cached contents unless they are about to be replaced. (A fresh one,
+     * so a Page a caller still holds after unpinning never changes under it.)
+     */
+    private void attachFrame(int frameNo, boolean load) {
+        if (offHeap != null) {
+            Page frame = new Page();
+            if (load) {
+                offHeap.load(frameNo, frame.getData());
+            }
+            bufferPool[frameNo] = frame;
+        }
+    }
+
+    /**
+     * Takes the page buffer back from a frame whose last pin is gone, saving
+     * the contents off the heap if it still holds a page; called under the
+     * frame's latch.
+     */
+    private void detachFrame(int frameNo, boolean save) {
+        if (offHeap != null) {
+            if (save) {
+                offHeap.store(frameNo, bufferPool[frameNo].getData());
+            }
+            bufferPool[frameNo] = null;
+        }
+    }
+
+    /**
+     * Writes a frame's page to disk, from the heap array while it is pinned,
+     * or else from the off-heap copy; called under the frame's latch. If the
+     * disk manager can, only the parts changed since the page was last saved
+     * are written. The record of changes is kept while the frame is pinned,
+     * as its pinners may still be changing it.
+     */
+    private void writeFrame(FrameDesc fdesc) {
+        long chunks = fdesc.writes.get();
+        Page frame = bufferPool[fdesc.index];
+        synchronized (ioLatch) {
+            if (frame == null) {
+                offHeap.load(fdesc.index, ioScratch.getData());
+                frame = ioScratch;
+            }
+            if (Minibase.DiskManager instanceof ChannelDiskMgr) {
+                if (((ChannelDiskMgr) Minibase.DiskManager).write_page_ranges(fdesc.pageno,
+                        frame, chunks)) {
+                    stats.recordPartialWrite();
+                }
+            } else {
+                Minibase.DiskManager.write_page(fdesc.pageno, frame);
+            }
+        }
+        if (fdesc.pincnt == 0) {
+            fdesc.writes.clear();
+        }
+    }
+
+    /**
+     * Reads a page from disk; the disk manager shares one file pointer, so
+     * raw I/O is serialized here.
+     */
+    private void readPage(PageId pageNo, Page page) {
+        synchronized (ioLatch) {
+            Minibase.DiskManager.read_page(pageNo, page);
+        }
+    }
+
+    /**
+     * Reads consecutive pages from disk, with one request if the disk manager
+     * supports it; serialized like readPage.
+     */
+    private void readPages(PageId firstPg, Page[] pages) {
+        synchronized (ioLatch) {
+            if (Minibase.DiskManager instanceof ChannelDiskMgr) {
+                ((ChannelDiskMgr) Minibase.DiskManager).read_pages(firstPg, pages);
+            } else {
+                for (int i = 0; i < pages.length; i++) {
+                    Minibase.DiskManager.read_page(new PageId(firstPg.pid + i), pages[i]);
+                }
+            }
+        }
+    }
+
 } // public class BufMgr implements GlobalConst
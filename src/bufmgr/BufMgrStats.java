@@ -0,0 +1,193 @@
+package bufmgr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a buffer manager: hits, misses, evictions, read-ahead, victim
+ * search effort of the replacer, and how long pins wait for missing pages.
+ * Counters are striped (LongAdder), so sessions do not contend on them.
+ * The statistics can be published as an MBean under {@link #OBJECT_NAME}.
+ */
+public class BufMgrStats implements BufMgrStatsMBean {
+
+  /** Name under which the statistics are published. */
+  public static final String OBJECT_NAME = "minibase:type=BufferManager";
+
+  /** Pins that found the page in the pool. */
+  private final LongAdder hits = new LongAdder();
+
+  /** Pins that had to bring the page in. */
+  private final LongAdder misses = new LongAdder();
+
+  /** Pages replaced, and those of them written out first. */
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder dirtyEvictions = new LongAdder();
+
+  /** Pages read ahead. */
+  private final LongAdder prefetched = new LongAdder();
+
+  /** Dirty pages of which only the changed parts were written. */
+  private final LongAdder partialWrites = new LongAdder();
+
+  /** Victim searches, and frames the clock hand passed in them. */
+  private final LongAdder victimSearches = new LongAdder();
+  private final LongAdder clockTravel = new LongAdder();
+
+  /** Time missing pins waited for their page. */
+  private final LatencyHistogram pinWait = new LatencyHistogram();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records a pin that found its page in the pool.
+   */
+  void recordHit() {
+    hits.increment();
+  }
+
+  /**
+   * Records a pin that had to bring its page in, and how long it took.
+   */
+  void recordMiss(long nanos) {
+    misses.increment();
+    pinWait.record(nanos);
+  }
+
+  /**
+   * Records a page replaced by another.
+   */
+  void recordEviction(boolean dirty) {
+    evictions.increment();
+    if (dirty) {
+      dirtyEvictions.increment();
+    }
+  }
+
+  /**
+   * Records pages read ahead.
+   */
+  void recordPrefetch(int pages) {
+    prefetched.add(pages);
+  }
+
+  /**
+   * Records a page written in part.
+   */
+  void recordPartialWrite() {
+    partialWrites.increment();
+  }
+
+  /**
+   * Records a victim search of the clock replacer.
+   */
+  void recordVictimSearch(int travel) {
+    victimSearches.increment();
+    clockTravel.add(travel);
+  }
+
+  // --------------------------------------------------------------------------
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRatio() {
+    long h = hits.sum();
+    long pins = h + misses.sum();
+    return (pins == 0) ? 0 : (double) h / pins;
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getDirtyEvictions() {
+    return dirtyEvictions.sum();
+  }
+
+  public long getPrefetchedPages() {
+    return prefetched.sum();
+  }
+
+  public long getPartialWrites() {
+    return partialWrites.sum();
+  }
+
+  public long getVictimSearches() {
+    return victimSearches.sum();
+  }
+
+  public double getAverageClockTravel() {
+    long searches = victimSearches.sum();
+    return (searches == 0) ? 0 : (double) clockTravel.sum() / searches;
+  }
+
+  public double getMeanPinWait() {
+    return pinWait.getMean();
+  }
+
+  public long getMedianPinWait() {
+    return pinWait.getPercentile(50);
+  }
+
+  public long getP99PinWait() {
+    return pinWait.getPercentile(99);
+  }
+
+  public long[] getPinWaitHistogram() {
+    return pinWait.getBuckets();
+  }
+
+  public void reset() {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+    dirtyEvictions.reset();
+    prefetched.reset();
+    partialWrites.reset();
+    victimSearches.reset();
+    clockTravel.reset();
+    pinWait.reset();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Publishes these statistics in the platform MBean server, replacing those
+   * of an earlier buffer manager.
+   *
+   * @throws IllegalStateException if the MBean server refuses them
+   */
+  public void register() {
+    publish(this, OBJECT_NAME);
+  }
+
+  /**
+   * Publishes the given MBean in the platform MBean server under the given
+   * name, replacing any MBean already registered under it.
+   *
+   * @throws IllegalStateException if the MBean server refuses it
+   */
+  static void publish(Object mbean, String objectName) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(objectName);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(mbean, name);
+    } catch (JMException exc) {
+      throw new IllegalStateException("Cannot publish " + objectName, exc);
+    }
+  }
+
+} // public class BufMgrStats implements BufMgrStatsMBean
@@ -0,0 +1,50 @@
+package bufmgr;
+
+/**
+ * Management interface of the buffer pool statistics, as published over JMX.
+ */
+public interface BufMgrStatsMBean {
+
+  /** Number of pins that found the page in the pool. */
+  long getHits();
+
+  /** Number of pins that had to read (or copy in) the page. */
+  long getMisses();
+
+  /** Share of pins that were hits, from 0 to 1. */
+  double getHitRatio();
+
+  /** Number of pages replaced to make room for another. */
+  long getEvictions();
+
+  /** Number of replaced pages that had to be written out first. */
+  long getDirtyEvictions();
+
+  /** Number of pages read ahead by prefetch. */
+  long getPrefetchedPages();
+
+  /** Number of dirty pages of which only the changed parts were written. */
+  long getPartialWrites();
+
+  /** Number of victim searches by the replacer. */
+  long getVictimSearches();
+
+  /** Mean number of frames the clock hand passed per victim search. */
+  double getAverageClockTravel();
+
+  /** Mean time a missing pin waited for its page, in nanoseconds. */
+  double getMeanPinWait();
+
+  /** Median time a missing pin waited for its page (upper bound), in nanoseconds. */
+  long getMedianPinWait();
+
+  /** 99th percentile of the time a missing pin waited (upper bound), in nanoseconds. */
+  long getP99PinWait();
+
+  /** Counts of missing pin waits by power of two nanoseconds. */
+  long[] getPinWaitHistogram();
+
+  /** Starts all counts over. */
+  void reset();
+
+} // public interface BufMgrStatsMBean
@@ -0,0 +1,66 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A named partition of the buffer pool, with a quota of frames and its own
+ * replacer. Each resident page belongs to the partition that read it in: the
+ * partition the reading session had entered, or else the default one. A
+ * partition under its quota takes empty frames and victims of the default
+ * partition; once at its quota, it replaces its own pages. Only a partition's
+ * own misses evict its pages, so a partition sized to hold a small table
+ * keeps that table in memory for good, whatever scans run alongside.
+ */
+public class BufferPartition {
+
+  /** Name of the partition. */
+  private final String name;
+
+  /** Number of frames the partition may fill. */
+  private final int quota;
+
+  /** Number of frames holding (or claimed for) the partition's pages. */
+  final AtomicInteger size = new AtomicInteger();
+
+  /** Chooses victims among the partition's frames; set when built. */
+  Replacer replacer;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty partition.
+   */
+  BufferPartition(String name, int quota) {
+    this.name = name;
+    this.quota = quota;
+  }
+
+  /**
+   * Gets the name of the partition.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the number of frames the partition may fill.
+   */
+  public int getQuota() {
+    return quota;
+  }
+
+  /**
+   * Gets the number of frames the partition holds.
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * Returns the name of the partition.
+   */
+  public String toString() {
+    return name;
+  }
+
+} // public class BufferPartition
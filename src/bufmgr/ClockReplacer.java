@@ -1,7 +1,5 @@
 package bufmgr;
 
-import global.Minibase;
-
 /**
  * Created by crashh on 9/19/14.
  */
@@ -9,15 +7,18 @@ public class ClockReplacer extends Replacer {
 
     private int numbufs;
     private int currentFrame;
+    //Where the hand travel of each search is counted.
+    private final BufMgrStats stats;
 
     /**
-     * Constructs the replacer, given the buffer manager.
+     * Constructs the replacer, given the buffer manager and its partition.
      *
      * @param bufmgr
+     * @param partition
      */
-    protected ClockReplacer(BufMgr bufmgr) {
+    protected ClockReplacer(BufMgr bufmgr, BufferPartition partition) {
 
-        super(bufmgr);
+        super(bufmgr, partition);
 
         //Reference back to the buffer manager's frame table.
         frametab = bufmgr.getFrameDesc();
@@ -25,6 +26,7 @@ public class ClockReplacer extends Replacer {
         //Need this to make the clock circular.
         numbufs = bufmgr.getNumBuffers()-1;
         currentFrame = numbufs;
+        stats = bufmgr.getStats();
     }
 
     /**
@@ -35,7 +37,20 @@ public class ClockReplacer extends Replacer {
     @Override
     public void newPage(FrameDesc fdesc) {
 
-        throw new UnsupportedOperationException("Not implemented");
+        //A new page starts with its reference bit set.
+        fdesc.state = 1;
+    }
+
+    /**
+     * Notifies the replacer of a page read ahead.
+     *
+     * @param fdesc
+     */
+    @Override
+    public void prefetched(FrameDesc fdesc) {
+
+        //No reference yet: the first pin sets the bit.
+        fdesc.state = 0;
     }
 
     /**
@@ -46,7 +61,7 @@ public class ClockReplacer extends Replacer {
     @Override
     public void freePage(FrameDesc fdesc) {
 
-        throw new UnsupportedOperationException("Not implemented");
+        fdesc.state = 0;
     }
 
     /**
@@ -57,7 +72,8 @@ public class ClockReplacer extends Replacer {
     @Override
     public void pinPage(FrameDesc fdesc) {
 
-        throw new UnsupportedOperationException("Not implemented");
+        //Give the page a second chance.
+        fdesc.state = 1;
     }
 
     /**
@@ -68,36 +84,39 @@ public class ClockReplacer extends Replacer {
     @Override
     public void unpinPage(FrameDesc fdesc) {
 
-        throw new UnsupportedOperationException("Not implemented");
+        //Reference bit was set when pinned; nothing to do.
     }
 
     /**
-     * Selects the best frame to use for pinning a new page.
+     * Selects the best frame to use for pinning a new page. The clock hand is
+     * shared, so sessions take turns; the buffer manager claims (and flushes)
+     * the returned frame under its latch, and asks again if it lost the race.
      *
      * @return victim frame number, or -1 if none available
      */
     @Override
-    public int pickVictim() {
+    public synchronized int pickVictim() {
 
         /* Written using this algorithm:
          * http://courses.cs.washington.edu/courses/csep544/99au/minirel/bufmgr.html
          * */
 
-        //Keeps track of how many frames are pinned.
-        int pinCount = 0;
-
-        //Our clock algorithm, keeps going until all pinned or frame found.
-        while (true) {
+        //Two full turns are enough: the first one clears every reference bit,
+        //so the second finds any frame that is unpinned.
+        int step = 0;
+        for (; step < 2 * (numbufs + 1); step++) {
 
             //Makes the rotation circular.
             if (currentFrame++ >= numbufs){
                 currentFrame=0;
-                pinCount = 0;
             }
 
-            if(pinCount==numbufs)
-                return -1; //No available frame found.
-
+            //Is frame not allocated yet, or another partition's? Then its
+            //bit is not ours to clear..
+            if (frametab[currentFrame] == null
+                    || frametab[currentFrame].partition != partition){
+                continue;
+            }
             //Is refBit set? if so clear it and advance pointer..
             if (frametab[currentFrame].state == 1){
                 frametab[currentFrame].state = 0;
@@ -105,15 +124,12 @@ public class ClockReplacer extends Replacer {
             }
             //Is page pinned? If so advance pointer..
             if (frametab[currentFrame].pincnt>0){
-                pinCount++; //Counting if all are pinned to break.
                 continue;
             }
-            //Is page dirty? If so flush it and continue..
-            if (frametab[currentFrame].dirty == true){
-                Minibase.BufferManager.flushPage(frametab[currentFrame].pageno);
-            }
-
+            stats.recordVictimSearch(step + 1);
             return currentFrame; //Use this frame.
         }
+        stats.recordVictimSearch(step);
+        return -1; //No available frame found.
     }
 }
@@ -0,0 +1,109 @@
+package bufmgr;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the writers of flushAllPages. The dirty frames are split into runs
+ * of consecutive pages up front, and each writer claims the next run not
+ * taken yet until none is left, so writers that get slow runs just take fewer
+ * of them. Each writer latches only the frames of its own run, and no frame is
+ * in two runs, so writers never wait on one another's latches.
+ * <p>
+ * A writer with a channel of its own writes at explicit positions, outside the
+ * buffer manager's I/O latch; one without writes through the disk manager's
+ * shared file pointer, like any other I/O.
+ */
+class FlushWriter implements Runnable {
+
+  /** The buffer manager being flushed. */
+  private final BufMgr bufmgr;
+
+  /** Dirty frames, as (page number << 32 | frame number), in page order. */
+  private final long[] dirty;
+
+  /** Index in dirty of the start of each run; runs[numRuns] ends the last. */
+  private final int[] runs;
+
+  /** Number of runs. */
+  private final int numRuns;
+
+  /** Next run to claim, shared by the writers of a flush. */
+  private final AtomicInteger nextRun;
+
+  /** The writer's own channel, or null to use the shared one. */
+  private final FileChannel channel;
+
+  /** Pages and frames of the run being written. */
+  private int[] pids = new int[0];
+  private int[] frames = new int[0];
+
+  /** Number of write requests made so far. */
+  private int requests;
+
+  /** What made the writer stop early, if anything. */
+  private RuntimeException failure;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a writer of the given runs; it takes ownership of the channel.
+   */
+  public FlushWriter(BufMgr bufmgr, long[] dirty, int[] runs, int numRuns,
+      AtomicInteger nextRun, FileChannel channel) {
+    this.bufmgr = bufmgr;
+    this.dirty = dirty;
+    this.runs = runs;
+    this.numRuns = numRuns;
+    this.nextRun = nextRun;
+    this.channel = channel;
+  }
+
+  /**
+   * Writes runs until none is left, then closes the channel.
+   */
+  public void run() {
+    try {
+      for (int run = nextRun.getAndIncrement(); run < numRuns;
+          run = nextRun.getAndIncrement()) {
+        int start = runs[run];
+        int size = runs[run + 1] - start;
+        if (pids.length < size) {
+          pids = new int[size];
+          frames = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+          pids[i] = (int) (dirty[start + i] >>> 32);
+          frames[i] = (int) dirty[start + i];
+        }
+        requests += bufmgr.flushRun(pids, frames, size, 0, channel);
+      }
+    } catch (RuntimeException exc) {
+      failure = exc;
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException exc) {
+          // everything written was written; sync makes it durable
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of write requests made.
+   */
+  public int getRequests() {
+    return requests;
+  }
+
+  /**
+   * Gets what made the writer stop early, or null if it wrote all it claimed.
+   */
+  public RuntimeException getFailure() {
+    return failure;
+  }
+
+} // class FlushWriter implements Runnable
@@ -1,9 +1,15 @@
 package bufmgr;
 
 import global.PageId;
+import global.WriteMask;
+
+import java.util.concurrent.locks.StampedLock;
 
 /**
- * A frame descriptor; contains info about each page in the buffer pool.
+ * A frame descriptor; contains info about each page in the buffer pool. The
+ * descriptor doubles as the frame's latch: the buffer manager updates its
+ * fields only while synchronized on it. Optimistic readers, which take no
+ * latch, go by the version stamp instead.
  */
 class FrameDesc {
 
@@ -19,9 +25,24 @@ class FrameDesc {
   /** The frame's dirty status. */
   public boolean dirty;
 
+  /** Parts of the page changed since it was last saved, as far as known. */
+  public final WriteMask writes = new WriteMask();
+
   /** Generic state used by replacers. */
   public int state;
 
+  /** Partition the frame's page belongs to, or null if the frame is empty. */
+  public BufferPartition partition;
+
+  /** Version stamp; write-locked while the frame is pinned. */
+  public final StampedLock version = new StampedLock();
+
+  /** Stamp of the version's write lock, while pinned. */
+  public long versionStamp;
+
+  /** Records of the frame's pins, newest first, while leaks are tracked. */
+  public PinLeakDetector.Holder holders;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -0,0 +1,128 @@
+package bufmgr;
+
+/**
+ * Doubly-linked list of frame numbers, stored in int arrays indexed by frame,
+ * so moving a frame within or between lists allocates nothing. A frame is in
+ * a given list at most once. Used by the list-based replacement policies; the
+ * caller provides any synchronization.
+ */
+class FrameList {
+
+  /** Marks the end of the list, or a frame that is not in it. */
+  public static final int NONE = -1;
+
+  /** Previous frame of each member, towards the head. */
+  private final int[] prev;
+
+  /** Next frame of each member, towards the tail. */
+  private final int[] next;
+
+  /** True for frames currently in the list. */
+  private final boolean[] member;
+
+  /** Oldest (first) frame. */
+  private int head = NONE;
+
+  /** Newest (last) frame. */
+  private int tail = NONE;
+
+  /** Number of frames in the list. */
+  private int size;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty list for a pool of the given size. The links of a
+   * frame are only read while it is a member, so they need no initial value.
+   */
+  public FrameList(int numbufs) {
+    prev = new int[numbufs];
+    next = new int[numbufs];
+    member = new boolean[numbufs];
+  }
+
+  /**
+   * Gets the number of frames in the list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * True if the given frame is in the list.
+   */
+  public boolean contains(int frameNo) {
+    return member[frameNo];
+  }
+
+  /**
+   * Gets the oldest frame, or NONE if the list is empty.
+   */
+  public int first() {
+    return head;
+  }
+
+  /**
+   * Gets the frame after the given one, or NONE at the end of the list.
+   */
+  public int next(int frameNo) {
+    return next[frameNo];
+  }
+
+  /**
+   * Gets the newest (last) frame, or NONE if the list is empty.
+   */
+  public int last() {
+    return tail;
+  }
+
+  /**
+   * Gets the frame before the given one, or NONE at the head of the list.
+   */
+  public int prev(int frameNo) {
+    return prev[frameNo];
+  }
+
+  /**
+   * Appends the given frame as the newest one, moving it if already present.
+   */
+  public void addLast(int frameNo) {
+    remove(frameNo);
+    prev[frameNo] = tail;
+    next[frameNo] = NONE;
+    if (tail == NONE) {
+      head = frameNo;
+    } else {
+      next[tail] = frameNo;
+    }
+    tail = frameNo;
+    member[frameNo] = true;
+    size++;
+  }
+
+  /**
+   * Removes the given frame from the list, if present.
+   */
+  public void remove(int frameNo) {
+    if (!member[frameNo]) {
+      return;
+    }
+    int p = prev[frameNo];
+    int n = next[frameNo];
+    if (p == NONE) {
+      head = n;
+    } else {
+      next[p] = n;
+    }
+    if (n == NONE) {
+      tail = p;
+    } else {
+      prev[n] = p;
+    }
+    prev[frameNo] = NONE;
+    next[frameNo] = NONE;
+    member[frameNo] = false;
+    size--;
+  }
+
+} // class FrameList
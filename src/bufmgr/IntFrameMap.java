@@ -0,0 +1,184 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from page numbers to frame numbers. Keys and
+ * values live in parallel int arrays, so lookups neither box the PID nor chase
+ * entry pointers; collisions are resolved by linear probing, and removals shift
+ * later entries back instead of leaving tombstones. Nothing is allocated after
+ * construction unless the table grows past half full.
+ */
+public class IntFrameMap {
+
+  /** Returned by get and remove when the page is not in the table. */
+  public static final int NOT_FOUND = -1;
+
+  /** Key of an unused slot; page numbers are never negative. */
+  private static final int EMPTY = -1;
+
+  /** Multiplier for Fibonacci hashing, which spreads sequential PIDs. */
+  private static final int GOLDEN = 0x9E3779B9;
+
+  // --------------------------------------------------------------------------
+
+  /** Page numbers, or EMPTY. */
+  private int[] keys;
+
+  /** Frame numbers, parallel to keys. */
+  private int[] values;
+
+  /** Number of bits to shift the hash down to a slot index. */
+  private int shift;
+
+  /** Number of pages in the table. */
+  private int size;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty table able to hold the given number of pages without
+   * growing.
+   */
+  public IntFrameMap(int capacity) {
+    int slots = Integer.highestOneBit(Math.max(capacity, 1)) << 2;
+    allocate(slots);
+  }
+
+  /**
+   * Gets the number of pages in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the frame holding the given page, or NOT_FOUND.
+   */
+  public int get(int pid) {
+    int mask = keys.length - 1;
+    for (int i = slot(pid); ; i = (i + 1) & mask) {
+      int key = keys[i];
+      if (key == pid) {
+        return values[i];
+      }
+      if (key == EMPTY) {
+        return NOT_FOUND;
+      }
+    }
+  }
+
+  /**
+   * Gets the frame holding the given page, or NOT_FOUND, without the lock
+   * that guards the table. Concurrent updates can make the answer wrong, so
+   * the caller must check it, but never make this fail or loop.
+   */
+  public int getRacy(int pid) {
+    int[] k = keys;
+    int[] v = values;
+    if (k.length != v.length) {
+      return NOT_FOUND; // caught growing
+    }
+    int mask = k.length - 1;
+    int i = (pid * GOLDEN) >>> (Integer.numberOfLeadingZeros(k.length) + 1);
+    for (int probes = 0; probes < k.length; probes++, i = (i + 1) & mask) {
+      int key = k[i];
+      if (key == pid) {
+        return v[i];
+      }
+      if (key == EMPTY) {
+        return NOT_FOUND;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Maps the given page to the given frame, replacing any previous mapping.
+   *
+   * @throws IllegalArgumentException if the page number is negative
+   */
+  public void put(int pid, int frameNo) {
+    if (pid < 0) {
+      throw new IllegalArgumentException("Invalid page number: " + pid);
+    }
+    int mask = keys.length - 1;
+    int i = slot(pid);
+    while (keys[i] != EMPTY && keys[i] != pid) {
+      i = (i + 1) & mask;
+    }
+    if (keys[i] == EMPTY) {
+      keys[i] = pid;
+      size++;
+    }
+    values[i] = frameNo;
+    if (size * 2 > keys.length) {
+      grow();
+    }
+  }
+
+  /**
+   * Removes the given page from the table.
+   *
+   * @return the frame it was mapped to, or NOT_FOUND
+   */
+  public int remove(int pid) {
+    int mask = keys.length - 1;
+    int hole = slot(pid);
+    while (keys[hole] != pid) {
+      if (keys[hole] == EMPTY) {
+        return NOT_FOUND;
+      }
+      hole = (hole + 1) & mask;
+    }
+    int frameNo = values[hole];
+
+    // shift back any later entry of the run that may now sit in the hole
+    for (int i = (hole + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+      int home = slot(keys[i]);
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        values[hole] = values[i];
+        hole = i;
+      }
+    }
+    keys[hole] = EMPTY;
+    size--;
+    return frameNo;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the home slot of the given page number.
+   */
+  private int slot(int pid) {
+    return (pid * GOLDEN) >>> shift;
+  }
+
+  /**
+   * Replaces the arrays with empty ones of the given power of two length.
+   */
+  private void allocate(int slots) {
+    keys = new int[slots];
+    values = new int[slots];
+    Arrays.fill(keys, EMPTY);
+    shift = Integer.numberOfLeadingZeros(slots) + 1;
+    size = 0;
+  }
+
+  /**
+   * Doubles the table and re-inserts every mapping.
+   */
+  private void grow() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldKeys.length << 1);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+} // public class IntFrameMap
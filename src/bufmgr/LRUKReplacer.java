@@ -0,0 +1,186 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum): the victim is the unpinned
+ * frame whose K-th most recent reference is oldest. Pages referenced fewer
+ * than K times have an infinite backward distance and go first, least recently
+ * referenced among them; so pages touched once by a sequential scan leave the
+ * pool before pages that have proven to be hot.
+ * <p>
+ * Only a pin that finds the page unpinned counts as a reference, so repeated
+ * pins by one operator (correlated references) do not make a page look hot.
+ * Reference history is kept per frame and forgotten when the page is evicted.
+ * Pages read ahead start with no history, so they go first until pinned.
+ */
+public class LRUKReplacer extends Replacer {
+
+    //Number of references remembered per frame.
+    private final int k;
+    //Logical clock, advanced on each reference.
+    private long tick;
+    //Reference times per frame, most recent first (k entries per frame, 0 = none).
+    private final long[] history;
+
+    //Unpinned frames holding a page, best victim first.
+    private final TreeSet<Integer> candidates;
+
+    /**
+     * Constructs the replacer, given the buffer manager and its partition.
+     *
+     * @param bufmgr
+     * @param partition
+     * @param k number of references to consider, at least 1
+     */
+    protected LRUKReplacer(BufMgr bufmgr, BufferPartition partition, int k) {
+
+        super(bufmgr, partition);
+
+        if (k < 1) {
+            throw new IllegalArgumentException("Invalid LRU-K depth: " + k);
+        }
+
+        //Reference back to the buffer manager's frame table.
+        frametab = bufmgr.getFrameDesc();
+
+        this.k = k;
+        history = new long[frametab.length * k];
+
+        //Order by K-th reference (0 if fewer than K), then by last reference.
+        candidates = new TreeSet<Integer>(new Comparator<Integer>() {
+            public int compare(Integer f1, Integer f2) {
+                int cmp = Long.compare(kthReference(f1), kthReference(f2));
+                if (cmp == 0) {
+                    cmp = Long.compare(lastReference(f1), lastReference(f2));
+                }
+                return (cmp != 0) ? cmp : Integer.compare(f1, f2);
+            }
+        });
+    }
+
+    /**
+     * Notifies the replacer of a new page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void newPage(FrameDesc fdesc) {
+
+        candidates.remove(fdesc.index);
+
+        //Start a fresh history with this first reference.
+        int base = fdesc.index * k;
+        history[base] = ++tick;
+        for (int i = 1; i < k; i++) {
+            history[base + i] = 0;
+        }
+    }
+
+    /**
+     * Notifies the replacer of a page read ahead.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void prefetched(FrameDesc fdesc) {
+
+        candidates.remove(fdesc.index);
+
+        //Start an empty history: the first pin is the first reference.
+        Arrays.fill(history, fdesc.index * k, fdesc.index * k + k, 0);
+    }
+
+    /**
+     * Notifies the replacer of a free page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void freePage(FrameDesc fdesc) {
+
+        candidates.remove(fdesc.index);
+    }
+
+    /**
+     * Notifies the replacer of a pined page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void pinPage(FrameDesc fdesc) {
+
+        //Correlated reference: the page is already in use.
+        if (fdesc.pincnt > 1) {
+            return;
+        }
+
+        //Remove before the history (i.e. the sort key) changes.
+        candidates.remove(fdesc.index);
+        int base = fdesc.index * k;
+        System.arraycopy(history, base, history, base + 1, k - 1);
+        history[base] = ++tick;
+    }
+
+    /**
+     * Notifies the replacer of an unpinned page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void unpinPage(FrameDesc fdesc) {
+
+        candidates.add(fdesc.index);
+    }
+
+    /**
+     * Selects the best frame to use for pinning a new page.
+     *
+     * @return victim frame number, or -1 if none available
+     */
+    @Override
+    public synchronized int pickVictim() {
+
+        for (int frameNo : candidates) {
+            if (frametab[frameNo].pincnt == 0) {
+                return frameNo;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lists the frames holding a page, hottest first: the pinned ones, then
+     * the unpinned ones, worst victim first.
+     *
+     * @return frame numbers
+     */
+    @Override
+    public synchronized int[] framesByHotness() {
+
+        int[] frames = new int[frametab.length];
+        int count = appendPinned(frames, 0);
+        for (int frameNo : candidates.descendingSet()) {
+            if (isResident(frametab[frameNo]) && frametab[frameNo].pincnt == 0) {
+                frames[count++] = frameNo;
+            }
+        }
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * Gets the time of the frame's K-th most recent reference, or 0 if none.
+     */
+    private long kthReference(int frameNo) {
+        return history[frameNo * k + k - 1];
+    }
+
+    /**
+     * Gets the time of the frame's most recent reference.
+     */
+    private long lastReference(int frameNo) {
+        return history[frameNo * k];
+    }
+}
@@ -0,0 +1,100 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * Least recently used replacement: the victim is the frame whose last pin was
+ * released longest ago.
+ */
+public class LRUReplacer extends Replacer {
+
+    //Unpinned frames, least recently unpinned first.
+    private final FrameList lru;
+
+    /**
+     * Constructs the replacer, given the buffer manager and its partition.
+     *
+     * @param bufmgr
+     * @param partition
+     */
+    protected LRUReplacer(BufMgr bufmgr, BufferPartition partition) {
+
+        super(bufmgr, partition);
+
+        //Reference back to the buffer manager's frame table.
+        frametab = bufmgr.getFrameDesc();
+
+        lru = new FrameList(frametab.length);
+    }
+
+    /**
+     * Notifies the replacer of a new page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void newPage(FrameDesc fdesc) {
+
+        //The frame is pinned, so it is nobody's candidate until unpinned.
+        lru.remove(fdesc.index);
+    }
+
+    /**
+     * Notifies the replacer of a free page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void freePage(FrameDesc fdesc) {
+
+        lru.remove(fdesc.index);
+    }
+
+    /**
+     * Notifies the replacer of a pined page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void pinPage(FrameDesc fdesc) {
+
+        lru.remove(fdesc.index);
+    }
+
+    /**
+     * Notifies the replacer of an unpinned page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void unpinPage(FrameDesc fdesc) {
+
+        lru.addLast(fdesc.index);
+    }
+
+    /**
+     * Selects the best frame to use for pinning a new page.
+     *
+     * @return victim frame number, or -1 if none available
+     */
+    @Override
+    public synchronized int pickVictim() {
+
+        return firstUnpinned(lru);
+    }
+
+    /**
+     * Lists the frames holding a page, hottest first: the pinned ones, then
+     * the unpinned ones, most recently unpinned first.
+     *
+     * @return frame numbers
+     */
+    @Override
+    public synchronized int[] framesByHotness() {
+
+        int[] frames = new int[frametab.length];
+        int count = appendPinned(frames, 0);
+        count = appendNewestFirst(lru, frames, count);
+        return Arrays.copyOf(frames, count);
+    }
+}
@@ -0,0 +1,95 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, with one bucket per power of two, so
+ * recording is a couple of atomic adds and the buckets never need resizing.
+ * Percentiles are reported as the upper bound of their bucket, i.e. to within
+ * a factor of two.
+ */
+public class LatencyHistogram {
+
+  /** Bucket b counts durations in [2^(b-1), 2^b), bucket 0 counts zero. */
+  private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+  /** Number of durations recorded. */
+  private final LongAdder count = new LongAdder();
+
+  /** Sum of the durations recorded. */
+  private final LongAdder total = new LongAdder();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records the given duration.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+    count.increment();
+    total.add(nanos);
+  }
+
+  /**
+   * Gets the number of durations recorded.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Gets the mean duration, or 0 if none were recorded.
+   */
+  public double getMean() {
+    long cnt = count.sum();
+    return (cnt == 0) ? 0 : (double) total.sum() / cnt;
+  }
+
+  /**
+   * Gets an upper bound of the given percentile (0 to 100), or 0 if none were
+   * recorded.
+   */
+  public long getPercentile(double percentile) {
+    long cnt = 0;
+    long[] snapshot = getBuckets();
+    for (long bucket : snapshot) {
+      cnt += bucket;
+    }
+    long rank = (long) Math.ceil(cnt * percentile / 100);
+    long seen = 0;
+    for (int b = 0; b < snapshot.length; b++) {
+      seen += snapshot[b];
+      if (seen >= rank && seen > 0) {
+        return (b == 0) ? 0 : (b >= 63) ? Long.MAX_VALUE : 1L << b;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets a copy of the bucket counts.
+   */
+  public long[] getBuckets() {
+    long[] snapshot = new long[buckets.length()];
+    for (int b = 0; b < snapshot.length; b++) {
+      snapshot[b] = buckets.get(b);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Forgets all recorded durations.
+   */
+  public void reset() {
+    for (int b = 0; b < buckets.length(); b++) {
+      buckets.set(b, 0);
+    }
+    count.reset();
+    total.reset();
+  }
+
+} // public class LatencyHistogram
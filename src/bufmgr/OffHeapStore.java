@@ -0,0 +1,75 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Page contents of an off-heap buffer pool: direct buffers outside the Java
+ * heap, one PAGE_SIZE slot per frame, so the garbage collector never scans or
+ * moves the cached pages. The pool is split into segments of at most 1 MB,
+ * which are only allocated once the pool grows into them. The caller provides
+ * any synchronization, per frame.
+ */
+class OffHeapStore implements GlobalConst {
+
+  /** Largest segment, in bytes. */
+  private static final int SEGMENT_BYTES = 1 << 20;
+
+  /** Number of frames in the pool. */
+  private final int numbufs;
+
+  /** Number of frames per segment. */
+  private final int framesPerSegment;
+
+  /** The direct buffers holding the frames; null until allocated. */
+  private final ByteBuffer[] segments;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Prepares space for the given number of frames, allocating none yet.
+   */
+  public OffHeapStore(int numbufs) {
+    this.numbufs = numbufs;
+    framesPerSegment = SEGMENT_BYTES / PAGE_SIZE;
+    segments = new ByteBuffer[(numbufs + framesPerSegment - 1) / framesPerSegment];
+  }
+
+  /**
+   * Allocates zeroed space for the given frame, if its segment has none yet.
+   * Frames are added one at a time, in order, before they are used.
+   */
+  public void extend(int frameNo) {
+    int seg = frameNo / framesPerSegment;
+    if (segments[seg] == null) {
+      int frames = Math.min(framesPerSegment, numbufs - seg * framesPerSegment);
+      segments[seg] = ByteBuffer.allocateDirect(frames * PAGE_SIZE);
+    }
+  }
+
+  /**
+   * Copies the given frame's contents into the given array.
+   */
+  public void load(int frameNo, byte[] data) {
+    slot(frameNo).get(data, 0, PAGE_SIZE);
+  }
+
+  /**
+   * Copies the given array into the given frame.
+   */
+  public void store(int frameNo, byte[] data) {
+    slot(frameNo).put(data, 0, PAGE_SIZE);
+  }
+
+  /**
+   * Gets a view positioned at the given frame; views are cheap, and keep
+   * concurrent copies of different frames from sharing a position.
+   */
+  private ByteBuffer slot(int frameNo) {
+    ByteBuffer view = segments[frameNo / framesPerSegment].duplicate();
+    view.position((frameNo % framesPerSegment) * PAGE_SIZE);
+    return view;
+  }
+
+} // class OffHeapStore implements GlobalConst
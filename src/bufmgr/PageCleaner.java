@@ -0,0 +1,114 @@
+package bufmgr;
+
+/**
+ * Background writer for the buffer pool. It sleeps until the number of dirty
+ * frames reaches the high watermark, then sweeps the pool circularly, writing
+ * dirty frames that nobody has pinned, until the low watermark is reached.
+ * Frames are written under their own latch, exactly as flushPage would.
+ */
+class PageCleaner extends Thread {
+
+  /** How long to sleep between checks, in case a wakeup was missed. */
+  private static final long IDLE_MILLIS = 100;
+
+  /** The buffer manager whose frames are cleaned. */
+  private final BufMgr bufmgr;
+
+  /** Dirty frame count at which a sweep stops. */
+  private final int lowWater;
+
+  /** Dirty frame count at which a sweep starts. */
+  private final int highWater;
+
+  /** Signalled when the high watermark is reached, or on shutdown. */
+  private final Object signal = new Object();
+
+  /** Last frame looked at, so each sweep continues where the last one ended. */
+  private int cursor;
+
+  /** Cleared on shutdown. */
+  private volatile boolean running = true;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a cleaner for the given buffer manager; call start to run it.
+   */
+  public PageCleaner(BufMgr bufmgr, int lowWater, int highWater) {
+    super("PageCleaner");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.lowWater = lowWater;
+    this.highWater = highWater;
+    cursor = -1;
+  }
+
+  /**
+   * Called when a frame becomes dirty; wakes the cleaner at the high watermark.
+   */
+  public void dirtied(int numDirty) {
+    if (numDirty == highWater) {
+      synchronized (signal) {
+        signal.notify();
+      }
+    }
+  }
+
+  /**
+   * Stops the cleaner and waits for its current write to finish.
+   */
+  public void shutdown() {
+    running = false;
+    synchronized (signal) {
+      signal.notify();
+    }
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the high watermark and sweeps, until shut down.
+   */
+  public void run() {
+    try {
+      while (running) {
+        synchronized (signal) {
+          if (running && bufmgr.getNumDirty() < highWater) {
+            signal.wait(IDLE_MILLIS);
+          }
+        }
+        if (running && bufmgr.getNumDirty() >= highWater && sweep() == 0) {
+          // every dirty frame is pinned; give the pins time to go away
+          Thread.sleep(IDLE_MILLIS);
+        }
+      }
+    } catch (InterruptedException exc) {
+      // shut down
+    }
+  }
+
+  /**
+   * Makes at most one pass over the pool, writing dirty unpinned frames until
+   * the low watermark is reached.
+   *
+   * @return number of frames written
+   */
+  private int sweep() {
+    int numbufs = bufmgr.getNumFrames();
+    int written = 0;
+    for (int i = 0; i < numbufs && running; i++) {
+      if (bufmgr.getNumDirty() <= lowWater) {
+        break;
+      }
+      cursor = (cursor + 1) % numbufs;
+      if (bufmgr.cleanFrame(cursor)) {
+        written++;
+      }
+    }
+    return written;
+  }
+
+} // class PageCleaner extends Thread
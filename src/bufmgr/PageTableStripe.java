@@ -0,0 +1,27 @@
+package bufmgr;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One partition of the buffer manager's page table. Each stripe maps the
+ * PageIds that hash to it onto frame numbers, and is guarded by its own
+ * read/write lock: lookups of resident pages take the shared lock, while
+ * installing or evicting a mapping takes the exclusive one.
+ */
+class PageTableStripe extends ReentrantReadWriteLock {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Maps page numbers to their frame in the buffer pool. */
+  public final IntFrameMap pages;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty stripe, sized for the expected number of pages.
+   */
+  public PageTableStripe(int capacity) {
+    pages = new IntFrameMap(capacity);
+  }
+
+} // class PageTableStripe extends ReentrantReadWriteLock
@@ -0,0 +1,326 @@
+package bufmgr;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds pins that are never released. While enabled, each pin is recorded
+ * on its frame with its owner (the iterator the session was running, if any),
+ * its thread and its call site; unpins drop the record of the same owner.
+ * Sessions run each query plan in a scope, and any pin of the scope still held
+ * when it ends is reported as a leak. It is off by default; when off, a pin
+ * costs one volatile read. When on, a pin costs a small record and a stack
+ * capture, which is only turned into text for leaks.
+ * <p>
+ * Pins are matched to unpins by owner and thread, and else the oldest record
+ * goes, so a scan that is unpinned by another iterator than the one that
+ * pinned it may get the wrong record dropped; the count of leaks is still
+ * right.
+ */
+public class PinLeakDetector implements PinLeakDetectorMBean {
+
+  /** Name under which the detector is published. */
+  public static final String OBJECT_NAME = "minibase:type=PinLeakDetector";
+
+  /** Number of leak reports kept. */
+  private static final int RECENT_LEAKS = 64;
+
+  /** Most stack frames shown per leak. */
+  private static final int SITE_FRAMES = 8;
+
+  /** The buffer manager whose pins are tracked. */
+  private final BufMgr bufmgr;
+
+  /** Set while tracking. */
+  private volatile boolean enabled;
+
+  /** Owner and scope of each session. */
+  private final ThreadLocal<Session> sessions = new ThreadLocal<Session>() {
+    protected Session initialValue() {
+      return new Session();
+    }
+  };
+
+  /** Leaked pins reported so far. */
+  private final AtomicLong leakCount = new AtomicLong();
+
+  /** Most recent leak reports, oldest first. */
+  private final ArrayList<String> recentLeaks = new ArrayList<String>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * What a session is running: the iterator pinning pages, and the scope of
+   * the query plan.
+   */
+  private static class Session {
+    Object owner;
+    Scope scope;
+  }
+
+  /**
+   * A query plan being run, with the number of its pins still held.
+   */
+  public static class Scope {
+
+    /** Describes the plan in reports. */
+    private final String name;
+
+    /** Pins taken in the scope and not released yet. */
+    private final AtomicInteger held = new AtomicInteger();
+
+    /** The scope the session was in before. */
+    private final Scope outer;
+
+    Scope(String name, Scope outer) {
+      this.name = name;
+      this.outer = outer;
+    }
+
+  } // public static class Scope
+
+  /**
+   * Record of one pin; frames keep theirs in a list, newest first.
+   */
+  static class Holder {
+    int pid;
+    Object owner;
+    Scope scope;
+    Thread thread;
+    Throwable site;
+    Holder next;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a disabled detector for the given buffer manager.
+   */
+  public PinLeakDetector(BufMgr bufmgr) {
+    this.bufmgr = bufmgr;
+  }
+
+  /**
+   * Makes the given object the owner of the pins the session takes from now
+   * on; nothing is done while disabled.
+   *
+   * @return the owner to restore with exitOwner
+   */
+  public Object enterOwner(Object owner) {
+    if (!enabled) {
+      return null;
+    }
+    Session session = sessions.get();
+    Object previous = session.owner;
+    session.owner = owner;
+    return previous;
+  }
+
+  /**
+   * Restores the owner that was current before enterOwner.
+   */
+  public void exitOwner(Object previous) {
+    if (enabled) {
+      sessions.get().owner = previous;
+    }
+  }
+
+  /**
+   * Starts the scope of a query plan in the session; scopes may nest.
+   *
+   * @param name describes the plan in reports
+   * @return the scope to end with endScope, or null while disabled
+   */
+  public Scope beginScope(String name) {
+    if (!enabled) {
+      return null;
+    }
+    Session session = sessions.get();
+    session.scope = new Scope(name, session.scope);
+    return session.scope;
+  }
+
+  /**
+   * Ends the scope of a query plan, and reports any pins taken in it and
+   * still held: one report per pin, with the page, owner, thread and call
+   * site. The frames are only searched if the scope holds pins.
+   *
+   * @param scope from beginScope; null is ignored
+   * @return the reports, none if nothing leaked
+   */
+  public String[] endScope(Scope scope) {
+    if (scope == null) {
+      return new String[0];
+    }
+    Session session = sessions.get();
+    if (session.scope == scope) {
+      session.scope = scope.outer;
+    }
+    if (scope.held.get() == 0) {
+      return new String[0];
+    }
+
+    ArrayList<String> leaks = new ArrayList<String>();
+    FrameDesc[] frames = bufmgr.getFrameDesc();
+    for (int i = 0, count = bufmgr.getNumFrames(); i < count; i++) {
+      FrameDesc fdesc = frames[i];
+      synchronized (fdesc) {
+        for (Holder holder = fdesc.holders; holder != null; holder = holder.next) {
+          if (holder.scope == scope) {
+            leaks.add(describe(scope, holder));
+          }
+        }
+      }
+    }
+    leakCount.addAndGet(leaks.size());
+    synchronized (recentLeaks) {
+      recentLeaks.addAll(leaks);
+      while (recentLeaks.size() > RECENT_LEAKS) {
+        recentLeaks.remove(0);
+      }
+    }
+    return leaks.toArray(new String[leaks.size()]);
+  }
+
+  /**
+   * Describes a leaked pin.
+   */
+  private static String describe(Scope scope, Holder holder) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Leaked pin of page ").append(holder.pid).append(" in ")
+        .append(scope.name).append(", owner ").append(holder.owner)
+        .append(", thread ").append(holder.thread.getName());
+    int shown = 0;
+    for (StackTraceElement frame : holder.site.getStackTrace()) {
+      if (frame.getClassName().startsWith("bufmgr.")) {
+        continue;
+      }
+      sb.append("\n\tat ").append(frame);
+      if (++shown == SITE_FRAMES) {
+        break;
+      }
+    }
+    return sb.toString();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records a pin of the given page on its frame; called under the frame's
+   * latch, while enabled.
+   *
+   * @return the frame's new list of records
+   */
+  Holder pinned(Holder holders, int pid) {
+    Session session = sessions.get();
+    Holder holder = new Holder();
+    holder.pid = pid;
+    holder.owner = session.owner;
+    holder.scope = session.scope;
+    holder.thread = Thread.currentThread();
+    holder.site = new Throwable();
+    holder.next = holders;
+    if (holder.scope != null) {
+      holder.scope.held.incrementAndGet();
+    }
+    return holder;
+  }
+
+  /**
+   * Drops the record of an unpin from a frame, now pinned pincnt times;
+   * called under the frame's latch. The newest record of the session's owner
+   * goes, else the oldest, if the frame has more records than pins (pins
+   * taken while disabled have none).
+   *
+   * @return the frame's new list of records
+   */
+  Holder unpinned(Holder holders, int pincnt) {
+    if (pincnt == 0) {
+      for (Holder holder = holders; holder != null; holder = holder.next) {
+        release(holder);
+      }
+      return null;
+    }
+
+    Object owner = sessions.get().owner;
+    Thread thread = Thread.currentThread();
+    Holder match = null;
+    Holder last = null;
+    int count = 0;
+    for (Holder holder = holders; holder != null; holder = holder.next) {
+      if (match == null && holder.owner == owner && holder.thread == thread) {
+        match = holder;
+      }
+      last = holder;
+      count++;
+    }
+    if (count <= pincnt) {
+      return holders; //the unpin was of a pin taken while disabled
+    }
+    return remove(holders, (match != null) ? match : last);
+  }
+
+  /**
+   * Takes a record off a frame's list.
+   */
+  private Holder remove(Holder holders, Holder holder) {
+    release(holder);
+    if (holders == holder) {
+      return holder.next;
+    }
+    Holder prev = holders;
+    while (prev.next != holder) {
+      prev = prev.next;
+    }
+    prev.next = holder.next;
+    return holders;
+  }
+
+  /**
+   * Counts a record's pin as released in its scope.
+   */
+  private static void release(Holder holder) {
+    if (holder.scope != null) {
+      holder.scope.held.decrementAndGet();
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public long getLeakCount() {
+    return leakCount.get();
+  }
+
+  public String[] getRecentLeaks() {
+    synchronized (recentLeaks) {
+      return recentLeaks.toArray(new String[recentLeaks.size()]);
+    }
+  }
+
+  public void clear() {
+    leakCount.set(0);
+    synchronized (recentLeaks) {
+      recentLeaks.clear();
+    }
+  }
+
+  /**
+   * Publishes this detector in the platform MBean server, replacing that of
+   * an earlier buffer manager.
+   *
+   * @throws IllegalStateException if the MBean server refuses it
+   */
+  public void register() {
+    BufMgrStats.publish(this, OBJECT_NAME);
+  }
+
+} // public class PinLeakDetector implements PinLeakDetectorMBean
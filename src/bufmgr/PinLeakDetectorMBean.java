@@ -0,0 +1,23 @@
+package bufmgr;
+
+/**
+ * Management interface of the pin leak detector, as published over JMX.
+ */
+public interface PinLeakDetectorMBean {
+
+  /** True if pins are being tracked. */
+  boolean isEnabled();
+
+  /** Starts or stops tracking pins. */
+  void setEnabled(boolean enabled);
+
+  /** Gets the number of leaked pins reported so far. */
+  long getLeakCount();
+
+  /** Gets the most recent leak reports, oldest first. */
+  String[] getRecentLeaks();
+
+  /** Forgets the leak count and reports. */
+  void clear();
+
+} // public interface PinLeakDetectorMBean
@@ -0,0 +1,156 @@
+package bufmgr;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace of buffer manager events (pins, unpins, allocations, evictions, ...)
+ * kept in a fixed-size ring buffer, so only the most recent ones are kept and
+ * tracing never allocates. It is off by default; when off, recording an event
+ * costs one volatile read. It can be turned on at runtime, through the API or
+ * JMX, and dumped on demand.
+ * <p>
+ * Sessions record concurrently without locking, so an event that is being
+ * written while the ring is dumped may show up garbled.
+ */
+public class PinTracer implements PinTracerMBean {
+
+  /** Name under which the tracer is published. */
+  public static final String OBJECT_NAME = "minibase:type=PinTracer";
+
+  /** Default number of events kept. */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** Event kinds. */
+  static final byte PIN_HIT = 1;
+  static final byte PIN_MISS = 2;
+  static final byte UNPIN_CLEAN = 3;
+  static final byte UNPIN_DIRTY = 4;
+  static final byte NEW_PAGE = 5;
+  static final byte FREE_PAGE = 6;
+  static final byte FLUSH_PAGE = 7;
+  static final byte FLUSH_ALL = 8;
+  static final byte EVICT = 9;
+
+  /** Names of the event kinds, for dumps. */
+  private static final String[] KIND_NAMES = { "?", "pin-hit", "pin-miss",
+      "unpin", "unpin-dirty", "new", "free", "flush", "flush-all", "evict" };
+
+  /** Set while recording. */
+  private volatile boolean enabled;
+
+  /** Capacity minus one; the capacity is a power of two. */
+  private final int mask;
+
+  /** Sequence number of the next event. */
+  private final AtomicLong next = new AtomicLong();
+
+  /** The ring, one array per field; allocated when first enabled. */
+  private long[] stamps;
+  private long[] threads;
+  private int[] pids;
+  private int[] args;
+  private byte[] kinds;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a disabled tracer that keeps the default number of events.
+   */
+  public PinTracer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a disabled tracer that keeps at least the given number of events.
+   *
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public PinTracer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid trace capacity: " + capacity);
+    }
+    mask = Integer.highestOneBit(capacity * 2 - 1) - 1;
+  }
+
+  /**
+   * Records an event, if enabled.
+   *
+   * @param kind one of the event kinds
+   * @param pid page the event concerns, or INVALID_PAGEID
+   * @param arg pin count after a pin or unpin, run size of new pages, 1 if an
+   *            evicted page was dirty, frame of a flushed page (-1 if absent),
+   *            or write requests made to flush all pages
+   */
+  void record(byte kind, int pid, int arg) {
+    if (!enabled) {
+      return;
+    }
+    int slot = (int) next.getAndIncrement() & mask;
+    stamps[slot] = System.nanoTime();
+    threads[slot] = Thread.currentThread().getId();
+    pids[slot] = pid;
+    args[slot] = arg;
+    kinds[slot] = kind;
+  }
+
+  // --------------------------------------------------------------------------
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public synchronized void setEnabled(boolean enabled) {
+    if (enabled && kinds == null) {
+      stamps = new long[mask + 1];
+      threads = new long[mask + 1];
+      pids = new int[mask + 1];
+      args = new int[mask + 1];
+      kinds = new byte[mask + 1];
+    }
+    this.enabled = enabled;
+  }
+
+  public synchronized String[] dump() {
+    if (kinds == null) {
+      return new String[0];
+    }
+    long end = next.get();
+    long start = Math.max(0, end - (mask + 1));
+    String[] lines = new String[(int) (end - start)];
+    for (long seq = start; seq < end; seq++) {
+      int slot = (int) seq & mask;
+      int kind = kinds[slot];
+      lines[(int) (seq - start)] = String.format("%d %d t%d %s pid=%d arg=%d",
+          seq, stamps[slot], threads[slot],
+          KIND_NAMES[(kind > 0 && kind < KIND_NAMES.length) ? kind : 0],
+          pids[slot], args[slot]);
+    }
+    return lines;
+  }
+
+  /**
+   * Prints the recorded events, oldest first: sequence number, nanoTime,
+   * thread, event, page, and the argument of the event.
+   */
+  public void dump(PrintStream out) {
+    for (String line : dump()) {
+      out.println(line);
+    }
+  }
+
+  public synchronized void clear() {
+    next.set(0);
+  }
+
+  /**
+   * Publishes this tracer in the platform MBean server, replacing that of an
+   * earlier buffer manager.
+   *
+   * @throws IllegalStateException if the MBean server refuses it
+   */
+  public void register() {
+    BufMgrStats.publish(this, OBJECT_NAME);
+  }
+
+} // public class PinTracer implements PinTracerMBean
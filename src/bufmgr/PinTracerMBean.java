@@ -0,0 +1,20 @@
+package bufmgr;
+
+/**
+ * Management interface of the pin tracer, as published over JMX.
+ */
+public interface PinTracerMBean {
+
+  /** True if events are being recorded. */
+  boolean isEnabled();
+
+  /** Starts or stops recording events. */
+  void setEnabled(boolean enabled);
+
+  /** Gets the recorded events, oldest first, one per line. */
+  String[] dump();
+
+  /** Forgets all recorded events. */
+  void clear();
+
+} // public interface PinTracerMBean
@@ -0,0 +1,149 @@
+package bufmgr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Warm restart of the buffer pool. On shutdown, the pages resident in each
+ * partition are saved to a file, hottest first; on startup, this background
+ * thread reads them back, as many as the partition has room for, hottest
+ * first. It sorts them, so runs of consecutive pages are read with one
+ * request each. It only fills empty frames, so it never evicts a page that a
+ * query has read in meanwhile. A missing or unreadable file just means a
+ * cold start.
+ */
+class PoolWarmer extends Thread {
+
+  /** Marks a saved pool ("MBWP"). */
+  private static final int MAGIC = 0x4D425750;
+
+  /** Most pages read back with one warmPages call. */
+  private static final int BATCH_PAGES = 1024;
+
+  /** The buffer manager to warm up. */
+  private final BufMgr bufmgr;
+
+  /** The saved pool. */
+  private final String fileName;
+
+  /** Cleared on shutdown. */
+  private volatile boolean running = true;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a warmer for the given buffer manager; call start to run it.
+   */
+  public PoolWarmer(BufMgr bufmgr, String fileName) {
+    super("PoolWarmer");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.fileName = fileName;
+  }
+
+  /**
+   * Saves the resident pages of each partition to the given file, hottest
+   * first.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(BufMgr bufmgr, String fileName) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(bufmgr.getPartitions().size());
+      for (BufferPartition part : bufmgr.getPartitions()) {
+        if (part != bufmgr.getPartition(BufMgr.DEFAULT_PARTITION)) {
+          savePartition(bufmgr, part, out);
+        }
+      }
+      // last, so the others get their frames first on the way back
+      savePartition(bufmgr, bufmgr.getPartition(BufMgr.DEFAULT_PARTITION), out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Saves the resident pages of one partition.
+   */
+  private static void savePartition(BufMgr bufmgr, BufferPartition part,
+      DataOutputStream out) throws IOException {
+    int[] pids = bufmgr.getResidentPages(part);
+    out.writeUTF(part.getName());
+    out.writeInt(pids.length);
+    for (int pid : pids) {
+      out.writeInt(pid);
+    }
+  }
+
+  /**
+   * Stops the warmer and waits for its current read to finish.
+   */
+  public void shutdown() {
+    running = false;
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads the saved pages back, partition by partition, until done or shut
+   * down.
+   */
+  public void run() {
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(fileName)));
+      try {
+        if (in.readInt() != MAGIC) {
+          return;
+        }
+        for (int n = in.readInt(); n > 0 && running; n--) {
+          BufferPartition part = bufmgr.getPartition(in.readUTF());
+          int[] pids = new int[in.readInt()];
+          for (int i = 0; i < pids.length; i++) {
+            pids[i] = in.readInt();
+          }
+          if (part != null && !warm(part, pids)) {
+            return; //the pool is full
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException exc) {
+      // no usable saved pool: a cold start
+    } catch (RuntimeException exc) {
+      // a saved page no longer exists; leave the rest cold
+    }
+  }
+
+  /**
+   * Reads back the hottest of the given pages that fit in the partition, in
+   * page order.
+   *
+   * @return false if the pool ran out of empty frames
+   */
+  private boolean warm(BufferPartition part, int[] pids) {
+    int count = Math.min(pids.length, part.getQuota());
+    Arrays.sort(pids, 0, count);
+    for (int i = 0; i < count && running; i += BATCH_PAGES) {
+      int size = Math.min(BATCH_PAGES, count - i);
+      if (bufmgr.warmPages(part, Arrays.copyOfRange(pids, i, i + size)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+} // class PoolWarmer extends Thread
@@ -2,48 +2,140 @@ package bufmgr;
 
 import global.GlobalConst;
 
+import java.util.Arrays;
+
 /**
- * Base class for buffer pool replacement policies.
+ * Base class for buffer pool replacement policies. The buffer manager calls
+ * into its replacer from concurrent sessions, so implementations must be
+ * thread-safe. Each notification is made while holding the frame's latch,
+ * so a replacer must never wait on a frame latch itself.
+ * <p>
+ * The buffer manager keeps its own list of empty frames and uses those first,
+ * so a replacer is normally only asked to choose among resident pages.
+ * <p>
+ * Each buffer pool partition has its own replacer, which is only notified of
+ * the frames holding the partition's pages, and only chooses among those.
  */
 abstract class Replacer implements GlobalConst {
 
   /** Reference back to the buffer manager's frame table. */
   protected FrameDesc[] frametab;
 
+  /** Partition whose frames the replacer chooses among. */
+  protected final BufferPartition partition;
+
   // --------------------------------------------------------------------------
 
   /**
-   * Constructs the replacer, given the buffer manager.
+   * Constructs the replacer, given the buffer manager and its partition.
    */
-  protected Replacer(BufMgr bufmgr) {
-    
+  protected Replacer(BufMgr bufmgr, BufferPartition partition) {
+    this.partition = partition;
   }
 
   /**
-   * Notifies the replacer of a new page.
+   * Notifies the replacer of a new page, which the frame now holds pinned once;
+   * any page the frame held before has been evicted.
    */
   public abstract void newPage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of a free page.
+   * Notifies the replacer of a page read ahead, which the frame now holds
+   * pinned once by the buffer manager only; nobody has referenced it yet, so
+   * the first pin that finds it must count as its first reference, not a
+   * second one. By default, it is treated as a new page.
+   */
+  public void prefetched(FrameDesc fdesc) {
+    newPage(fdesc);
+  }
+
+  /**
+   * Notifies the replacer of a free page, i.e. the frame is now empty.
    */
   public abstract void freePage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of a pined page.
+   * Notifies the replacer of a pined page, i.e. a hit on a resident page.
    */
   public abstract void pinPage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of an unpinned page.
+   * Notifies the replacer of an unpinned page, i.e. its last pin was released.
    */
   public abstract void unpinPage(FrameDesc fdesc);
 
   /**
-   * Selects the best frame to use for pinning a new page.
+   * Selects the best frame to use for pinning a new page. The frame stays a
+   * candidate until newPage reports that it was replaced.
    * 
    * @return victim frame number, or -1 if none available
    */
   public abstract int pickVictim();
 
+  /**
+   * Lists the partition's frames that hold a page, hottest first, so that a
+   * warm restart can read the hottest pages back first. By default, frames
+   * whose state is set (e.g. a reference bit) come first, then the others.
+   */
+  public synchronized int[] framesByHotness() {
+    int[] frames = new int[frametab.length];
+    int count = 0;
+    for (int pass = 1; pass >= 0; pass--) {
+      for (FrameDesc fdesc : frametab) {
+        if (isResident(fdesc) && (fdesc.state != 0) == (pass == 1)) {
+          frames[count++] = fdesc.index;
+        }
+      }
+    }
+    return Arrays.copyOf(frames, count);
+  }
+
+  /**
+   * Tells whether the given frame (null if not allocated yet) holds a page
+   * of the partition.
+   */
+  protected boolean isResident(FrameDesc fdesc) {
+    return fdesc != null && fdesc.partition == partition
+        && fdesc.pageno.pid != INVALID_PAGEID;
+  }
+
+  /**
+   * Appends the partition's pinned frames to the given array; they are in
+   * use, so hotter than any unpinned one.
+   *
+   * @return the new number of frames in the array
+   */
+  protected int appendPinned(int[] frames, int count) {
+    for (FrameDesc fdesc : frametab) {
+      if (isResident(fdesc) && fdesc.pincnt > 0) {
+        frames[count++] = fdesc.index;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Appends the frames of the given list to the given array, newest first.
+   *
+   * @return the new number of frames in the array
+   */
+  protected int appendNewestFirst(FrameList list, int[] frames, int count) {
+    for (int i = list.last(); i != FrameList.NONE; i = list.prev(i)) {
+      frames[count++] = i;
+    }
+    return count;
+  }
+
+  /**
+   * Gets the oldest frame in the given list that is not pinned, or -1 if none.
+   */
+  protected int firstUnpinned(FrameList list) {
+    for (int i = list.first(); i != FrameList.NONE; i = list.next(i)) {
+      if (frametab[i].pincnt == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
 } // abstract class Replacer implements GlobalConst
@@ -0,0 +1,217 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha), full version. Pages read in for the
+ * first time enter a FIFO queue (A1in); when they leave it their PIDs are
+ * remembered in a ghost queue (A1out). Only a page that is read in again while
+ * remembered there is considered hot and moves to the main LRU queue (Am).
+ * A sweep of pages referenced once therefore cycles through A1in and never
+ * pushes hot pages out of Am.
+ * <p>
+ * Only a pin that finds the page unpinned counts as a reference. A page read
+ * ahead waits in A1in unreferenced; its first pin is its first reference.
+ */
+public class TwoQueueReplacer extends Replacer {
+
+    //Share of the pool reserved for A1in, and ghost entries per frame in A1out.
+    private static final double KIN_RATIO = 0.25;
+    private static final double KOUT_RATIO = 0.5;
+
+    //Target size of A1in, in frames.
+    private final int kin;
+    //Maximum size of A1out, in PIDs.
+    private final int kout;
+
+    //Page each frame holds, as last reported by newPage or prefetched.
+    private final int[] resident;
+    //Frames holding pages read ahead and not pinned since.
+    private final boolean[] unreferenced;
+
+    //Frames holding pages referenced once, oldest first.
+    private final FrameList a1in;
+    //Frames holding hot pages, least recently used first.
+    private final FrameList am;
+    //PIDs recently evicted from A1in, oldest first.
+    private final LinkedHashSet<Integer> a1out;
+
+    /**
+     * Constructs the replacer, given the buffer manager and its partition.
+     *
+     * @param bufmgr
+     * @param partition
+     */
+    protected TwoQueueReplacer(BufMgr bufmgr, BufferPartition partition) {
+
+        super(bufmgr, partition);
+
+        //Reference back to the buffer manager's frame table.
+        frametab = bufmgr.getFrameDesc();
+
+        //The queues are sized by the partition, the lists by the whole pool.
+        int numbufs = frametab.length;
+        kin = Math.max(1, (int) (partition.getQuota() * KIN_RATIO));
+        kout = Math.max(1, (int) (partition.getQuota() * KOUT_RATIO));
+
+        //Every frame starts out empty.
+        resident = new int[numbufs];
+        unreferenced = new boolean[numbufs];
+        a1in = new FrameList(numbufs);
+        am = new FrameList(numbufs);
+        a1out = new LinkedHashSet<Integer>();
+        for (int i = 0; i < numbufs; i++) {
+            resident[i] = INVALID_PAGEID;
+        }
+    }
+
+    /**
+     * Notifies the replacer of a new page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void newPage(FrameDesc fdesc) {
+
+        //Seen recently before? Then it is hot (check before the ghost queue
+        //takes in the evicted page and possibly drops this one).
+        boolean hot = a1out.remove(fdesc.pageno.pid);
+        replace(fdesc);
+        if (hot) {
+            am.addLast(fdesc.index);
+        } else {
+            a1in.addLast(fdesc.index);
+        }
+    }
+
+    /**
+     * Notifies the replacer of a page read ahead.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void prefetched(FrameDesc fdesc) {
+
+        //Not referenced yet: wait in A1in, and let the first pin decide.
+        replace(fdesc);
+        unreferenced[fdesc.index] = true;
+        a1in.addLast(fdesc.index);
+    }
+
+    /**
+     * Notifies the replacer of a free page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void freePage(FrameDesc fdesc) {
+
+        a1in.remove(fdesc.index);
+        am.remove(fdesc.index);
+        resident[fdesc.index] = INVALID_PAGEID;
+        unreferenced[fdesc.index] = false;
+    }
+
+    /**
+     * Notifies the replacer of a pined page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void pinPage(FrameDesc fdesc) {
+
+        if (fdesc.pincnt != 1) {
+            return;
+        }
+
+        //The first reference of a page read ahead is counted now: it is hot
+        //if seen recently before, else it keeps its place in A1in.
+        int frameNo = fdesc.index;
+        if (unreferenced[frameNo]) {
+            unreferenced[frameNo] = false;
+            if (a1out.remove(resident[frameNo])) {
+                a1in.remove(frameNo);
+                am.addLast(frameNo);
+            }
+            return;
+        }
+
+        //Hits in A1in are deliberately ignored; hits in Am refresh the page.
+        if (am.contains(frameNo)) {
+            am.addLast(frameNo);
+        }
+    }
+
+    /**
+     * Notifies the replacer of an unpinned page.
+     *
+     * @param fdesc
+     */
+    @Override
+    public synchronized void unpinPage(FrameDesc fdesc) {
+
+        //Queue positions only change on references.
+    }
+
+    /**
+     * Selects the best frame to use for pinning a new page.
+     *
+     * @return victim frame number, or -1 if none available
+     */
+    @Override
+    public synchronized int pickVictim() {
+
+        //Shrink A1in while it is over its share, otherwise take from Am.
+        int victim;
+        if (a1in.size() > kin) {
+            victim = firstUnpinned(a1in);
+            if (victim == -1) {
+                victim = firstUnpinned(am);
+            }
+        } else {
+            victim = firstUnpinned(am);
+            if (victim == -1) {
+                victim = firstUnpinned(a1in);
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Lists the frames holding a page, hottest first: the hot queue, then
+     * the pages seen once, each most recent first.
+     *
+     * @return frame numbers
+     */
+    @Override
+    public synchronized int[] framesByHotness() {
+
+        int[] frames = new int[frametab.length];
+        int count = appendNewestFirst(am, frames, 0);
+        count = appendNewestFirst(a1in, frames, count);
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * Takes the frame's old page out of the queues, remembering it in A1out
+     * if it was only seen once, and records its new page.
+     */
+    private void replace(FrameDesc fdesc) {
+        int frameNo = fdesc.index;
+        if (a1in.contains(frameNo) && resident[frameNo] != INVALID_PAGEID
+                && !unreferenced[frameNo]) {
+            a1out.add(resident[frameNo]);
+            if (a1out.size() > kout) {
+                Iterator<Integer> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        a1in.remove(frameNo);
+        am.remove(frameNo);
+        resident[frameNo] = fdesc.pageno.pid;
+        unreferenced[frameNo] = false;
+    }
+}
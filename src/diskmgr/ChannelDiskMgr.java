@@ -0,0 +1,417 @@
+package diskmgr;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import global.WriteMask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Disk space manager that can also transfer runs of consecutive pages with a
+ * single request, through the data file's channel. Single-page operations and
+ * the space map are inherited unchanged.
+ * <p>
+ * New databases are stamped with a format header (magic number, format
+ * version and page size), kept in the unused tail of the first header page,
+ * and openDB refuses a database whose page size differs from PAGE_SIZE.
+ * Databases without the header are taken as the original 1 KB format.
+ * <p>
+ * A page can also be written in part: only the chunks marked in its
+ * WriteMask, widened to whole write units, the smallest writes the device
+ * makes in place. This only pays off with pages larger than a write unit.
+ * <p>
+ * Writer threads can also write runs at once, each through a channel of its
+ * own, at explicit positions; see open_channel.
+ * <p>
+ * With Minibase.WarmRestart set, closeDB saves the buffer pool's resident
+ * pages next to the data file, and openDB warms the pool up from them.
+ */
+public class ChannelDiskMgr extends DiskMgr {
+
+  /** Marks a first page that carries a format header ("MBDB"). */
+  protected static final int FORMAT_MAGIC = 0x4D424442;
+
+  /** Current version of the page formats. */
+  protected static final short FORMAT_VERSION = 1;
+
+  /** Offset of the format header: just past the first page's file entries. */
+  protected static final int FORMAT_OFFSET = DBHeaderPage.START_FILE_ENTRIES
+      + (PAGE_SIZE - DBHeaderPage.FIRST_PAGE_USED_BYTES)
+      / DBHeaderPage.SIZE_OF_FILE_ENTRY * DBHeaderPage.SIZE_OF_FILE_ENTRY;
+
+  /** Offsets of the header fields. */
+  protected static final int FORMAT_MAGIC_POS = FORMAT_OFFSET;
+  protected static final int FORMAT_VERSION_POS = FORMAT_OFFSET + 4;
+  protected static final int FORMAT_PAGE_SIZE_POS = FORMAT_OFFSET + 6;
+
+  /** Suffix of the file the resident pages are saved to, for a warm restart. */
+  protected static final String WARM_SUFFIX = ".warm";
+
+  /** Default write unit: a disk sector. */
+  public static final int DEFAULT_WRITE_UNIT = 512;
+
+  /** Format version of the open database (0 = no header). */
+  protected short format_version;
+
+  /** Smallest write the device makes in place, in bytes; 0 = whole pages. */
+  protected int write_unit = DEFAULT_WRITE_UNIT;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates a new database and stamps it with the current format header.
+   */
+  public void createDB(String fname, int num_pgs) {
+
+    super.createDB(fname, num_pgs);
+
+    // the first page is cached by now; update it through the buffer pool
+    PageId firstid = new PageId(FIRST_PAGEID);
+    Page first = new Page();
+    Minibase.BufferManager.pinPage(firstid, first, PIN_DISKIO);
+    first.setIntValue(FORMAT_MAGIC, FORMAT_MAGIC_POS);
+    first.setShortValue(FORMAT_VERSION, FORMAT_VERSION_POS);
+    first.setIntValue(PAGE_SIZE, FORMAT_PAGE_SIZE_POS);
+    Minibase.BufferManager.unpinPage(firstid, UNPIN_DIRTY);
+    format_version = FORMAT_VERSION;
+
+  } // public void createDB(String fname, int num_pgs)
+
+  /**
+   * Opens an existing database, checking its format header if it has one.
+   *
+   * @throws IllegalStateException if the database uses another page size or
+   * a newer format version
+   */
+  public void openDB(String fname) {
+
+    super.openDB(fname);
+
+    PageId firstid = new PageId(FIRST_PAGEID);
+    Page first = new Page();
+    Minibase.BufferManager.pinPage(firstid, first, PIN_DISKIO);
+    int magic = first.getIntValue(FORMAT_MAGIC_POS);
+    short version = first.getShortValue(FORMAT_VERSION_POS);
+    int pagesize = first.getIntValue(FORMAT_PAGE_SIZE_POS);
+    Minibase.BufferManager.unpinPage(firstid, UNPIN_CLEAN);
+
+    if (magic != FORMAT_MAGIC) {
+      format_version = 0;
+    } else {
+      if (pagesize != PAGE_SIZE) {
+        throw new IllegalStateException("Database page size is " + pagesize
+            + " bytes; this build uses " + PAGE_SIZE);
+      }
+      if (version > FORMAT_VERSION) {
+        throw new IllegalStateException("Database format version " + version
+            + " is newer than supported (" + FORMAT_VERSION + ")");
+      }
+      format_version = version;
+    }
+
+    // read the pages resident at the last shutdown back in the background
+    if (Minibase.WarmRestart) {
+      Minibase.BufferManager.startWarmup(fname + WARM_SUFFIX);
+    }
+
+  } // public void openDB(String fname)
+
+  /**
+   * Closes the database, first saving the buffer pool's resident pages for a
+   * warm restart, if enabled.
+   */
+  public void closeDB() {
+    Minibase.BufferManager.stopWarmup();
+    if (Minibase.WarmRestart) {
+      Minibase.BufferManager.saveResidentPages(name + WARM_SUFFIX);
+    }
+    super.closeDB();
+  }
+
+  /**
+   * Closes and deletes the database, along with its saved resident pages.
+   */
+  public void destroyDB() {
+    super.destroyDB();
+    new File(name + WARM_SUFFIX).delete();
+  }
+
+  /**
+   * Gets the format version of the open database (0 if it has no header).
+   */
+  public short getFormatVersion() {
+    return format_version;
+  }
+
+  /**
+   * Reads consecutive pages, starting at the given one, into the given pages
+   * with one scattering read.
+   *
+   * @param firstid identifies the first page to read
+   * @param pages receive the contents, in page order
+   * @throws IllegalArgumentException if any of the pages is out of range
+   */
+  public void read_pages(PageId firstid, Page[] pages) {
+
+    // validate the page numbers
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    // scatter straight into the page buffers
+    ByteBuffer[] buffers = new ByteBuffer[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      buffers[i] = ByteBuffer.wrap(pages[i].getData());
+    }
+
+    try {
+
+      // the channel shares the file pointer, so position it first
+      FileChannel channel = fp.getChannel();
+      channel.position((long) firstid.pid * PAGE_SIZE);
+      long remaining = (long) pages.length * PAGE_SIZE;
+      while (remaining > 0) {
+        long cnt = channel.read(buffers);
+        if (cnt < 0) {
+          throw new IOException("Unexpected end of file; read aborted");
+        }
+        remaining -= cnt;
+      }
+      read_cnt += pages.length;
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void read_pages(PageId firstid, Page[] pages)
+
+  /**
+   * Writes the given pages to consecutive pages, starting at the given one,
+   * with one gathering write.
+   *
+   * @param firstid identifies the first page to write
+   * @param pages hold the contents, in page order
+   * @throws IllegalArgumentException if any of the pages is out of range
+   */
+  public void write_pages(PageId firstid, Page[] pages) {
+
+    // validate the page numbers
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    // gather straight from the page buffers
+    ByteBuffer[] buffers = new ByteBuffer[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      buffers[i] = ByteBuffer.wrap(pages[i].getData());
+    }
+
+    try {
+
+      // the channel shares the file pointer, so position it first
+      FileChannel channel = fp.getChannel();
+      channel.position((long) firstid.pid * PAGE_SIZE);
+      long remaining = (long) pages.length * PAGE_SIZE;
+      while (remaining > 0) {
+        remaining -= channel.write(buffers);
+      }
+      write_cnt += pages.length;
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void write_pages(PageId firstid, Page[] pages)
+
+  /**
+   * Opens another channel on the data file, for a writer thread to write
+   * pages with at once with others; the caller closes it. Writes through any
+   * channel are forced by sync.
+   *
+   * @return the channel, or null if pages cannot be written that way
+   */
+  public FileChannel open_channel() {
+    try {
+      return new RandomAccessFile(name, "rw").getChannel();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the given pages to consecutive pages, starting at the given one,
+   * with one gathering write through the given channel. The write is made at
+   * an explicit position, so writers with channels of their own may call this
+   * at once; it is not counted, see count_writes.
+   *
+   * @param channel from open_channel
+   * @param firstid identifies the first page to write
+   * @param pages hold the contents, in page order
+   * @throws IllegalArgumentException if any of the pages is out of range
+   */
+  public void write_pages(FileChannel channel, PageId firstid, Page[] pages) {
+
+    // validate the page numbers
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    // gather straight from the page buffers
+    ByteBuffer[] buffers = new ByteBuffer[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      buffers[i] = ByteBuffer.wrap(pages[i].getData());
+    }
+
+    try {
+
+      // the channel is the writer's own, so its position is too
+      channel.position((long) firstid.pid * PAGE_SIZE);
+      long remaining = (long) pages.length * PAGE_SIZE;
+      while (remaining > 0) {
+        remaining -= channel.write(buffers);
+      }
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void write_pages(FileChannel channel, PageId firstid, Page[] pages)
+
+  /**
+   * Counts pages written through channels of their own; callers serialize
+   * this with other I/O.
+   */
+  public void count_writes(int count) {
+    write_cnt += count;
+  }
+
+  /**
+   * Sets the smallest write the device makes in place; parts of pages are
+   * written in such units. 0 always writes whole pages.
+   *
+   * @throws IllegalArgumentException if the unit is not 0, or a multiple of
+   * WriteMask.CHUNK_SIZE that divides PAGE_SIZE
+   */
+  public void setWriteUnit(int bytes) {
+    if (bytes < 0 || (bytes > 0 && (bytes % WriteMask.CHUNK_SIZE != 0
+        || PAGE_SIZE % bytes != 0))) {
+      throw new IllegalArgumentException("Invalid write unit: " + bytes);
+    }
+    write_unit = bytes;
+  }
+
+  /**
+   * Gets the smallest write the device makes in place (0 = whole pages).
+   */
+  public int getWriteUnit() {
+    return write_unit;
+  }
+
+  /**
+   * Writes the parts of a page marked in the given chunks, or the whole page
+   * if they make up all of it once widened to write units.
+   *
+   * @param chunks parts written, one bit per chunk, as in WriteMask
+   * @return true if only part of the page was written
+   * @throws IllegalArgumentException if the page is out of range
+   */
+  public boolean write_page_ranges(PageId pageno, Page page, long chunks) {
+    if (write_ranges(fp.getChannel(), pageno, page, chunks)) {
+      write_cnt++;
+      return true;
+    }
+    write_page(pageno, page);
+    return false;
+  }
+
+  /**
+   * Like write_page_ranges, through a channel of the caller's own, without
+   * counting the write; see write_pages.
+   *
+   * @return true if only part of the page was written
+   */
+  public boolean write_page_ranges(FileChannel channel, PageId pageno, Page page,
+      long chunks) {
+    if (write_ranges(channel, pageno, page, chunks)) {
+      return true;
+    }
+    write_pages(channel, pageno, new Page[] { page });
+    return false;
+  }
+
+  /**
+   * Writes each stretch of write units that holds a marked chunk with one
+   * positional write, unless the stretches make up the whole page.
+   *
+   * @return false if nothing was written, as the whole page is to be
+   * @throws IllegalArgumentException if the page is out of range
+   */
+  protected boolean write_ranges(FileChannel channel, PageId pageno, Page page,
+      long chunks) {
+
+    long units = dirty_units(chunks);
+    if (units == 0) {
+      return false;
+    }
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    try {
+      long base = (long) pageno.pid * PAGE_SIZE;
+      while (units != 0) {
+        int first = Long.numberOfTrailingZeros(units);
+        int end = Long.numberOfTrailingZeros(~(units >>> first)) + first;
+        ByteBuffer buffer = ByteBuffer.wrap(page.getData(), first * write_unit,
+            (end - first) * write_unit);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer, base + buffer.position());
+        }
+        units &= ~((WriteMask.ALL >>> (64 - end)) >>> first << first);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return true;
+
+  } // protected boolean write_ranges(...)
+
+  /**
+   * Widens the marked chunks to write units.
+   *
+   * @return one bit per write unit to write, or 0 if the whole page is to be
+   */
+  protected long dirty_units(long chunks) {
+    if (write_unit == 0 || write_unit >= PAGE_SIZE || chunks == 0) {
+      return 0;
+    }
+    int per_unit = write_unit / WriteMask.CHUNK_SIZE;
+    int num_units = PAGE_SIZE / write_unit;
+    long unit_mask = WriteMask.ALL >>> (64 - per_unit);
+    long units = 0;
+    for (int i = 0; i < num_units; i++) {
+      if (((chunks >>> (i * per_unit)) & unit_mask) != 0) {
+        units |= 1L << i;
+      }
+    }
+    return (units == (WriteMask.ALL >>> (64 - num_units))) ? 0 : units;
+  }
+
+  /**
+   * Forces all writes so far to the storage device.
+   */
+  public void sync() {
+    try {
+      fp.getChannel().force(false);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+} // public class ChannelDiskMgr extends DiskMgr
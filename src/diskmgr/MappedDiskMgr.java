@@ -0,0 +1,213 @@
+package diskmgr;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Disk space manager that maps the database file into memory. Page reads and
+ * writes become memory copies from and to the operating system's page cache,
+ * with no system call per page; nothing is forced to the device until sync,
+ * which the buffer manager calls when it flushes all pages (and so at close).
+ * <p>
+ * The file is mapped in segments of at most 1 GB, since a single mapping is
+ * limited to 2 GB. It is mapped on first access and mapped again if the
+ * database turns out to be larger, as openDB only learns the size from the
+ * first page.
+ */
+public class MappedDiskMgr extends ChannelDiskMgr {
+
+  /** Largest segment, in bytes. */
+  protected static final int SEGMENT_BYTES = 1 << 30;
+
+  /** Number of pages per segment. */
+  protected static final int SEGMENT_PAGES = SEGMENT_BYTES / PAGE_SIZE;
+
+  /** The mapped segments, or null if not mapped. */
+  protected MappedByteBuffer[] segments;
+
+  /** Number of pages covered by the segments. */
+  protected int mapped_pages;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Closes the database, forcing the mapped pages to the device.
+   */
+  public void closeDB() {
+    super.closeDB();
+    unmap();
+  }
+
+  /**
+   * Reads the contents of the specified page from the mapping.
+   *
+   * @throws IllegalArgumentException if the page is out of range
+   */
+  public void read_page(PageId pageno, Page mempage) {
+
+    // validate the page number
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    slot(pageno.pid).get(mempage.getData(), 0, PAGE_SIZE);
+    read_cnt++;
+
+  } // public void read_page(PageId pageno, Page mempage)
+
+  /**
+   * Writes the contents of the given page into the mapping.
+   *
+   * @throws IllegalArgumentException if the page is out of range
+   */
+  public void write_page(PageId pageno, Page mempage) {
+
+    // validate the page number
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    slot(pageno.pid).put(mempage.getData(), 0, PAGE_SIZE);
+    write_cnt++;
+
+  } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Reads consecutive pages, starting at the given one, from the mapping.
+   *
+   * @throws IllegalArgumentException if any of the pages is out of range
+   */
+  public void read_pages(PageId firstid, Page[] pages) {
+
+    // validate the page numbers
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    for (int i = 0; i < pages.length; i++) {
+      slot(firstid.pid + i).get(pages[i].getData(), 0, PAGE_SIZE);
+    }
+    read_cnt += pages.length;
+
+  } // public void read_pages(PageId firstid, Page[] pages)
+
+  /**
+   * Writes consecutive pages, starting at the given one, into the mapping.
+   *
+   * @throws IllegalArgumentException if any of the pages is out of range
+   */
+  public void write_pages(PageId firstid, Page[] pages) {
+
+    // validate the page numbers
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    for (int i = 0; i < pages.length; i++) {
+      slot(firstid.pid + i).put(pages[i].getData(), 0, PAGE_SIZE);
+    }
+    write_cnt += pages.length;
+
+  } // public void write_pages(PageId firstid, Page[] pages)
+
+  /**
+   * Copies the stretches of write units that hold a marked chunk into the
+   * mapping; the channel is not used.
+   *
+   * @return false if nothing was copied, as the whole page is to be
+   */
+  protected boolean write_ranges(FileChannel channel, PageId pageno, Page page,
+      long chunks) {
+
+    long units = dirty_units(chunks);
+    if (units == 0) {
+      return false;
+    }
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    ByteBuffer slot = slot(pageno.pid);
+    int base = slot.position();
+    for (int i = 0; units != 0; i++, units >>>= 1) {
+      if ((units & 1) != 0) {
+        slot.position(base + i * write_unit);
+        slot.put(page.getData(), i * write_unit, write_unit);
+      }
+    }
+    return true;
+
+  } // protected boolean write_ranges(...)
+
+  /**
+   * Writes go into the mapping, with no system call to spread across
+   * threads, so no channel is opened for writers.
+   *
+   * @return null
+   */
+  public FileChannel open_channel() {
+    return null;
+  }
+
+  /**
+   * Forces the mapped pages to the storage device.
+   */
+  public void sync() {
+    if (segments != null) {
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+    }
+  }
+
+  /**
+   * Gets a view of the mapping positioned at the given page, mapping the
+   * file first if needed.
+   */
+  protected ByteBuffer slot(int pid) {
+    if (pid >= mapped_pages) {
+      map();
+    }
+    ByteBuffer view = segments[pid / SEGMENT_PAGES].duplicate();
+    view.position((pid % SEGMENT_PAGES) * PAGE_SIZE);
+    return view;
+  }
+
+  /**
+   * Maps all num_pages pages of the database file, replacing any mapping.
+   */
+  protected void map() {
+    sync();
+    try {
+      FileChannel channel = fp.getChannel();
+      MappedByteBuffer[] segs =
+          new MappedByteBuffer[(num_pages + SEGMENT_PAGES - 1) / SEGMENT_PAGES];
+      for (int i = 0; i < segs.length; i++) {
+        long start = (long) i * SEGMENT_PAGES;
+        long pages = Math.min(SEGMENT_PAGES, num_pages - start);
+        segs[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * PAGE_SIZE,
+            pages * PAGE_SIZE);
+      }
+      segments = segs;
+      mapped_pages = num_pages;
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Forces and drops the mapping.
+   */
+  protected void unmap() {
+    sync();
+    segments = null;
+    mapped_pages = 0;
+  }
+
+} // public class MappedDiskMgr extends ChannelDiskMgr
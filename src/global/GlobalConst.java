@@ -10,7 +10,11 @@ public interface GlobalConst {
   //
 	  
 	  
-  /** Size of a page, in bytes. */
+  /**
+   * Size of a page, in bytes. The disk manager, heap file and index libraries
+   * are compiled against this value, so it can only change together with them;
+   * each database records the page size it was created with.
+   */
   public static final int PAGE_SIZE = 1024;
 
   /** Page number of an invalid page (i.e. null pointer). */
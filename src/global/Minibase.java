@@ -2,7 +2,10 @@ package global;
 
 import query.Catalog;
 import bufmgr.BufMgr;
+import bufmgr.BufferPartition;
+import diskmgr.ChannelDiskMgr;
 import diskmgr.DiskMgr;
+import diskmgr.MappedDiskMgr;
 
 /**
  * Definitions for the running Minibase system, including references to static
@@ -21,9 +24,79 @@ public class Minibase {
 
   /** The Minibase System Catalog. */
   public static Catalog SystemCatalog;
+
+  /** Number of pages scans read ahead; 0 turns read-ahead off. */
+  public static int LookAheadSize;
+
+  /** Keep the buffer pool off the Java heap; set before initializing. */
+  public static boolean OffHeapPool = false;
+
+  /** Access the data file through a memory mapping; set before initializing. */
+  public static boolean MappedDisk = false;
+
+  /**
+   * Buffer pool partitions, as "name:frames:file,file,...", each using the
+   * replacement policy of the pool; set before initializing.
+   */
+  public static String[] BufferPartitions = {};
+
+  /**
+   * Save the resident pages when the database is closed, and read them back
+   * in the background when it is opened; set before initializing.
+   */
+  public static boolean WarmRestart = false;
+
+  /**
+   * Writer threads that flushing all pages (at checkpoints and shutdown) may
+   * use, each with a channel of its own; set before initializing.
+   */
+  public static int FlushThreads = 1;
+
+  /**
+   * Smallest write the device makes in place, in bytes; dirty pages larger
+   * than this are written back in such units, only where they changed. 0
+   * always writes whole pages. Set before initializing.
+   */
+  public static int WriteUnit = ChannelDiskMgr.DEFAULT_WRITE_UNIT;
+
+  /**
+   * Track the owner and call site of each pin, and report pins still held
+   * when a query plan finishes; may also be turned on later, over JMX.
+   */
+  public static boolean PinLeakCheck = false;
+
+  /**
+   * Pages of memory a hash join may hold its build input in before spilling
+   * partitions of it to temporary files; 0 uses a quarter of the buffer pool.
+   */
+  public static int JoinMemory = 0;
+
+  /**
+   * Pages of memory a sort may hold its input in while forming sorted runs,
+   * and runs it may merge at once; 0 uses a quarter of the buffer pool.
+   */
+  public static int SortMemory = 0;
   
   // --------------------------------------------------------------------------
 
+  /**
+   * Constructs and starts an instance of Minibase, given the configuration,
+   * without read-ahead.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param replacement_policy Buffer pool replacement policy
+   * @param exists If the database already exists on disk
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      String replacement_policy, boolean exists) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, 0, replacement_policy, exists);
+
+  } // constructor
+
   /**
    * Constructs and starts an instance of Minibase, given the configuration.
    * 
@@ -35,10 +108,11 @@ public class Minibase {
    * @param exists If the database already exists on disk
    */
   public Minibase(String dbname, int num_pgs, int bufpoolsize,
-      String replacement_policy, boolean exists) {
+      int lookAheadSize, String replacement_policy, boolean exists) {
 
     // simply initialize the database
-    init(dbname, num_pgs, bufpoolsize, replacement_policy, exists);
+    init(dbname, num_pgs, bufpoolsize, lookAheadSize, replacement_policy,
+        exists);
 
   } // constructor
 
@@ -53,15 +127,31 @@ public class Minibase {
    * @param exists If the database already exists on disk
    */
   public void init(String dbname, int num_pgs, int bufpoolsize,
-      String replacement_policy, boolean exists) {
+      int lookAheadSize, String replacement_policy, boolean exists) {
 
-    // save the file name
+    // save the file name and settings
     DatabaseName = dbname;
+    LookAheadSize = lookAheadSize;
 
     // load the static layers
     try {
-      DiskManager = new DiskMgr();
-      BufferManager = new BufMgr(bufpoolsize);
+      ChannelDiskMgr disk = MappedDisk ? new MappedDiskMgr() : new ChannelDiskMgr();
+      disk.setWriteUnit(WriteUnit);
+      DiskManager = disk;
+      BufferManager = new BufMgr(bufpoolsize, replacement_policy, OffHeapPool);
+      BufferManager.getStats().register();
+      BufferManager.getTracer().register();
+      BufferManager.getLeakDetector().register();
+      BufferManager.getLeakDetector().setEnabled(PinLeakCheck);
+      BufferManager.setFlushThreads(FlushThreads);
+      for (String spec : BufferPartitions) {
+        String[] parts = spec.split(":");
+        BufferPartition part = BufferManager.createPartition(parts[0],
+            Integer.parseInt(parts[1]), replacement_policy);
+        for (String file : parts[2].split(",")) {
+          BufferManager.bindFile(file.trim(), part);
+        }
+      }
     } catch (Exception exc) {
       haltSystem(exc);
     }
@@ -3,6 +3,9 @@ package global;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import bufmgr.BufMgrStats;
+import bufmgr.BufferPartition;
+import bufmgr.PinLeakDetector;
 import parser.AST_Start;
 import parser.MiniSql;
 import parser.MiniSqlTreeConstants;
@@ -26,6 +29,39 @@ public class Msql implements MiniSqlTreeConstants {
   /** Default buffer pool size (in pages) */
   protected static int BUF_SIZE = 100;
 
+  /** Default number of pages scans read ahead (0 = off). */
+  protected static int LOOKAHEAD = 8;
+
+  /** Default buffer pool replacement policy (Clock, LRU, LRU-K, 2Q or ARC). */
+  protected static String REPLACER = "Clock";
+
+  /** Dirty share of the buffer pool (in percent) that starts the page cleaner; 0 = off. */
+  protected static int CLEANER_HIGH = 0;
+
+  /** Dirty share of the buffer pool (in percent) that stops the page cleaner. */
+  protected static int CLEANER_LOW = 0;
+
+  /** Keep the buffer pool off the Java heap. */
+  protected static boolean OFF_HEAP = false;
+
+  /** Access the database file through a memory mapping. */
+  protected static boolean MAPPED_IO = false;
+
+  /**
+   * Buffer pool partitions, as "name:frames:file,file,..."; each has its own
+   * REPLACER, and scans of the listed tables and indexes read into it.
+   */
+  protected static String[] PARTITIONS = {};
+
+  /** Save the buffer pool on exit and warm it up again on the next start. */
+  protected static boolean WARM_RESTART = false;
+
+  /** Writer threads that flush the buffer pool at checkpoints and on exit. */
+  protected static int FLUSH_THREADS = 1;
+
+  /** Report pins that a query leaves behind, with who took them and where. */
+  protected static boolean PIN_LEAK_CHECK = false;
+
   /** Command line prompt, when interactive. */
   protected static String PROMPT = "\nMSQL> ";
 
@@ -48,18 +84,29 @@ public class Msql implements MiniSqlTreeConstants {
     
     // print the welcome message and load the database
     System.out.println("Minibase SQL Utility 1.0");
+    Minibase.OffHeapPool = OFF_HEAP;
+    Minibase.MappedDisk = MAPPED_IO;
+    Minibase.BufferPartitions = PARTITIONS;
+    Minibase.WarmRestart = WARM_RESTART;
+    Minibase.FlushThreads = FLUSH_THREADS;
+    Minibase.PinLeakCheck = PIN_LEAK_CHECK;
     if (new File(PATH).exists()) {
       System.out.println("Loading database...");
-      new Minibase(PATH, DB_SIZE, BUF_SIZE, "Clock", true);
+      new Minibase(PATH, DB_SIZE, BUF_SIZE, LOOKAHEAD, REPLACER, true);
     } else {
       System.out.println("Creating database...");
-      new Minibase(PATH, DB_SIZE, BUF_SIZE, "Clock", false);
+      new Minibase(PATH, DB_SIZE, BUF_SIZE, LOOKAHEAD, REPLACER, false);
+    }
+    if (CLEANER_HIGH > 0) {
+      Minibase.BufferManager.startPageCleaner(BUF_SIZE * CLEANER_LOW / 100,
+          BUF_SIZE * CLEANER_HIGH / 100);
     }
 
     // initialize the performance counters
     int allocs = Minibase.DiskManager.getAllocCount();
     int reads = Minibase.DiskManager.getReadCount();
     int writes = Minibase.DiskManager.getWriteCount();
+    Minibase.BufferManager.getStats().reset();
 
     // run until user quits or system crashes
     parser = new MiniSql(System.in);
@@ -105,6 +152,27 @@ public class Msql implements MiniSqlTreeConstants {
         System.out.println("allocs = " + (allocs2 - allocs));
         System.out.println("pinned = " + pinned);
 
+        // and what the buffer pool did meanwhile
+        BufMgrStats stats = Minibase.BufferManager.getStats();
+        System.out.println("hits   = " + stats.getHits() + String.format(
+            " (%.1f%%)", 100 * stats.getHitRatio()));
+        System.out.println("misses = " + stats.getMisses());
+        System.out.println("evicts = " + stats.getEvictions() + " ("
+            + stats.getDirtyEvictions() + " dirty)");
+        System.out.println("ahead  = " + stats.getPrefetchedPages());
+        System.out.println("clock  = " + String.format("%.1f",
+            stats.getAverageClockTravel()) + " frames/search");
+        System.out.println("wait   = " + String.format("%.1f",
+            stats.getMeanPinWait() / 1000) + " us mean, "
+            + stats.getP99PinWait() / 1000 + " us p99");
+        if (PARTITIONS.length > 0) {
+          for (BufferPartition part : Minibase.BufferManager.getPartitions()) {
+            System.out.println("pool   = " + part + " " + part.getSize()
+                + "/" + part.getQuota() + " frames");
+          }
+        }
+        stats.reset();
+
         // update the saved stats
         reads = Minibase.DiskManager.getReadCount(); // ignore getAllocCount
         writes = writes2;
@@ -116,7 +184,11 @@ public class Msql implements MiniSqlTreeConstants {
         break;
       }
 
-      // generate the plan and execute the query
+      // generate the plan and execute the query; planning reads the
+      // catalog, so its pins are tracked too
+      PinLeakDetector leaks = Minibase.BufferManager.getLeakDetector();
+      PinLeakDetector.Scope scope = leaks.beginScope(
+          jjtNodeName[node.getType()].substring(1));
       try {
         Plan plan = Optimizer.evaluate(node);
         plan.execute();
@@ -128,12 +200,17 @@ public class Msql implements MiniSqlTreeConstants {
         exc.printStackTrace();
         System.out.println();
         break;
+      } finally {
+        for (String leak : leaks.endScope(scope)) {
+          System.out.println("WARNING: " + leak);
+        }
       }
 
     } // while (true)
 
     // close the database and exit
     System.out.println("Closing database...");
+    Minibase.BufferManager.stopPageCleaner();
     Minibase.DiskManager.closeDB();
 
   } // public static void main(String[] args)
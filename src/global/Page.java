@@ -2,12 +2,20 @@ package global;
 
 /**
  * Lowest-level view of a disk page.
+ * <p>
+ * A page sharing a pinned buffer frame records what its setters change in the
+ * frame's WriteMask, so only those parts need to be written back. Writes the
+ * mask cannot see, through getData or by subclasses that change the data
+ * array directly, mark the whole page instead.
  */
 public class Page implements GlobalConst {
 
   /** The actual byte array for the page. */
   protected byte[] data;
 
+  /** Records writes while the page shares a buffer frame; else null. */
+  protected WriteMask writes;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -25,9 +33,13 @@ public class Page implements GlobalConst {
   }
 
   /**
-   * Get accessor for the data byte array.
+   * Get accessor for the data byte array. The caller may change it, so a
+   * shared frame counts as written in full.
    */
   public byte[] getData() {
+    if (writes != null) {
+      writes.markAll();
+    }
     return data;
   }
 
@@ -42,13 +54,26 @@ public class Page implements GlobalConst {
           "Invalid page buffer size"));
     }
     this.data = data;
+    this.writes = null;
   }
 
   /**
    * Sets this page's data array to share the given page's data array.
    */
   public void setPage(Page page) {
+    setPage(page, page.writes);
+  }
+
+  /**
+   * Sets this page's data array to share the given buffer frame's data
+   * array, recording writes in the given mask (if not null).
+   */
+  public void setPage(Page page, WriteMask writes) {
     this.data = page.data;
+    this.writes = writes;
+    if (writes != null && !tracksWrites()) {
+      writes.markAll();
+    }
   }
 
   /**
@@ -56,6 +81,18 @@ public class Page implements GlobalConst {
    */
   public void copyPage(Page page) {
     System.arraycopy(page.data, 0, this.data, 0, PAGE_SIZE);
+    if (writes != null) {
+      writes.markAll();
+    }
+  }
+
+  /**
+   * Returns true if the page only changes its data through the setters and
+   * getData, so its WriteMask sees every write. Subclasses that write the
+   * data array themselves must not override this.
+   */
+  protected boolean tracksWrites() {
+    return getClass() == Page.class;
   }
 
   // --------------------------------------------------------------------------
@@ -72,6 +109,9 @@ public class Page implements GlobalConst {
    */
   public void setCharValue(char value, int offset) {
     Convert.setCharValue(value, offset, data);
+    if (writes != null) {
+      writes.mark(offset, 2);
+    }
   }
 
   /**
@@ -86,6 +126,9 @@ public class Page implements GlobalConst {
    */
   public void setShortValue(short value, int offset) {
     Convert.setShortValue(value, offset, data);
+    if (writes != null) {
+      writes.mark(offset, 2);
+    }
   }
 
   /**
@@ -100,6 +143,9 @@ public class Page implements GlobalConst {
    */
   public void setIntValue(int value, int offset) {
     Convert.setIntValue(value, offset, data);
+    if (writes != null) {
+      writes.mark(offset, 4);
+    }
   }
 
   /**
@@ -114,6 +160,9 @@ public class Page implements GlobalConst {
    */
   public void setFloatValue(float value, int offset) {
     Convert.setFloatValue(value, offset, data);
+    if (writes != null) {
+      writes.mark(offset, 4);
+    }
   }
 
   /**
@@ -128,6 +177,9 @@ public class Page implements GlobalConst {
    */
   public void setStringValue(String value, int offset) {
     Convert.setStringValue(value, offset, data);
+    if (writes != null) {
+      writes.mark(offset, value.getBytes().length);
+    }
   }
 
 } // public class Page implements GlobalConst
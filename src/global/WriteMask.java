@@ -0,0 +1,68 @@
+package global;
+
+/**
+ * Parts of a buffer frame written since the page was last saved. The page is
+ * split into 64 chunks of CHUNK_SIZE bytes, and each bit of the mask stands
+ * for one chunk. Pages that share a pinned frame's data array share its mask,
+ * and their setters mark what they change, so the disk manager can write only
+ * the changed parts back.
+ * <p>
+ * Bits are only set while a frame is pinned, and only cleared while it is
+ * not, so a setter that finds its bits already set does not need the lock.
+ */
+public class WriteMask implements GlobalConst {
+
+  /** Bytes per chunk, i.e. per bit of the mask. */
+  public static final int CHUNK_SIZE = PAGE_SIZE / 64;
+
+  /** Mask with every chunk set. */
+  public static final long ALL = -1L;
+
+  /** Chunks written; guarded by this when set. */
+  private long chunks;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Marks the given bytes as written.
+   */
+  public void mark(int offset, int length) {
+    if (length <= 0) {
+      return;
+    }
+    int first = offset / CHUNK_SIZE;
+    int last = (offset + length - 1) / CHUNK_SIZE;
+    long bits = (ALL >>> (63 - (last - first))) << first;
+    if ((chunks & bits) != bits) {
+      synchronized (this) {
+        chunks |= bits;
+      }
+    }
+  }
+
+  /**
+   * Marks the whole page as written.
+   */
+  public void markAll() {
+    if (chunks != ALL) {
+      synchronized (this) {
+        chunks = ALL;
+      }
+    }
+  }
+
+  /**
+   * Gets the chunks written, one bit per chunk.
+   */
+  public synchronized long get() {
+    return chunks;
+  }
+
+  /**
+   * Forgets all writes, once the page is saved or replaced.
+   */
+  public synchronized void clear() {
+    chunks = 0;
+  }
+
+} // public class WriteMask implements GlobalConst
@@ -0,0 +1,169 @@
+package heap;
+
+import global.Minibase;
+import global.PageId;
+
+/**
+ * Heap file that grows by extents: when it runs out of room, it allocates a
+ * run of consecutive data pages with one request, instead of one page at a
+ * time. Bulk loads thus make far fewer allocation calls, and the file's pages
+ * are laid out in the order they are scanned, so read-ahead can read them with
+ * one request. Extents are sized to the file: the first is a single page, and
+ * each one after is as large as the file's data pages so far, up to the
+ * extent size, so small tables take no more room than before.
+ * <p>
+ * Only the first page of an extent is put in use; the others are reserved in
+ * the directory entries just past the used ones, marked by a record count of
+ * -1, and put in use (and only then formatted and written) as the file needs
+ * them. Directory scans only look at the
+ * used entries, and compacting a directory page shifts the reserved entries
+ * along with them. The last entry of a directory page is never reserved, as
+ * compacting leaves a stale copy of it behind.
+ */
+public class ExtentHeapFile extends HeapFile {
+
+  /** Default largest number of data pages per extent. */
+  public static final int DEFAULT_EXTENT_SIZE = 8;
+
+  /** Record count marking a reserved directory entry. */
+  protected static final short RESERVED = -1;
+
+  /** Largest number of data pages per extent. */
+  protected int extentSize;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens the heap file with the given name, creating it if needed; a null
+   * name makes a temporary file. Extents grow up to the default size.
+   */
+  public ExtentHeapFile(String name) {
+    this(name, DEFAULT_EXTENT_SIZE);
+  }
+
+  /**
+   * Opens the heap file with the given name, creating it if needed; a null
+   * name makes a temporary file. Extents grow up to the given size.
+   *
+   * @throws IllegalArgumentException if the extent size is not positive
+   */
+  public ExtentHeapFile(String name, int extentSize) {
+    super(name);
+    if (extentSize < 1) {
+      throw new IllegalArgumentException("Invalid extent size: " + extentSize);
+    }
+    this.extentSize = extentSize;
+  }
+
+  /**
+   * Deletes the heap file from the database, freeing all of its pages,
+   * reserved ones included.
+   */
+  public void deleteFile() {
+
+    // free the reserved pages first, as the directory forgets them
+    PageId dirId = new PageId(headId.pid);
+    DirPage dirPage = new DirPage();
+    while (dirId.pid != INVALID_PAGEID) {
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      boolean dirty = false;
+      for (int slot = dirPage.getEntryCnt(); isReserved(dirPage, slot); slot++) {
+        Minibase.BufferManager.freePage(dirPage.getPageId(slot));
+        dirPage.setRecCnt(slot, (short) 0);
+        dirty = true;
+      }
+      PageId nextId = dirPage.getNextPage();
+      Minibase.BufferManager.unpinPage(dirId, dirty);
+      dirId = nextId;
+    }
+    super.deleteFile();
+    isTemp = false; //deleted already, so not again when finalized
+
+  } // public void deleteFile()
+
+  /**
+   * Puts a new data page in use, in the first directory page with room: a
+   * page it has reserved, or else the first page of a new extent, whose other
+   * pages are reserved there. The extent doubles the pages listed in the head
+   * directory page (later directory pages take full extents); it is shrunk to
+   * the room left in the directory page, and to leave at least half of the
+   * unpinned frames to others.
+   *
+   * @return id of the new data page
+   */
+  protected PageId insertPage() {
+
+    // find the first directory page with room, appending one if needed
+    PageId dirId = new PageId(headId.pid);
+    DirPage dirPage = new DirPage();
+    Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+    while (dirPage.getEntryCnt() >= DirPage.MAX_ENTRIES) {
+      PageId nextId = dirPage.getNextPage();
+      if (nextId.pid == INVALID_PAGEID) {
+        DirPage newDir = new DirPage();
+        nextId = Minibase.BufferManager.newPage(newDir, 1);
+        newDir.setCurPage(nextId);
+        newDir.setPrevPage(dirId);
+        dirPage.setNextPage(nextId);
+        Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+        dirId = nextId;
+        dirPage = newDir;
+        break;
+      }
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      dirId = nextId;
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+    }
+    int slot = dirPage.getEntryCnt();
+
+    // use a reserved page, or allocate an extent and reserve the rest of it
+    PageId pageId;
+    short freeCnt;
+    if (isReserved(dirPage, slot)) {
+      pageId = dirPage.getPageId(slot);
+      DataPage page = new DataPage();
+      page.setCurPage(pageId);
+      freeCnt = page.getFreeSpace();
+      Minibase.BufferManager.pinPage(pageId, page, PIN_MEMCPY);
+      Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    } else {
+      int size = (dirId.pid == headId.pid) ? Math.max(1, slot) : extentSize;
+      size = Math.min(size, Math.min(extentSize, DirPage.MAX_ENTRIES - 1 - slot));
+      size = Math.max(1, Math.min(size, Minibase.BufferManager.getNumUnpinned() / 2));
+      DataPage[] pages = new DataPage[size];
+      for (int i = 0; i < size; i++) {
+        pages[i] = new DataPage();
+      }
+      pageId = Minibase.BufferManager.newExtent(pages);
+      freeCnt = pages[0].getFreeSpace();
+      PageId pageno = new PageId();
+      for (int i = 0; i < size; i++) {
+        pageno.pid = pageId.pid + i;
+        pages[i].setCurPage(pageno);
+        Minibase.BufferManager.unpinPage(pageno, (i == 0) ? UNPIN_DIRTY : UNPIN_CLEAN);
+        if (i > 0) {
+          dirPage.setPageId(slot + i, pageno);
+          dirPage.setRecCnt(slot + i, RESERVED);
+          dirPage.setFreeCnt(slot + i, freeCnt);
+        }
+      }
+    }
+
+    // put the page in use
+    dirPage.setPageId(slot, pageId);
+    dirPage.setRecCnt(slot, (short) 0);
+    dirPage.setFreeCnt(slot, freeCnt);
+    dirPage.setEntryCnt((short) (slot + 1));
+    Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+    return pageId;
+
+  } // protected PageId insertPage()
+
+  /**
+   * Tells whether the given entry of the given directory page is reserved.
+   */
+  protected static boolean isReserved(DirPage dirPage, int slot) {
+    return slot < DirPage.MAX_ENTRIES - 1 && dirPage.getRecCnt(slot) == RESERVED;
+  }
+
+} // public class ExtentHeapFile extends HeapFile
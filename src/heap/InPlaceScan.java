@@ -0,0 +1,165 @@
+package heap;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * Heap file scan that can leave records where they are: advance moves to the
+ * next record and keeps its data page pinned, so the record can be read in
+ * place, in the page's data array, until the scan advances again. getNext
+ * still returns a copy. Slots are walked by number, so moving from record to
+ * record allocates nothing.
+ */
+public class InPlaceScan extends HeapScan {
+
+  /** True while the data page is pinned. */
+  protected boolean onPage;
+
+  /** Page number of the data page. */
+  protected int pageno;
+
+  /** Slot of the current record on the data page; -1 before the first. */
+  protected int slot;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a scan over the given heap file.
+   */
+  public InPlaceScan(HeapFile hf) {
+    super(hf);
+    slot = -1;
+  }
+
+  /**
+   * Closes the scan, releasing the pinned pages.
+   */
+  public void close() {
+    if (!onPage) {
+      dataPage = null; //not pinned, so not to be unpinned
+    }
+    onPage = false;
+    super.close();
+  }
+
+  /**
+   * Returns true if there are more records to scan, false otherwise; the
+   * current record stays where it is.
+   */
+  public boolean hasNext() {
+    if (dirPage == null) {
+      return false;
+    }
+    if (onPage && nextSlot() >= 0) {
+      return true;
+    }
+    if (index < count - 1) {
+      return true;
+    }
+    return (dirPage.getNextPage().pid != INVALID_PAGEID);
+  }
+
+  /**
+   * Gets a copy of the next record in the scan.
+   *
+   * @param rid output parameter that identifies the returned record
+   * @throws IllegalStateException if the scan has no more elements
+   */
+  public byte[] getNext(RID rid) {
+    if (!advance(rid)) {
+      throw new IllegalStateException("No more elements");
+    }
+    int offset = getRecordOffset();
+    byte[] record = new byte[getRecordLength()];
+    System.arraycopy(getRecordData(), offset, record, 0, record.length);
+    return record;
+  }
+
+  /**
+   * Moves to the next record, pinning data and directory pages as needed; the
+   * record is then read with getRecordData, getRecordOffset and
+   * getRecordLength.
+   *
+   * @param rid output parameter that identifies the record
+   * @return false if the scan has no more elements
+   */
+  public boolean advance(RID rid) {
+    while (dirPage != null) {
+
+      // next record on the data page
+      if (onPage) {
+        int next = nextSlot();
+        if (next >= 0) {
+          slot = next;
+          rid.pageno.pid = pageno;
+          rid.slotno = slot;
+          return true;
+        }
+        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+        onPage = false;
+      }
+
+      // next data page in the directory, or the next directory page
+      if (index < count - 1) {
+        if (dataPage == null) {
+          dataPage = new DataPage();
+        }
+        index++;
+        PageId pageId = dirPage.getPageId(index);
+        Minibase.BufferManager.pinPage(pageId, dataPage, PIN_DISKIO);
+        pageno = pageId.pid;
+        onPage = true;
+        slot = -1;
+      } else {
+        PageId nextId = dirPage.getNextPage();
+        if (nextId.pid == INVALID_PAGEID) {
+          return false;
+        }
+        Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+        Minibase.BufferManager.pinPage(nextId, dirPage, PIN_DISKIO);
+        count = dirPage.getEntryCnt();
+        index = -1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the data array of the page holding the current record; valid until
+   * the scan advances.
+   */
+  public byte[] getRecordData() {
+    return dataPage.getData();
+  }
+
+  /**
+   * Gets the offset of the current record in getRecordData.
+   */
+  public int getRecordOffset() {
+    return dataPage.getSlotOffset(slot);
+  }
+
+  /**
+   * Gets the length of the current record.
+   */
+  public int getRecordLength() {
+    return dataPage.getSlotLength(slot);
+  }
+
+  /**
+   * Finds the first used slot after the current record.
+   *
+   * @return the slot, or -1 if none
+   */
+  protected int nextSlot() {
+    int slotCnt = dataPage.getSlotCount();
+    for (int i = slot + 1; i < slotCnt; i++) {
+      if (dataPage.getSlotLength(i) != EMPTY_SLOT) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+} // public class InPlaceScan extends HeapScan
@@ -0,0 +1,85 @@
+package heap;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.RID;
+
+/**
+ * A record read in place, in the pinned page that holds it, instead of copied
+ * out like HeapFile.selectRecord does. Records selected one after another on
+ * the same page share its pin; the page is unpinned when a record of another
+ * page is selected, or on release.
+ */
+public class PinnedRecord implements GlobalConst {
+
+  /** The page holding the record, while pinned. */
+  protected HFPage page;
+
+  /** Page number of the pinned page, or INVALID_PAGEID if none. */
+  protected int pageno;
+
+  /** Where the record is in the page's data array. */
+  protected int offset;
+  protected int length;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a record with no page pinned.
+   */
+  public PinnedRecord() {
+    page = new HFPage();
+    pageno = INVALID_PAGEID;
+  }
+
+  /**
+   * Moves to the given record, pinning its page if not pinned already.
+   *
+   * @throws IllegalArgumentException if the RID is invalid
+   */
+  public void select(RID rid) {
+    if (rid.pageno.pid != pageno) {
+      release();
+      Minibase.BufferManager.pinPage(rid.pageno, page, PIN_DISKIO);
+      pageno = rid.pageno.pid;
+    }
+    if (rid.slotno < 0 || rid.slotno >= page.getSlotCount()
+        || page.getSlotLength(rid.slotno) == EMPTY_SLOT) {
+      throw new IllegalArgumentException("Invalid RID");
+    }
+    offset = page.getSlotOffset(rid.slotno);
+    length = page.getSlotLength(rid.slotno);
+  }
+
+  /**
+   * Unpins the page, if any; the record may no longer be read.
+   */
+  public void release() {
+    if (pageno != INVALID_PAGEID) {
+      Minibase.BufferManager.unpinPage(page.getCurPage(), UNPIN_CLEAN);
+      pageno = INVALID_PAGEID;
+    }
+  }
+
+  /**
+   * Gets the data array of the page holding the record.
+   */
+  public byte[] getData() {
+    return page.getData();
+  }
+
+  /**
+   * Gets the offset of the record in getData.
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Gets the length of the record.
+   */
+  public int getLength() {
+    return length;
+  }
+
+} // public class PinnedRecord implements GlobalConst
@@ -0,0 +1,92 @@
+package heap;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * Heap file scan that announces its upcoming data pages to the buffer manager.
+ * The directory page being scanned lists the data pages in the order they are
+ * visited, so the next pages are known exactly; they are prefetched in batches
+ * while the scan is still half a window away from them.
+ */
+public class ReadAheadScan extends InPlaceScan {
+
+  /** Number of pages to read ahead. */
+  protected int window;
+
+  /** Directory page the announced entries belong to. */
+  protected int prefetchDir;
+
+  /** Directory entries before this one have been announced. */
+  protected int prefetchEnd;
+
+  /** Reused list of pages to announce. */
+  protected PageId[] batch;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a scan over the given heap file, reading the given number of pages
+   * ahead.
+   *
+   * @throws IllegalArgumentException if the window is not positive
+   */
+  public ReadAheadScan(HeapFile hf, int window) {
+    super(hf);
+    if (window < 1) {
+      throw new IllegalArgumentException("Invalid read-ahead window: " + window);
+    }
+    this.window = window;
+    prefetchDir = INVALID_PAGEID;
+    batch = new PageId[window + 1];
+  }
+
+  /**
+   * Moves to the next record in the file scan, reading ahead as needed.
+   */
+  public boolean advance(RID rid) {
+    readAhead();
+    return super.advance(rid);
+  }
+
+  /**
+   * Announces the next window of data pages once the scan has used up half of
+   * the previous one; at the end of the directory page, the next directory
+   * page is announced too.
+   */
+  protected void readAhead() {
+
+    if (dirPage == null) {
+      return;
+    }
+
+    // start over on each directory page
+    int dirId = dirPage.getCurPage().pid;
+    if (dirId != prefetchDir) {
+      prefetchDir = dirId;
+      prefetchEnd = index + 1;
+    }
+    if (prefetchEnd - (index + 1) > window / 2) {
+      return;
+    }
+
+    int end = Math.min(count, index + 1 + window);
+    int cnt = 0;
+    for (int i = Math.max(prefetchEnd, index + 1); i < end; i++) {
+      batch[cnt++] = dirPage.getPageId(i);
+    }
+    if (end == count && prefetchEnd < count) {
+      PageId next = dirPage.getNextPage();
+      if (next.pid != INVALID_PAGEID) {
+        batch[cnt++] = next;
+      }
+    }
+    prefetchEnd = Math.max(prefetchEnd, end);
+    if (cnt > 0) {
+      Minibase.BufferManager.prefetch(batch, cnt);
+    }
+
+  } // protected void readAhead()
+
+} // public class ReadAheadScan extends InPlaceScan
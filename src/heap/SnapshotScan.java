@@ -0,0 +1,106 @@
+package heap;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * Heap file scan that never pins: each directory and data page is copied into
+ * the scan's own pages with BufMgr.copyPage, which reads a resident page
+ * optimistically, and records are then read from the copies. Read-mostly
+ * files scanned by many sessions at once, like the catalog, thus do not make
+ * the scans contend on pin counts. Each page is seen as of its copy; updates
+ * made later to a page already copied are not seen.
+ */
+public class SnapshotScan implements GlobalConst {
+
+  /** Copy of the directory page being scanned. */
+  protected DirPage dirPage;
+
+  /** Copy of the data page being scanned. */
+  protected DataPage dataPage;
+
+  /** Number of entries on the directory page. */
+  protected int count;
+
+  /** Directory entry of the data page being scanned. */
+  protected int index;
+
+  /** The next record, or null if none is known yet. */
+  protected RID nextRid;
+
+  /** True once the scan is past the last record. */
+  protected boolean done;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a scan over the given heap file.
+   */
+  public SnapshotScan(HeapFile hf) {
+    dirPage = new DirPage();
+    dataPage = new DataPage();
+    Minibase.BufferManager.copyPage(hf.headId, dirPage);
+    count = dirPage.getEntryCnt();
+    index = -1;
+  }
+
+  /**
+   * Closes the scan; it holds no pins, so this only ends it.
+   */
+  public void close() {
+    done = true;
+    nextRid = null;
+  }
+
+  /**
+   * Returns true if there are more records to scan, false otherwise.
+   */
+  public boolean hasNext() {
+    return advance();
+  }
+
+  /**
+   * Gets the next record in the scan.
+   *
+   * @param rid output parameter that identifies the returned record
+   * @throws IllegalStateException if the scan has no more elements
+   */
+  public byte[] getNext(RID rid) {
+    if (!advance()) {
+      throw new IllegalStateException("No more elements");
+    }
+    rid.copyRID(nextRid);
+    byte[] record = dataPage.selectRecord(nextRid);
+    nextRid = dataPage.nextRecord(nextRid);
+    return record;
+  }
+
+  /**
+   * Moves on to the next record, if not there already, skipping empty data
+   * pages and moving on to the next directory page as needed.
+   *
+   * @return true if there is a next record
+   */
+  protected boolean advance() {
+    while (nextRid == null && !done) {
+      if (index + 1 < count) {
+        index++;
+        Minibase.BufferManager.copyPage(dirPage.getPageId(index), dataPage);
+        nextRid = dataPage.firstRecord();
+      } else {
+        PageId nextId = dirPage.getNextPage();
+        if (nextId.pid == INVALID_PAGEID) {
+          done = true;
+        } else {
+          Minibase.BufferManager.copyPage(nextId, dirPage);
+          count = dirPage.getEntryCnt();
+          index = -1;
+        }
+      }
+    }
+    return nextRid != null;
+  }
+
+} // public class SnapshotScan implements GlobalConst
@@ -0,0 +1,86 @@
+package index;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * Bucket scan that announces the pages it is about to need to the buffer
+ * manager. Each time the scan moves to a new bucket page, the heap pages of
+ * the entries on it are prefetched (the caller fetches those records next), as
+ * are the next bucket pages, looked up in the hash directory.
+ */
+public class ReadAheadBucketScan extends BucketScan {
+
+  /** Maximum number of pages to announce at a time. */
+  protected int window;
+
+  /** Buckets up to this hash value have been announced. */
+  protected int prefetchHash;
+
+  /** Reused list of pages to announce. */
+  protected PageId[] batch;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a scan over all the buckets of the given index, reading the given
+   * number of pages ahead.
+   *
+   * @throws IllegalArgumentException if the window is not positive
+   */
+  public ReadAheadBucketScan(HashIndex index, int window) {
+    super(index);
+    if (window < 1) {
+      throw new IllegalArgumentException("Invalid read-ahead window: " + window);
+    }
+    this.window = window;
+    prefetchHash = curHash;
+    batch = new PageId[window];
+  }
+
+  /**
+   * Gets the next data entry in the scan, reading ahead on each new page.
+   */
+  public RID getNext() {
+    if (hasNext() && curSlot == -1) {
+      readAhead();
+    }
+    return super.getNext();
+  }
+
+  /**
+   * Announces the heap pages of the current bucket page's entries, then the
+   * following bucket pages, up to the window size in all.
+   */
+  protected void readAhead() {
+
+    // the records this page points to are fetched first
+    int cnt = 0;
+    int entries = curPage.getEntryCount();
+    for (int i = 0; i < entries && cnt < window; i++) {
+      batch[cnt++] = curPage.getEntryAt(i).rid.pageno;
+    }
+
+    // then the overflow page, if any, and the next buckets not yet announced
+    PageId next = curPage.getNextPage();
+    if (next.pid != INVALID_PAGEID && cnt < window) {
+      batch[cnt++] = next;
+    }
+    HashDirPage dir = new HashDirPage(dirPage);
+    prefetchHash = Math.max(prefetchHash, curHash);
+    while (cnt < window && prefetchHash + 1 < HashDirPage.INIT_SIZE) {
+      prefetchHash++;
+      PageId bucket = dir.getPageId(prefetchHash);
+      if (bucket.pid != INVALID_PAGEID) {
+        batch[cnt++] = bucket;
+      }
+    }
+
+    if (cnt > 0) {
+      Minibase.BufferManager.prefetch(batch, cnt);
+    }
+
+  } // protected void readAhead()
+
+} // public class ReadAheadBucketScan extends BucketScan
@@ -4,17 +4,19 @@ import global.AttrType;
 import global.GlobalConst;
 import global.RID;
 import heap.HeapFile;
+import heap.SnapshotScan;
 
 import java.util.ArrayList;
 
-import relop.FileScan;
 import relop.Schema;
 import relop.Tuple;
 
 /**
  * <h3>Minibase System Catalog</h3>
  * Maintains metadata about every table, column, and index in the database; this
- * information itself is stored in tables (i.e. heap files).
+ * information itself is stored in tables (i.e. heap files). Lookups scan the
+ * catalog files with snapshot scans, which read the pages without pinning
+ * them, as every query looks them up.
  */
 public class Catalog implements GlobalConst {
 
@@ -144,18 +146,21 @@ public class Catalog implements GlobalConst {
   public RID getFileRID(String fileName, boolean isTable) {
 
     // create the appropriate scan
-    FileScan scan;
+    SnapshotScan scan;
+    Schema schema;
     if (isTable) {
-      scan = new FileScan(s_rel, f_rel);
+      scan = new SnapshotScan(f_rel);
+      schema = s_rel;
     } else {
-      scan = new FileScan(s_ind, f_ind);
+      scan = new SnapshotScan(f_ind);
+      schema = s_ind;
     }
 
     // find the relation catalog row
+    RID rid = new RID();
     while (scan.hasNext()) {
-      Tuple tuple = scan.getNext();
+      Tuple tuple = new Tuple(schema, scan.getNext(rid));
       if (tuple.getStringFld(0).equalsIgnoreCase(fileName)) {
-        RID rid = scan.getLastRID();
         scan.close();
         return rid;
       }
@@ -194,9 +199,10 @@ public class Catalog implements GlobalConst {
 
     // scan the applicable catalog tuples
     ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-    FileScan scan = new FileScan(s_att, f_att);
+    SnapshotScan scan = new SnapshotScan(f_att);
+    RID rid = new RID();
     while (scan.hasNext()) {
-      Tuple tuple = scan.getNext();
+      Tuple tuple = new Tuple(s_att, scan.getNext(rid));
       if (tuple.getStringFld(0).equalsIgnoreCase(fileName)) {
         tuples.add(tuple);
       }
@@ -225,13 +231,14 @@ public class Catalog implements GlobalConst {
 
     // find and remove all attribute catalog rows
     ArrayList<RID> rids = new ArrayList<RID>();
-    FileScan scan = new FileScan(s_att, f_att);
+    SnapshotScan scan = new SnapshotScan(f_att);
+    RID attrid = new RID();
     while (scan.hasNext()) {
-      Tuple tuple = scan.getNext();
+      Tuple tuple = new Tuple(s_att, scan.getNext(attrid));
       if (tuple.getStringFld(0).equalsIgnoreCase(fileName)) {
 
         // save the catalog RID for later deletion
-        rids.add(scan.getLastRID());
+        rids.add(new RID(attrid));
       }
     }
     scan.close();
@@ -266,12 +273,13 @@ public class Catalog implements GlobalConst {
   public IndexDesc[] getIndexes(String fileName, Schema schema, int[] fldnos) {
 
     // scan the index catalog for the table
-    FileScan scan = new FileScan(s_ind, f_ind);
+    SnapshotScan scan = new SnapshotScan(f_ind);
     ArrayList<IndexDesc> inds = new ArrayList<IndexDesc>();
 
     // for each index on the given table
+    RID rid = new RID();
     while (scan.hasNext()) {
-      Tuple tuple = scan.getNext();
+      Tuple tuple = new Tuple(s_ind, scan.getNext(rid));
       if (tuple.getStringFld(1).equalsIgnoreCase(fileName)) {
 
         // add the index, if applicable
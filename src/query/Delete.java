@@ -54,6 +54,7 @@ class Delete implements Plan {
 		hp.deleteRecord(scan.getLastRID());
 		cnt++;
 	}
+	sel.close();
 
 	
     // print the output message
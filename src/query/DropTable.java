@@ -1,7 +1,7 @@
 package query;
 
 import global.Minibase;
-import heap.HeapFile;
+import heap.ExtentHeapFile;
 import index.HashIndex;
 import parser.AST_DropTable;
 
@@ -39,7 +39,7 @@ class DropTable implements Plan {
     }
 
     // delete the heap file and catalog entry
-    new HeapFile(fileName).deleteFile();
+    new ExtentHeapFile(fileName).deleteFile();
     Minibase.SystemCatalog.dropTable(fileName);
 
     // print the output message
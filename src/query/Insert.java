@@ -1,11 +1,13 @@
 package query;
 
+import bufmgr.BufferPartition;
 import parser.AST_Insert;
 import relop.Schema;
 import relop.Tuple;
 import global.Minibase;
 import global.RID;
 import global.SearchKey;
+import heap.ExtentHeapFile;
 import heap.HeapFile;
 import index.HashIndex;
 
@@ -33,14 +35,22 @@ class Insert implements Plan {
    * Executes the plan and prints applicable output.
    */
   public void execute() {
-	HeapFile insertFile = new HeapFile(fileName);
-	Tuple tuple = new Tuple(schema);
-	tuple.setAllFields(insertObjects);
-	RID rid = tuple.insertIntoFile(insertFile);
 	IndexDesc[] inds = Minibase.SystemCatalog.getIndexes(fileName);
-    for (IndexDesc ind : inds) {
-      new HashIndex(ind.indexName).insertEntry(new SearchKey(tuple.getField(ind.columnName)), rid);
-    }
+
+	// read the table's pages into its buffer pool partition, if bound to one
+	BufferPartition previous = Minibase.BufferManager.enterPartition(
+	    Minibase.BufferManager.getFilePartition(fileName));
+	try {
+	  HeapFile insertFile = new ExtentHeapFile(fileName);
+	  Tuple tuple = new Tuple(schema);
+	  tuple.setAllFields(insertObjects);
+	  RID rid = tuple.insertIntoFile(insertFile);
+	  for (IndexDesc ind : inds) {
+	    new HashIndex(ind.indexName).insertEntry(new SearchKey(tuple.getField(ind.columnName)), rid);
+	  }
+	} finally {
+	  Minibase.BufferManager.enterPartition(previous);
+	}
     // print the output message
     System.out.println("1 rows affected.");
 
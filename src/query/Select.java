@@ -21,6 +21,7 @@ class Select implements Plan {
   protected int[] recordCount;
   protected String[] tables;
   protected Predicate[][] predicates;
+  protected SortKey[] orders;
   protected boolean isExplain;
   protected boolean isDistinct;
   private String[] cols;
@@ -41,6 +42,7 @@ class Select implements Plan {
 	tables = tree.getTables();
 	cols = tree.getColumns();
 	predicates = tree.getPredicates();
+	orders = tree.getOrders();
 	validateSelect();
 	
 	scans = new Iterator[tables.length];
@@ -69,6 +71,7 @@ class Select implements Plan {
 						HashIndex hi = new HashIndex(id.indexName);
 						IndexScan is = new IndexScan(schema,hi,new HeapFile(id.indexName));
 						System.out.println("use index:" + id.indexName);
+						scans[i].close(); // replaced by the index scan
 						scans[i] = new Selection(is, tablePredicates[j]);
 					}
 					else{
@@ -123,6 +126,11 @@ class Select implements Plan {
 		}
 	}
 	
+	// sort before projecting, so that columns not selected can be sorted on
+	if (orders.length > 0) {
+		final_itr = new Sort(final_itr, orders);
+	}
+
 	if (cols.length != 0) {
 		Integer[] pCols = new Integer[cols.length];
 		for (int i = 0; i < pCols.length; i++)
@@ -151,6 +159,7 @@ class Select implements Plan {
 	Selection s = new Selection(scan, p);
 	Tuple t = s.getNext();
 	int rec_num = (Integer) t.getField("recCount");
+	s.close();
 	
 	return rec_num;
 	
@@ -166,6 +175,9 @@ class Select implements Plan {
 	  for (int i = 0; i < cols.length; i++)
 		  QueryCheck.columnExists(bigSchema, cols[i]);
 
+	  for (int i = 0; i < orders.length; i++)
+		  QueryCheck.columnExists(bigSchema, orders[i].field.toString());
+
 	  QueryCheck.predicates(bigSchema, predicates);
 
   }
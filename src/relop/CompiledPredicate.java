@@ -0,0 +1,463 @@
+package relop;
+
+import global.AttrOperator;
+import global.AttrType;
+import global.Convert;
+
+/**
+ * A predicate bound to a schema: column names are resolved to offsets once,
+ * and the comparison is specialized to the operand types, so evaluating it
+ * reads the fields straight from the record bytes and allocates nothing. A
+ * compiled predicate never changes, so one may be shared by many operators.
+ * <p>
+ * Operators are kept as the set of comparison outcomes they accept (less,
+ * equal, greater), which replaces the switch on the operator for each row.
+ * Constants on the left are moved to the right by mirroring the operator.
+ */
+public abstract class CompiledPredicate {
+
+	/** Comparison outcomes, as bits of the accepted set. */
+	protected static final int LESS = 1;
+	protected static final int EQUAL = 2;
+	protected static final int GREATER = 4;
+
+	/** Outcomes that pass the predicate. */
+	protected final int accept;
+
+	// --------------------------------------------------------------------------
+
+	protected CompiledPredicate(int accept) {
+		this.accept = accept;
+	}
+
+	/**
+	 * Evaluates the predicate on the given record and returns true if it passes.
+	 *
+	 * @param data record laid out by the bound schema
+	 */
+	public boolean evaluate(byte[] data) {
+		return evaluate(data, 0);
+	}
+
+	/**
+	 * Evaluates the predicate on the record at the given offset (i.e. in a
+	 * page) and returns true if it passes.
+	 *
+	 * @param data array holding the record, laid out by the bound schema
+	 * @param base where the record starts in data
+	 */
+	public abstract boolean evaluate(byte[] data, int base);
+
+	/**
+	 * Narrows the batch to the live rows that pass the predicate, a whole
+	 * column at a time.
+	 *
+	 * @param batch rows of the bound schema
+	 */
+	public abstract void filter(TupleBatch batch);
+
+	/**
+	 * Returns true if the given comparison result passes.
+	 */
+	protected final boolean passes(int comp) {
+		return (accept & ((comp < 0) ? LESS : (comp == 0) ? EQUAL : GREATER)) != 0;
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Compiles a predicate for tuples of the given schema.
+	 *
+	 * @throws IllegalStateException if the predicate does not fit the schema
+	 */
+	public static CompiledPredicate compile(Predicate pred, Schema schema) {
+
+		// resolve column names to field numbers
+		int ltype = pred.ltype;
+		Object left = pred.left;
+		if (ltype == AttrType.COLNAME) {
+			left = schema.fieldNumber((String) left);
+			ltype = AttrType.FIELDNO;
+		}
+		int rtype = pred.rtype;
+		Object right = pred.right;
+		if (rtype == AttrType.COLNAME) {
+			right = schema.fieldNumber((String) right);
+			rtype = AttrType.FIELDNO;
+		}
+		int accept = accepted(pred.oper);
+
+		// constants only: the result never changes
+		if (ltype != AttrType.FIELDNO && rtype != AttrType.FIELDNO) {
+			return new Constant(pred.evaluate(new Tuple(schema)));
+		}
+
+		// keep the field on the left
+		if (ltype != AttrType.FIELDNO) {
+			Object operand = left;
+			left = right;
+			right = operand;
+			rtype = ltype;
+			accept = (accept & EQUAL) | ((accept & LESS) << 2) | ((accept & GREATER) >> 2);
+		}
+		int fldno = (Integer) left;
+		boolean fields = (rtype == AttrType.FIELDNO);
+		if (fldno < 0 || (fields && (Integer) right < 0)) {
+			throw new IllegalStateException("unknown column in predicate " + pred);
+		}
+
+		// specialize on the type of the field
+		switch (schema.fieldType(fldno)) {
+
+			case AttrType.INTEGER:
+				return fields ? new IntFields(accept, schema, fldno, (Integer) right)
+						: new IntConstant(accept, schema, fldno, (Integer) right);
+
+			case AttrType.FLOAT:
+				return fields ? new FloatFields(accept, schema, fldno, (Integer) right)
+						: new FloatConstant(accept, schema, fldno, (Float) right);
+
+			case AttrType.STRING:
+				return fields ? new StringFields(accept, schema, fldno, (Integer) right)
+						: new StringConstant(accept, schema, fldno, (String) right);
+
+			default:
+				throw new IllegalStateException("unknown types to compare");
+
+		}
+	}
+
+	/**
+	 * Compiles each of the given predicates for tuples of the given schema.
+	 */
+	public static CompiledPredicate[] compile(Schema schema, Predicate... preds) {
+		CompiledPredicate[] compiled = new CompiledPredicate[preds.length];
+		for (int i = 0; i < preds.length; i++) {
+			compiled[i] = compile(preds[i], schema);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Evaluates predicates joined by and logic on the given tuple, which may
+	 * be a view.
+	 */
+	public static boolean evaluate(Tuple tuple, CompiledPredicate... preds) {
+		for (CompiledPredicate p : preds) {
+			if (!p.evaluate(tuple.data, tuple.offset)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Narrows a batch by predicates joined by and logic.
+	 */
+	public static void filter(TupleBatch batch, CompiledPredicate... preds) {
+		for (CompiledPredicate p : preds) {
+			if (batch.size() == 0) return;
+			p.filter(batch);
+		}
+	}
+
+	/**
+	 * Gets the outcomes an operator accepts.
+	 */
+	private static int accepted(int oper) {
+		switch (oper) {
+
+			case AttrOperator.EQ:
+				return EQUAL;
+
+			case AttrOperator.NEQ:
+				return LESS | GREATER;
+
+			case AttrOperator.GT:
+				return GREATER;
+
+			case AttrOperator.GTE:
+				return GREATER | EQUAL;
+
+			case AttrOperator.LT:
+				return LESS;
+
+			case AttrOperator.LTE:
+				return LESS | EQUAL;
+
+			default:
+				throw new IllegalStateException("unknown operator to evaluate");
+
+		}
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Compares a string field, as Convert.getStringValue would decode it (i.e.
+	 * trimmed), with other string bytes, without decoding the field. Bytes are
+	 * only ordered like chars if they are ASCII, so both are decoded after all
+	 * once a byte that is not is reached.
+	 *
+	 * @param trim true if the other bytes are a field too, to be trimmed alike
+	 * @return the comparison result
+	 */
+	protected static int compareStrings(byte[] data1, int off1, int len1, byte[] data2, int off2, int len2,
+			boolean trim) {
+		int end1 = Math.min(off1 + len1, data1.length);
+		int end2 = Math.min(off2 + len2, data2.length);
+		while (off1 < end1 && (data1[off1] & 0xff) <= ' ') off1++;
+		while (end1 > off1 && (data1[end1 - 1] & 0xff) <= ' ') end1--;
+		if (trim) {
+			while (off2 < end2 && (data2[off2] & 0xff) <= ' ') off2++;
+			while (end2 > off2 && (data2[end2 - 1] & 0xff) <= ' ') end2--;
+		}
+		int n = Math.min(end1 - off1, end2 - off2);
+		for (int i = 0; i < n; i++) {
+			int b1 = data1[off1 + i] & 0xff;
+			int b2 = data2[off2 + i] & 0xff;
+			if ((b1 | b2) >= 0x80) {
+				return new String(data1, off1, end1 - off1).compareTo(new String(data2, off2, end2 - off2));
+			}
+			if (b1 != b2) return b1 - b2;
+		}
+		return (end1 - off1) - (end2 - off2);
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Predicate on constants only.
+	 */
+	static class Constant extends CompiledPredicate {
+		private final boolean result;
+
+		Constant(boolean result) {
+			super(0);
+			this.result = result;
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			return result;
+		}
+
+		public void filter(TupleBatch batch) {
+			if (!result) batch.setSize(0);
+		}
+	}
+
+	/**
+	 * Integer field against a constant.
+	 */
+	static class IntConstant extends CompiledPredicate {
+		private final int fldno;
+		private final int offset;
+		private final int value;
+
+		IntConstant(int accept, Schema schema, int fldno, int value) {
+			super(accept);
+			this.fldno = fldno;
+			this.offset = schema.fieldOffset(fldno);
+			this.value = value;
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			int l = Convert.getIntValue(base + offset, data);
+			return passes((l < value) ? -1 : (l == value) ? 0 : 1);
+		}
+
+		public void filter(TupleBatch batch) {
+			int[] col = batch.getIntColumn(fldno);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				int l = col[row];
+				if (passes((l < value) ? -1 : (l == value) ? 0 : 1)) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+
+	/**
+	 * Integer field against another field.
+	 */
+	static class IntFields extends CompiledPredicate {
+		private final int lfld, rfld;
+		private final int loff, roff;
+
+		IntFields(int accept, Schema schema, int lfld, int rfld) {
+			super(accept);
+			this.lfld = lfld;
+			this.rfld = rfld;
+			this.loff = schema.fieldOffset(lfld);
+			this.roff = schema.fieldOffset(rfld);
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			int l = Convert.getIntValue(base + loff, data);
+			int r = Convert.getIntValue(base + roff, data);
+			return passes((l < r) ? -1 : (l == r) ? 0 : 1);
+		}
+
+		public void filter(TupleBatch batch) {
+			int[] lcol = batch.getIntColumn(lfld);
+			int[] rcol = batch.getIntColumn(rfld);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				int l = lcol[row];
+				int r = rcol[row];
+				if (passes((l < r) ? -1 : (l == r) ? 0 : 1)) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+
+	/**
+	 * Float field against a constant.
+	 */
+	static class FloatConstant extends CompiledPredicate {
+		private final int fldno;
+		private final int offset;
+		private final float value;
+
+		FloatConstant(int accept, Schema schema, int fldno, float value) {
+			super(accept);
+			this.fldno = fldno;
+			this.offset = schema.fieldOffset(fldno);
+			this.value = value;
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			return passes(Float.compare(Convert.getFloatValue(base + offset, data), value));
+		}
+
+		public void filter(TupleBatch batch) {
+			float[] col = batch.getFloatColumn(fldno);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				if (passes(Float.compare(col[row], value))) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+
+	/**
+	 * Float field against another field.
+	 */
+	static class FloatFields extends CompiledPredicate {
+		private final int lfld, rfld;
+		private final int loff, roff;
+
+		FloatFields(int accept, Schema schema, int lfld, int rfld) {
+			super(accept);
+			this.lfld = lfld;
+			this.rfld = rfld;
+			this.loff = schema.fieldOffset(lfld);
+			this.roff = schema.fieldOffset(rfld);
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			return passes(Float.compare(Convert.getFloatValue(base + loff, data), Convert.getFloatValue(base + roff, data)));
+		}
+
+		public void filter(TupleBatch batch) {
+			float[] lcol = batch.getFloatColumn(lfld);
+			float[] rcol = batch.getFloatColumn(rfld);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				if (passes(Float.compare(lcol[row], rcol[row]))) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+
+	/**
+	 * String field against a constant.
+	 */
+	static class StringConstant extends CompiledPredicate {
+		private final int fldno;
+		private final int offset;
+		private final int length;
+		private final String value;
+		private final byte[] bytes;
+		private final boolean ascii;
+
+		StringConstant(int accept, Schema schema, int fldno, String value) {
+			super(accept);
+			this.fldno = fldno;
+			this.offset = schema.fieldOffset(fldno);
+			this.length = schema.fieldLength(fldno);
+			this.value = value;
+			this.bytes = value.getBytes();
+			boolean ascii = true;
+			for (int i = 0; i < value.length(); i++) {
+				ascii &= (value.charAt(i) < 0x80);
+			}
+			this.ascii = ascii;
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			if (ascii) {
+				return passes(compareStrings(data, base + offset, length, bytes, 0, bytes.length, false));
+			}
+			return passes(Convert.getStringValue(base + offset, data, length).compareTo(value));
+		}
+
+		public void filter(TupleBatch batch) {
+			String[] col = batch.getStringColumn(fldno);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				if (passes(col[row].compareTo(value))) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+
+	/**
+	 * String field against another field.
+	 */
+	static class StringFields extends CompiledPredicate {
+		private final int lfld, rfld;
+		private final int loff, roff;
+		private final int llen, rlen;
+
+		StringFields(int accept, Schema schema, int lfld, int rfld) {
+			super(accept);
+			this.lfld = lfld;
+			this.rfld = rfld;
+			this.loff = schema.fieldOffset(lfld);
+			this.roff = schema.fieldOffset(rfld);
+			this.llen = schema.fieldLength(lfld);
+			this.rlen = schema.fieldLength(rfld);
+		}
+
+		public boolean evaluate(byte[] data, int base) {
+			return passes(compareStrings(data, base + loff, llen, data, base + roff, rlen, true));
+		}
+
+		public void filter(TupleBatch batch) {
+			String[] lcol = batch.getStringColumn(lfld);
+			String[] rcol = batch.getStringColumn(rfld);
+			int[] rows = batch.getRows();
+			int size = batch.size();
+			int cnt = 0;
+			for (int i = 0; i < size; i++) {
+				int row = rows[i];
+				if (passes(lcol[row].compareTo(rcol[row]))) rows[cnt++] = row;
+			}
+			batch.setSize(cnt);
+		}
+	}
+}
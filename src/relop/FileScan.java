@@ -1,22 +1,28 @@
 package relop;
 
+import bufmgr.BufferPartition;
+import global.Minibase;
 import global.RID;
 import heap.HeapFile;
-import heap.HeapScan;
+import heap.InPlaceScan;
+import heap.ReadAheadScan;
 
 /**
  * construct file scan for a heap file
  */
 public class FileScan extends Iterator {
 	private HeapFile hf;
-	private HeapScan hs;
+	private InPlaceScan hs;
 	private RID rid;
+	private TupleView view;
 	
 	public FileScan(Schema schema, HeapFile file) {
 		this.setSchema(schema);
 		this.hf = file;
 		this.rid = new RID();
-		this.hs = file.openScan();
+		this.view = new TupleView(schema);
+		this.bindPartition(file.toString());
+		this.hs = openScan();
 	}
 
 	public void explain(int depth) {
@@ -26,7 +32,20 @@ public class FileScan extends Iterator {
 
 	public void restart() {
 		this.close();
-		hs = hf.openScan();
+		hs = openScan();
+	}
+
+	/**
+	 * open a heap scan, reading ahead if configured
+	 */
+	private InPlaceScan openScan() {
+		BufferPartition previous = enterPartition();
+		try {
+			if(Minibase.LookAheadSize > 0) return new ReadAheadScan(hf, Minibase.LookAheadSize);
+			return new InPlaceScan(hf);
+		} finally {
+			exitPartition(previous);
+		}
 	}
 
 	public boolean isOpen() {
@@ -36,21 +55,42 @@ public class FileScan extends Iterator {
 	
 	public void close() {
 		if(this.isOpen()) {
-			this.hs.close();
+			BufferPartition previous = enterPartition();
+			try {
+				this.hs.close();
+			} finally {
+				exitPartition(previous);
+			}
 			this.hs = null;
 		}
 	}
 
 	public boolean hasNext() {
-		if(this.isOpen()) return hs.hasNext();
-		return false;
+		if(!this.isOpen()) return false;
+		BufferPartition previous = enterPartition();
+		try {
+			return hs.hasNext();
+		} finally {
+			exitPartition(previous);
+		}
 	}
 	
+	/**
+	 * Gets the next tuple as a view on the record in its pinned page, which
+	 * is valid until the scan advances; see TupleView.
+	 */
 	public Tuple getNext() {
 		if(this.isOpen()) {
-			byte[] temp = hs.getNext(rid);
-			if(temp != null) {
-				return new Tuple(this.getSchema(), temp);
+			boolean found;
+			BufferPartition previous = enterPartition();
+			try {
+				found = hs.advance(rid);
+			} finally {
+				exitPartition(previous);
+			}
+			if(found) {
+				view.wrap(hs.getRecordData(), hs.getRecordOffset());
+				return view;
 			}
 			throw new IllegalStateException(String.format("File %s has no next tuple", hf.toString()));
 		} else {
@@ -58,6 +98,24 @@ public class FileScan extends Iterator {
 		}
 	}
 	
+	/**
+	 * Decodes records straight from their pages into the columns of the
+	 * batch, with no copy or tuple per record.
+	 */
+	public TupleBatch nextBatch() {
+		if(!this.isOpen()) return null;
+		TupleBatch batch = emptyBatch();
+		BufferPartition previous = enterPartition();
+		try {
+			while(!batch.isFull() && hs.advance(rid)) {
+				batch.addRecord(hs.getRecordData(), hs.getRecordOffset());
+			}
+		} finally {
+			exitPartition(previous);
+		}
+		return (batch.size() > 0) ? batch : null;
+	}
+	
 	/**
 	 * get the last obtained record's RID
 	 * @return lastest RID
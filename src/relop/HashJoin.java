@@ -1,199 +1,456 @@
 package relop;
 
-import global.SearchKey;
-import global.RID;
-import index.HashIndex;
+import global.AttrType;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import heap.ExtentHeapFile;
 import heap.HeapFile;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Set;
-
 /**
- * hash join operation
+ * hybrid hash join on one column of each input. The build input (the smaller
+ * one if both sizes are known, else the inner) is hashed into partitions held
+ * in memory, each a hash table on the join key; when they outgrow the memory
+ * budget, the largest is spilled to a temporary heap file, along with the
+ * build tuples that hash to it later. The probe input is then streamed against
+ * the partitions still in memory, and its tuples that hash to a spilled one
+ * are spilled alike. Last, each pair of spilled partitions is joined by a hash
+ * join of its own, which hashes the keys differently and may spill again.
+ * <p>
+ * Nothing is built until the first tuple is asked for. Build tuples are copied
+ * into per-partition byte arrays, with no object per tuple, and results are
+ * returned as a view that is only valid until the next one.
  */
-public class HashJoin extends Iterator {
+public class HashJoin extends Iterator implements GlobalConst {
+
+	/** Number of partitions, a power of two. */
+	private static final int PARTITIONS = 16;
+
+	/** Bits of the hash left under the partition number. */
+	private static final int PARTITION_SHIFT = 28;
+
+	/** Bytes of memory per build tuple, besides the tuple itself. */
+	private static final int ENTRY_SIZE = 12;
+
+	/** Levels of repartitioning after which partitions are never spilled. */
+	private static final int MAX_LEVEL = 4;
+
 	private Iterator outerIt;
 	private Iterator innerIt;
 	private Integer outerCol;
 	private Integer innerCol;
-	private IndexScan outerScan;
-	private IndexScan innerScan;
-	
-	private HashTableDup htInMem; // current in-memory HashTable with duplicates
-	private int htInMemHashKey; // current hash key
-	private Track track; // used when iterate through the current htInMem
-	
-	private class Track {
-		public HashTableDup htInMem;
-		public IndexScan innerScan;
-		
-		public SearchKey[] sklist;
-		public int skIndex;
-		public KeyScan ks;
-		
-		public Tuple[] tplist;
-		public int tpIndex;
-		
-		private Tuple outerTuple;
-		private Tuple nextTuple;
-		
-		public Track(HashTableDup htInMem, IndexScan innerScan) {
-			this.htInMem = htInMem;
-			this.innerScan = innerScan;
-			
-			// search key level
-			SearchKey[] skl = new SearchKey[htInMem.keySet().size()];
-			this.sklist = htInMem.keySet().toArray(skl);
-			this.skIndex = 0;
-			this.ks = new KeyScan(innerScan.getSchema(), innerScan.getHashIndex(), this.sklist[this.skIndex], innerScan.getHeapFile());
-			
-			// tuple level
-			this.tplist = htInMem.get(this.sklist[this.skIndex]);
-			this.tpIndex = 0;
-			this.outerTuple = this.tplist[this.tpIndex];
-		}
-		
-		public boolean hasNext() {
-			while(true) {
-				if(this.ks.hasNext() && this.outerTuple != null) {
-					this.nextTuple = Tuple.join(this.outerTuple, this.ks.getNext(), HashJoin.this.getSchema());
-					return true;
-				}
-				if(this.tpIndex + 1 < this.tplist.length) {
-					this.tpIndex++;
-					this.outerTuple = this.tplist[this.tpIndex];
-					this.ks.restart();
-					continue;
-				}
-				if(this.skIndex + 1 < this.sklist.length) {
-					this.skIndex++;
-					this.tplist = this.htInMem.get(this.sklist[this.skIndex]);
-					this.tpIndex = 0;
-					this.outerTuple = this.tplist[this.tpIndex];
-					this.ks = new KeyScan(innerScan.getSchema(), innerScan.getHashIndex(), this.sklist[this.skIndex], innerScan.getHeapFile());
-					continue;
-				}
-				break;
+
+	/** Pages of memory the build partitions may take. */
+	private int memPages;
+
+	/** Number of times the inputs were repartitioned; 0 for a top join. */
+	private int level;
+
+	/** True if the outer input is the build input. */
+	private boolean buildOuter;
+
+	/** Build and probe inputs, their key fields, and their record lengths. */
+	private Iterator buildIt;
+	private Iterator probeIt;
+	private int buildKey;
+	private int probeKey;
+	private int buildLen;
+	private int probeLen;
+
+	/** Type of the join key. */
+	private int keyType;
+
+	/** Partitions of the build input; null until built. */
+	private Partition[] parts;
+
+	/** True while the probe input is being streamed. */
+	private boolean probing;
+
+	/** The probe tuple being matched, its hash, and its partition. */
+	private Tuple probeTuple;
+	private int probeHash;
+	private Partition probePart;
+
+	/** Next build tuple to try in probePart's chain, and the one matched. */
+	private int candidate;
+	private int matched;
+
+	/** Partition whose spilled tuples are being joined, and their join. */
+	private int spillIndex;
+	private HashJoin spillJoin;
+
+	/** True if hasNext found a result that getNext has not returned yet. */
+	private boolean ready;
+
+	/** Result, and the record buffers for spilling. */
+	private byte[] result;
+	private TupleView view;
+	private byte[] buildRecord;
+	private byte[] probeRecord;
+
+	/**
+	 * A partition of the build input: its tuples, in memory and chained by
+	 * hash, or spilled to a temporary heap file along with those of the probe
+	 * input.
+	 */
+	private static class Partition {
+		byte[] tuples = new byte[0];
+		int[] hashes = new int[0];
+		int count;
+		int[] heads;
+		int[] next;
+		HeapFile buildFile;
+		HeapFile probeFile;
+
+		/** Adds a build tuple, given its hash. */
+		void add(byte[] data, int offset, int length, int hash) {
+			if (count == hashes.length) {
+				int capacity = Math.max(16, count * 2);
+				byte[] tuples = new byte[capacity * length];
+				System.arraycopy(this.tuples, 0, tuples, 0, count * length);
+				int[] hashes = new int[capacity];
+				System.arraycopy(this.hashes, 0, hashes, 0, count);
+				this.tuples = tuples;
+				this.hashes = hashes;
 			}
-			return false;
+			System.arraycopy(data, offset, tuples, count * length, length);
+			hashes[count++] = hash;
 		}
-		
-		public Tuple getNext() {
-			return nextTuple;
+
+		/** Chains the tuples in memory by hash, once all are added. */
+		void index() {
+			int size = Integer.highestOneBit(Math.max(1, count) * 2 - 1);
+			heads = new int[size];
+			next = new int[count];
+			for (int i = 0; i < size; i++) {
+				heads[i] = -1;
+			}
+			for (int i = count - 1; i >= 0; i--) {
+				int bucket = hashes[i] & (size - 1);
+				next[i] = heads[bucket];
+				heads[bucket] = i;
+			}
+		}
+
+		/** Writes the tuples in memory to a new build file, and drops them. */
+		void spill(int length, byte[] record) {
+			buildFile = new ExtentHeapFile(null);
+			for (int i = 0; i < count; i++) {
+				System.arraycopy(tuples, i * length, record, 0, length);
+				buildFile.insertRecord(record);
+			}
+			tuples = new byte[0];
+			hashes = new int[0];
+			count = 0;
+		}
+
+		/** Deletes the spill files, if any. */
+		void drop() {
+			if (buildFile != null) {
+				buildFile.deleteFile();
+				buildFile = null;
+			}
+			if (probeFile != null) {
+				probeFile.deleteFile();
+				probeFile = null;
+			}
 		}
 	}
-	
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Joins the inputs on the given columns, with the memory budget set by
+	 * Minibase.JoinMemory.
+	 */
 	public HashJoin(Iterator outer, Iterator inner, Integer outerCol, Integer innerCol) {
+		this(outer, inner, outerCol, innerCol, Minibase.JoinMemory);
+	}
+
+	/**
+	 * Joins the inputs on the given columns, spilling once the build input
+	 * takes more than the given pages of memory (0 for a quarter of the
+	 * buffer pool).
+	 */
+	public HashJoin(Iterator outer, Iterator inner, Integer outerCol, Integer innerCol, int memPages) {
+		this(outer, inner, outerCol, innerCol, memPages, 0, smaller(outer, inner));
+	}
+
+	/**
+	 * Joins the inputs, at the given level of repartitioning, building on the
+	 * given side.
+	 */
+	private HashJoin(Iterator outer, Iterator inner, Integer outerCol, Integer innerCol, int memPages,
+			int level, boolean buildOuter) {
 		this.setSchema(Schema.join(outer.getSchema(), inner.getSchema()));
 		this.outerIt = outer;
 		this.innerIt = inner;
 		this.outerCol = outerCol;
 		this.innerCol = innerCol;
-		// build stage
-		this.outerScan = build(outerIt, outerCol);
-		this.innerScan = build(innerIt, innerCol);
+		this.memPages = (memPages > 0) ? memPages : Math.max(1, Minibase.BufferManager.getNumBuffers() / 4);
+		this.level = level;
+		this.buildOuter = buildOuter;
+		this.buildIt = buildOuter ? outer : inner;
+		this.probeIt = buildOuter ? inner : outer;
+		this.buildKey = buildOuter ? outerCol : innerCol;
+		this.probeKey = buildOuter ? innerCol : outerCol;
+		this.buildLen = buildIt.getSchema().getLength();
+		this.probeLen = probeIt.getSchema().getLength();
+		this.keyType = buildIt.getSchema().fieldType(buildKey);
+		if (keyType != probeIt.getSchema().fieldType(probeKey)) {
+			throw new IllegalArgumentException("join columns differ in type");
+		}
+		this.result = new byte[getSchema().getLength()];
+		this.view = new TupleView(getSchema());
+		this.view.wrap(result, 0);
+		this.buildRecord = new byte[buildLen];
+		this.probeRecord = new byte[probeLen];
+	}
+
+	/**
+	 * Returns true if the outer input is known to be smaller than the inner.
+	 */
+	private static boolean smaller(Iterator outer, Iterator inner) {
+		long outerSize = size(outer);
+		long innerSize = size(inner);
+		return outerSize >= 0 && innerSize >= 0 && outerSize < innerSize;
 	}
-	
+
+	/**
+	 * Gets the size of an input in bytes, if known without reading it.
+	 * @return the size, or -1 if unknown
+	 */
+	private static long size(Iterator it) {
+		if (it instanceof FileScan) return (long) ((FileScan) it).getFile().getRecCnt() * it.getSchema().getLength();
+		return -1;
+	}
+
 	public void explain(int depth) {
 		indent(depth);
 		System.out.println(String.format("Hash Join for %s and %s", this.outerIt.toString(), this.innerIt.toString()));
 	}
 
 	public void restart() {
-		outerScan.restart();
-		innerScan.restart();
+		release();
 		outerIt.restart();
 		innerIt.restart();
-		this.htInMem = null;
-		this.track = null;
 	}
 
 	public boolean isOpen() {
-		return outerIt.isOpen() && innerIt.isOpen() && outerScan.isOpen() && innerScan.isOpen();
+		return outerIt.isOpen() && innerIt.isOpen();
 	}
 
 	public void close() {
+		release();
 		outerIt.close();
 		innerIt.close();
-		outerScan.close();
-		innerScan.close();
+	}
+
+	/**
+	 * Drops the partitions and any join of spilled ones, deleting their files.
+	 */
+	private void release() {
+		if (spillJoin != null) {
+			spillJoin.close();
+			spillJoin = null;
+		}
+		if (parts != null) {
+			for (Partition p : parts) {
+				p.drop();
+			}
+			parts = null;
+		}
+		probing = false;
+		probePart = null;
+		probeTuple = null;
+		ready = false;
 	}
 
 	public boolean hasNext() {
-		if(this.isOpen()) {
-			while(true) {
-				while(this.htInMem != null && this.track != null && this.track.hasNext()) {
-					return true;
+		if (ready) return true;
+		if (!this.isOpen()) return false;
+		if (parts == null) build();
+		while (true) {
+
+			// the rest of the chain of the probe tuple's hash
+			if (probePart != null) {
+				while (candidate >= 0) {
+					int c = candidate;
+					candidate = probePart.next[c];
+					if (probePart.hashes[c] == probeHash && keysEqual(probePart.tuples, c * buildLen
+							+ buildIt.getSchema().fieldOffset(buildKey), probeTuple)) {
+						matched = c;
+						return ready = true;
+					}
 				}
-				if(!outerScan.hasNext()) break;
-				this.htInMemHashKey = buildHashTab();
-				this.track = new Track(this.htInMem, this.innerScan);
+				probePart = null;
 			}
-		}		
-		return false;
+
+			// the next probe tuple
+			if (probing) {
+				if (!probeIt.hasNext()) {
+					probing = false;
+					continue;
+				}
+				Tuple t = probeIt.getNext();
+				int hash = hash(t.data, t.offset + probeIt.getSchema().fieldOffset(probeKey),
+						probeIt.getSchema().fieldLength(probeKey));
+				Partition p = parts[hash >>> PARTITION_SHIFT];
+				if (p.buildFile != null) {
+					if (p.probeFile == null) p.probeFile = new ExtentHeapFile(null);
+					System.arraycopy(t.data, t.offset, probeRecord, 0, probeLen);
+					p.probeFile.insertRecord(probeRecord);
+				} else if (p.count > 0) {
+					probeTuple = t;
+					probeHash = hash;
+					probePart = p;
+					candidate = p.heads[hash & (p.heads.length - 1)];
+				}
+				continue;
+			}
+
+			// the joins of spilled partitions
+			if (spillJoin != null) {
+				if (spillJoin.hasNext()) return ready = true;
+				spillJoin.close();
+				spillJoin = null;
+				parts[spillIndex++].drop();
+			}
+			while (spillIndex < PARTITIONS && (parts[spillIndex].buildFile == null || parts[spillIndex].probeFile == null)) {
+				parts[spillIndex++].drop();
+			}
+			if (spillIndex == PARTITIONS) return false;
+			Partition p = parts[spillIndex];
+			FileScan build = new FileScan(buildIt.getSchema(), p.buildFile);
+			FileScan probe = new FileScan(probeIt.getSchema(), p.probeFile);
+			spillJoin = buildOuter
+					? new HashJoin(build, probe, outerCol, innerCol, memPages, level + 1, true)
+					: new HashJoin(probe, build, outerCol, innerCol, memPages, level + 1, false);
+		}
 	}
 
 	public Tuple getNext() {
-		if(this.isOpen()) {
-			return this.track.getNext();
+		if (!this.isOpen()) {
+			throw new IllegalStateException(String.format("Iterator %s is not open", this.toString()));
 		}
-		throw new IllegalStateException(String.format("Iterator %s is not open", this.toString()));
+		if (!hasNext()) {
+			throw new IllegalStateException(String.format("Iterator %s has no next tuple", this.toString()));
+		}
+		ready = false;
+		if (spillJoin != null) return spillJoin.getNext();
+
+		// the result is the outer tuple followed by the inner one
+		int outerLen = buildOuter ? buildLen : probeLen;
+		if (buildOuter) {
+			System.arraycopy(probePart.tuples, matched * buildLen, result, 0, buildLen);
+			System.arraycopy(probeTuple.data, probeTuple.offset, result, outerLen, probeLen);
+		} else {
+			System.arraycopy(probeTuple.data, probeTuple.offset, result, 0, probeLen);
+			System.arraycopy(probePart.tuples, matched * buildLen, result, outerLen, buildLen);
+		}
+		return view;
 	}
-	
+
 	/**
 	 * build stage
-	 * build hash index for child iterator
-	 * @param it child iterator
-	 * @param col field to be indexed
-	 * @return index scan wrapper
+	 * hash the build input into partitions, spilling the largest ones while
+	 * they take more memory than the budget, then index those left in memory
 	 */
-	private IndexScan build(Iterator it, int col) {
-		if(it instanceof IndexScan) {
-			// have HashIndex
-			return (IndexScan)it;
-		} else if(it instanceof KeyScan) {
-			// have HashIndex
-			return new IndexScan(it.getSchema(), ((KeyScan) it).getHashIndx(), ((KeyScan) it).getFile());
-		} else if(it instanceof FileScan) {
-			// have File, have no HashIndex
-			FileScan temp = (FileScan)it;
-			HashIndex hi = new HashIndex(it.toString());
-			while(temp.hasNext()) {
-				Tuple tmp = temp.getNext();
-				Object colum = tmp.getField(col);
-				hi.insertEntry(new SearchKey(colum), temp.getLastRID());
+	private void build() {
+		parts = new Partition[PARTITIONS];
+		for (int i = 0; i < PARTITIONS; i++) {
+			parts[i] = new Partition();
+		}
+		Schema schema = buildIt.getSchema();
+		int keyOffset = schema.fieldOffset(buildKey);
+		int keyLength = schema.fieldLength(buildKey);
+		long budget = (long) memPages * PAGE_SIZE;
+		long used = 0;
+		while (buildIt.hasNext()) {
+			Tuple t = buildIt.getNext();
+			int hash = hash(t.data, t.offset + keyOffset, keyLength);
+			Partition p = parts[hash >>> PARTITION_SHIFT];
+			if (p.buildFile != null) {
+				System.arraycopy(t.data, t.offset, buildRecord, 0, buildLen);
+				p.buildFile.insertRecord(buildRecord);
+				continue;
 			}
-			return new IndexScan(temp.getSchema(), hi, temp.getFile());
-		} else {
-			// have no File nor HashIndex
-			HeapFile hf = new HeapFile(null);
-			HashIndex hi = new HashIndex(it.toString());
-			while(it.hasNext()) {
-				Tuple tmp = it.getNext();
-				Object colum = tmp.getField(col);
-				RID rid = hf.insertRecord(tmp.getData());
-				hi.insertEntry(new SearchKey(colum), rid);
+			p.add(t.data, t.offset, buildLen, hash);
+			used += buildLen + ENTRY_SIZE;
+			while (used > budget && level < MAX_LEVEL) {
+				Partition largest = null;
+				for (Partition q : parts) {
+					if (q.buildFile == null && (largest == null || q.count > largest.count)) largest = q;
+				}
+				if (largest == null || largest.count == 0) break;
+				used -= (long) largest.count * (buildLen + ENTRY_SIZE);
+				largest.spill(buildLen, buildRecord);
 			}
-			return new IndexScan(it.getSchema(), hi, hf);
 		}
+		for (Partition p : parts) {
+			if (p.buildFile == null) p.index();
+		}
+		probing = true;
+		spillIndex = 0;
 	}
-	
+
+	// --------------------------------------------------------------------------
+
 	/**
-	 * build a in-memory hash table for prob stage
-	 * @return the hash key of current bucket
+	 * Hashes a join key in place; equal keys hash alike, and each level of
+	 * repartitioning hashes differently.
 	 */
-	private int buildHashTab() {
-		this.htInMem = new HashTableDup();
-		if(outerScan.hasNext()) {
-			int lastHashKey = outerScan.getNextHash();
-			while(outerScan.hasNext() && outerScan.getNextHash() == lastHashKey) {
-				Tuple t = outerScan.getNext();
-				Object colum = t.getField(outerCol);
-				htInMem.add(new SearchKey(colum), t);
-			}
-			return lastHashKey;
+	private int hash(byte[] data, int offset, int length) {
+		int h;
+		switch (keyType) {
+
+			case AttrType.INTEGER:
+				h = Convert.getIntValue(offset, data);
+				break;
+
+			case AttrType.FLOAT:
+				float f = Convert.getFloatValue(offset, data);
+				h = (f == 0) ? 0 : Float.floatToIntBits(f);
+				break;
+
+			case AttrType.STRING:
+				int end = Math.min(offset + length, data.length);
+				while (offset < end && (data[offset] & 0xff) <= ' ') offset++;
+				while (end > offset && (data[end - 1] & 0xff) <= ' ') end--;
+				h = 0x811c9dc5;
+				for (int i = offset; i < end; i++) {
+					h = (h ^ (data[i] & 0xff)) * 0x01000193;
+				}
+				break;
+
+			default:
+				throw new IllegalStateException("invalid attribute type");
+		}
+		h ^= level * 0x9e3779b9;
+		h = (h ^ (h >>> 16)) * 0x85ebca6b;
+		h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns true if a build key, in place, equals the probe tuple's key.
+	 */
+	private boolean keysEqual(byte[] data, int offset, Tuple probe) {
+		int probeOffset = probe.offset + probeIt.getSchema().fieldOffset(probeKey);
+		switch (keyType) {
+
+			case AttrType.INTEGER:
+				return Convert.getIntValue(offset, data) == Convert.getIntValue(probeOffset, probe.data);
+
+			case AttrType.FLOAT:
+				return Convert.getFloatValue(offset, data) == Convert.getFloatValue(probeOffset, probe.data);
+
+			case AttrType.STRING:
+				return CompiledPredicate.compareStrings(data, offset, buildIt.getSchema().fieldLength(buildKey),
+						probe.data, probeOffset, probeIt.getSchema().fieldLength(probeKey), true) == 0;
+
+			default:
+				throw new IllegalStateException("invalid attribute type");
 		}
-		throw new IllegalStateException(String.format("Iterator %s has no next tuple", this.toString())); 
 	}
 }
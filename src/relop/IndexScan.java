@@ -1,9 +1,13 @@
 package relop;
 
+import bufmgr.BufferPartition;
+import global.Minibase;
 import global.SearchKey;
 import heap.HeapFile;
+import heap.PinnedRecord;
 import index.HashIndex;
 import index.BucketScan;
+import index.ReadAheadBucketScan;
 
 /**
  * wrapper for bucket scan, an index access method.
@@ -12,12 +16,17 @@ public class IndexScan extends Iterator {
 	private HashIndex hi;
 	private HeapFile hf;
 	private BucketScan bs;
+	private PinnedRecord record;
+	private TupleView view;
 
 	public IndexScan(Schema schema, HashIndex index, HeapFile file) {
 		this.setSchema(schema);
 		hf = file;
 		hi = index;
-		bs = index.openScan();
+		record = new PinnedRecord();
+		view = new TupleView(schema);
+		bindPartition(index.toString(), file.toString());
+		bs = openScan();
 	}
 
 	
@@ -28,7 +37,20 @@ public class IndexScan extends Iterator {
 	
 	public void restart() {
 		this.close();
-		bs = hi.openScan();
+		bs = openScan();
+	}
+
+	/**
+	 * open a bucket scan, reading ahead if configured
+	 */
+	private BucketScan openScan() {
+		BufferPartition previous = enterPartition();
+		try {
+			if(Minibase.LookAheadSize > 0) return new ReadAheadBucketScan(hi, Minibase.LookAheadSize);
+			return hi.openScan();
+		} finally {
+			exitPartition(previous);
+		}
 	}
 
 	public boolean isOpen() {
@@ -38,25 +60,39 @@ public class IndexScan extends Iterator {
 
 	public void close() {
 		if(this.isOpen()) {
-			bs.close();
+			BufferPartition previous = enterPartition();
+			try {
+				record.release();
+				bs.close();
+			} finally {
+				exitPartition(previous);
+			}
 			bs = null;
 		}
 	}
 
 	
 	public boolean hasNext() {
-		if(this.isOpen()) return bs.hasNext();
-		return false;
+		if(!this.isOpen()) return false;
+		BufferPartition previous = enterPartition();
+		try {
+			return bs.hasNext();
+		} finally {
+			exitPartition(previous);
+		}
 	}
 
 	
   	public Tuple getNext() {
   		if(this.isOpen()) {
-			byte[] temp = hf.selectRecord(bs.getNext());
-			if(temp != null) {
-				return new Tuple(this.getSchema(), temp);
+			BufferPartition previous = enterPartition();
+			try {
+				record.select(bs.getNext());
+			} finally {
+				exitPartition(previous);
 			}
-			throw new IllegalStateException(String.format("File %s has no next tuple", hf.toString()));
+			view.wrap(record.getData(), record.getOffset());
+			return view;
 		} else {
 			throw new IllegalStateException(String.format("File %s is not open", hf.toString()));
 		}
@@ -1,5 +1,8 @@
 package relop;
 
+import bufmgr.BufferPartition;
+import global.Minibase;
+
 /**
  * Query execution is driven by a tree of relational operators, all of which are
  * implemented as iterators. Results are requested by successive "get next
@@ -12,6 +15,15 @@ public abstract class Iterator {
 	/** Schema for resulting tuples; must be set in all subclass constructors. */
 	private Schema schema;
 
+	/** Buffer pool partition the iterator reads pages into; null for the session's. */
+	private BufferPartition partition;
+
+	/** Owner of the session's pins before enterPartition, for leak reports. */
+	private Object previousOwner;
+
+	/** Batch handed out by nextBatch, reused on every call. */
+	private TupleBatch batch;
+
 	/**
 	 * Gives a one-line explaination of the iterator, repeats the call on any
 	 * child iterators, and increases the indent depth along the way.
@@ -53,16 +65,46 @@ public abstract class Iterator {
 	 */
 	public abstract Tuple getNext();
 
+	/**
+	 * Gets the next block of tuples, up to TupleBatch.CAPACITY of them. The
+	 * same batch is returned by every call, so it is only valid until the next
+	 * one; callers should not mix this with hasNext and getNext. By default
+	 * the batch is filled one getNext at a time; operators that can work on
+	 * whole columns override it.
+	 * @return the batch, or null if no more tuples
+	 */
+	public TupleBatch nextBatch() {
+		TupleBatch batch = emptyBatch();
+		while (!batch.isFull() && hasNext()) {
+			batch.addTuple(getNext());
+		}
+		return (batch.size() > 0) ? batch : null;
+	}
+
+	/**
+	 * Gets the iterator's batch, emptied, creating it on first use.
+	 */
+	protected TupleBatch emptyBatch() {
+		if (batch == null) {
+			batch = new TupleBatch(schema);
+		}
+		batch.clear();
+		return batch;
+	}
+
 	/**
 	 * Prints the schema, gets and prints all tuples, and closes the iterator.
+	 * Tuples are fetched a batch at a time.
 	 * @return number of tuples processed
 	 */
 	public int execute() {
 		int cnt = 0;
 		getSchema().print();
-		while (hasNext()) {
-			getNext().print();
-			cnt++;
+		for (TupleBatch batch = nextBatch(); batch != null; batch = nextBatch()) {
+			for (int i = 0; i < batch.size(); i++) {
+				batch.getTuple(i).print();
+			}
+			cnt += batch.size();
 		}
 		close();
 		return cnt;
@@ -86,6 +128,43 @@ public abstract class Iterator {
 		this.schema = schema;
 	}
 
+	/**
+	 * Makes the iterator read its pages into the partition that the first of
+	 * the given files bound to a partition is bound to, if any.
+	 */
+	protected void bindPartition(String... fileNames) {
+		for (String fileName : fileNames) {
+			partition = Minibase.BufferManager.getFilePartition(fileName);
+			if (partition != null) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Enters the iterator's partition, if it has one, before reading pages,
+	 * and makes the iterator the owner of the pins taken meanwhile, in case
+	 * they leak.
+	 * @return the partition to restore with exitPartition
+	 */
+	protected BufferPartition enterPartition() {
+		previousOwner = Minibase.BufferManager.getLeakDetector().enterOwner(this);
+		if (partition == null) {
+			return null;
+		}
+		return Minibase.BufferManager.enterPartition(partition);
+	}
+
+	/**
+	 * Restores the partition and pin owner of before enterPartition.
+	 */
+	protected void exitPartition(BufferPartition previous) {
+		Minibase.BufferManager.getLeakDetector().exitOwner(previousOwner);
+		if (partition != null) {
+			Minibase.BufferManager.enterPartition(previous);
+		}
+	}
+
 	/**
 	 * get iterator schema
 	 * @return
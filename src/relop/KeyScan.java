@@ -1,7 +1,9 @@
 package relop;
 
+import bufmgr.BufferPartition;
 import global.SearchKey;
 import heap.HeapFile;
+import heap.PinnedRecord;
 import index.HashIndex;
 import index.HashScan;;
 
@@ -14,13 +16,18 @@ public class KeyScan extends Iterator {
 	private SearchKey sk;
 	private HashIndex hi;
 	private HashScan hs;
+	private PinnedRecord record;
+	private TupleView view;
 	
 	public KeyScan(Schema schema, HashIndex index, SearchKey key, HeapFile file) {
 		this.setSchema(schema);
 		this.hf = file;
 		this.hi = index;
 		this.sk = key;
-		this.hs = hi.openScan(key);	
+		this.record = new PinnedRecord();
+		this.view = new TupleView(schema);
+		this.bindPartition(index.toString(), file.toString());
+		this.hs = openScan();
 	}
 
 	public void explain(int depth) {
@@ -30,7 +37,19 @@ public class KeyScan extends Iterator {
 
 	public void restart() {
 		this.close();
-		hs = hi.openScan(sk);
+		hs = openScan();
+	}
+
+	/**
+	 * open a hash scan for the search key
+	 */
+	private HashScan openScan() {
+		BufferPartition previous = enterPartition();
+		try {
+			return hi.openScan(sk);
+		} finally {
+			exitPartition(previous);
+		}
 	}
 
 	public boolean isOpen() {
@@ -40,23 +59,37 @@ public class KeyScan extends Iterator {
 
 	public void close() {
 		if(this.isOpen()) {
-			hs.close();
+			BufferPartition previous = enterPartition();
+			try {
+				record.release();
+				hs.close();
+			} finally {
+				exitPartition(previous);
+			}
 			hs = null;
 		}
 	}
 	
 	public boolean hasNext() {
-		if(this.isOpen()) return hs.hasNext();
-		return false;
+		if(!this.isOpen()) return false;
+		BufferPartition previous = enterPartition();
+		try {
+			return hs.hasNext();
+		} finally {
+			exitPartition(previous);
+		}
 	}
 
 	public Tuple getNext() {
 		if(this.isOpen()) {
-			byte[] temp = hf.selectRecord(hs.getNext());
-			if(temp != null) {
-				return new Tuple(this.getSchema(), temp);
+			BufferPartition previous = enterPartition();
+			try {
+				record.select(hs.getNext());
+			} finally {
+				exitPartition(previous);
 			}
-			throw new IllegalStateException(String.format("File %s has no next tuple", hf.toString()));
+			view.wrap(record.getData(), record.getOffset());
+			return view;
 		} else {
 			throw new IllegalStateException(String.format("File %s is not open", hf.toString()));
 		}
@@ -6,7 +6,7 @@ package relop;
 public class NestedLoopJoin extends Iterator {
 	private Iterator outerIt;
 	private Iterator innerIt;
-	private Predicate[] preds;
+	private CompiledPredicate[] preds;
 	private Tuple leftTuple;
 	private Tuple nextTuple;
 	
@@ -14,7 +14,7 @@ public class NestedLoopJoin extends Iterator {
 		this.setSchema(Schema.join(outer.getSchema(), innner.getSchema()));
 		this.outerIt = outer;
 		this.innerIt = innner;
-		this.preds = preds;
+		this.preds = CompiledPredicate.compile(this.getSchema(), preds);
 	}
 
 	public void explain(int depth) {
@@ -41,7 +41,7 @@ public class NestedLoopJoin extends Iterator {
 			while(leftTuple != null && innerIt.hasNext()) {
 				Tuple rt = innerIt.getNext();
 				Tuple nt = Tuple.join(leftTuple, rt, this.getSchema());
-				if(Predicate.evaluate(nt, this.preds)) {
+				if(CompiledPredicate.evaluate(nt, this.preds)) {
 					this.nextTuple = nt;
 					return true;
 				}
@@ -78,29 +78,33 @@ public class Predicate {
 	}
 	/**
 	 * Evaluates the predicate on the given tuple and returns true if it passes.
+	 * Compile the predicate instead to evaluate it on many tuples.
 	 * 
 	 * @throws IllegalStateException if member data lead to an invalid operation
 	 */
 	public boolean evaluate(Tuple tuple) {
 
-		// if necessary, resolve column names to field numbers
+		// if necessary, resolve column names to field numbers (leaving the
+		// predicate as is, so it can be shared)
+		int ltype = this.ltype;
+		Object lval = left;
 		if (ltype == AttrType.COLNAME) {
-			left = tuple.schema.fieldNumber((String) left);
+			lval = tuple.schema.fieldNumber((String) lval);
 			ltype = AttrType.FIELDNO;
 		}
+		int rtype = this.rtype;
+		Object rval = right;
 		if (rtype == AttrType.COLNAME) {
-			right = tuple.schema.fieldNumber((String) right);
+			rval = tuple.schema.fieldNumber((String) rval);
 			rtype = AttrType.FIELDNO;
 		}
 
 		// get the values to compare
 		int type = ltype;
-		Object lval = left;
 		if (ltype == AttrType.FIELDNO) {
 			type = tuple.schema.fieldType((Integer) lval);
 			lval = tuple.getField((Integer) lval);
 		}
-		Object rval = right;
 		if (rtype == AttrType.FIELDNO) {
 			rval = tuple.getField((Integer) rval);
 		}
@@ -153,6 +157,16 @@ public class Predicate {
 		}
 	}
 
+	/**
+	 * Compiles the predicate for tuples of the given schema, into an evaluator
+	 * that allocates nothing per tuple.
+	 * 
+	 * @throws IllegalStateException if the predicate does not fit the schema
+	 */
+	public CompiledPredicate compile(Schema schema) {
+		return CompiledPredicate.compile(this, schema);
+	}
+
   	/**
   	 * evaluate a tuple by multi predicates joined by and logic
   	 * @param tuple tuple to be tested
@@ -6,6 +6,7 @@ package relop;
 public class Projection extends Iterator {
 	private Iterator childIt;
 	private Integer[] fields;
+	private TupleBatch view;
 	
 	public Projection(Iterator iter, Integer... fields) {
 		this.setSchema(new Schema(iter.getSchema(), fields));
@@ -44,4 +45,16 @@ public class Projection extends Iterator {
 		}
 		throw new IllegalStateException(String.format("Iterator %s not open", this.toString()));
 	}
+
+	/**
+	 * Shows the projected columns of the child's batches, without copying.
+	 */
+	public TupleBatch nextBatch() {
+		if(!this.isOpen()) return null;
+		TupleBatch batch = this.childIt.nextBatch();
+		if(batch == null) return null;
+		if(this.view == null) this.view = TupleBatch.view(this.getSchema());
+		this.view.project(batch, this.fields);
+		return this.view;
+	}
 }
@@ -5,13 +5,13 @@ package relop;
  */
 public class Selection extends Iterator {
 	private Iterator childIt;
-	private Predicate[] preds;
+	private CompiledPredicate[] preds;
 	private Tuple nextTuple;
 	
 	public Selection(Iterator iter, Predicate... preds) {
 		this.setSchema(iter.getSchema());
 		this.childIt = iter;
-		this.preds = preds;		
+		this.preds = CompiledPredicate.compile(iter.getSchema(), preds);
 		this.nextTuple = null;
 	}
 
@@ -40,7 +40,7 @@ public class Selection extends Iterator {
   		if(isOpen()) {
   			while(childIt.hasNext()) {
   				Tuple temp = childIt.getNext();
-  				if(Predicate.evaluate(temp, this.preds)) {
+  				if(CompiledPredicate.evaluate(temp, this.preds)) {
   					nextTuple = temp;
   					return true;
   				}
@@ -59,4 +59,17 @@ public class Selection extends Iterator {
 		}
   		throw new IllegalStateException(String.format("Iterator %s not open", this.toString()));
   	}
-}
\ No newline at end of file
+
+  	/**
+  	 * Filters the child's batches in place, a column at a time, skipping
+  	 * those with no row left.
+  	 */
+  	public TupleBatch nextBatch() {
+  		if(!this.isOpen()) return null;
+  		for(TupleBatch batch = childIt.nextBatch(); batch != null; batch = childIt.nextBatch()) {
+  			CompiledPredicate.filter(batch, this.preds);
+  			if(batch.size() > 0) return batch;
+  		}
+  		return null;
+  	}
+}
@@ -0,0 +1,472 @@
+package relop;
+
+import java.util.ArrayList;
+
+import global.AttrType;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.SortKey;
+import heap.ExtentHeapFile;
+import heap.HeapFile;
+
+/**
+ * external merge sort on one or more keys, each ascending or descending.
+ * Sorted runs are formed by replacement selection: input tuples are kept in a
+ * heap as large as the memory budget allows, the least is written to the
+ * current run and replaced by the next input tuple, which joins the next run
+ * if it sorts before the one written. Runs are thus about twice the memory on
+ * average, and an input that is already sorted makes a single run. The runs
+ * are then merged through a loser tree, as many at once as the budget has
+ * pages for (and the buffer pool has pages to pin), in as many passes as it
+ * takes; the last pass streams the output.
+ * An input that fits in memory is never written out.
+ * <p>
+ * Keys are compared on the records in place, with no object per tuple. Equal
+ * keys keep no particular order. Nothing is sorted until the first tuple is
+ * asked for, and tuples are returned as views that are only valid until the
+ * next one.
+ */
+public class Sort extends Iterator implements GlobalConst {
+
+	/** Bytes of memory per tuple in the heap, besides the tuple itself. */
+	private static final int ENTRY_SIZE = 8;
+
+	private Iterator input;
+
+	/** Key fields, most significant first, and whether each is descending. */
+	private int[] keys;
+	private boolean[] descs;
+
+	/** Offsets, lengths and types of the key fields. */
+	private int[] keyOffsets;
+	private int[] keyLengths;
+	private int[] keyTypes;
+
+	/** Pages of memory the sort may take. */
+	private int memPages;
+
+	/** Record length. */
+	private int length;
+
+	/** True once the input was consumed into the heap or runs. */
+	private boolean sorted;
+
+	/** Tuples in memory, the heap of their slots, and the run of each slot. */
+	private byte[] records;
+	private int[] heap;
+	private int[] runs;
+	private int heapSize;
+
+	/** Sorted runs written out, not yet merged. */
+	private ArrayList<HeapFile> runFiles;
+
+	/** Merge of the last pass, if the input did not fit in memory. */
+	private Merge merge;
+
+	/** True if hasNext found a tuple that getNext has not returned yet. */
+	private boolean ready;
+
+	/** True if the tuple returned last is still to be popped off the heap. */
+	private boolean popLast;
+
+	/** Output view, and the record buffer for writing runs. */
+	private TupleView view;
+	private byte[] record;
+
+	/** Input batch being read, the next of its live rows, and that row. */
+	private TupleBatch inBatch;
+	private int inRow;
+	private byte[] incoming;
+
+	/**
+	 * A k-way merge of sorted runs through a loser tree: each inner node holds
+	 * the run that lost the match played there, and node 0 the overall winner,
+	 * so replacing the winner's tuple takes one match per level.
+	 */
+	private class Merge {
+		FileScan[] scans;
+		Tuple[] heads;
+		int[] tree;
+
+		/** True if the winner's run must advance before the next match. */
+		boolean advance;
+
+		Merge(Schema schema, HeapFile[] files) {
+			int k = files.length;
+			scans = new FileScan[k];
+			heads = new Tuple[k];
+			tree = new int[k];
+			for (int i = 0; i < k; i++) {
+				scans[i] = new FileScan(schema, files[i]);
+				heads[i] = scans[i].hasNext() ? scans[i].getNext() : null;
+				tree[i] = -1;
+			}
+			for (int i = k - 1; i >= 0; i--) {
+				replay(i);
+			}
+		}
+
+		/** Returns true if the merged runs have more tuples. */
+		boolean hasNext() {
+			if (advance) {
+				int w = tree[0];
+				heads[w] = scans[w].hasNext() ? scans[w].getNext() : null;
+				replay(w);
+				advance = false;
+			}
+			return heads[tree[0]] != null;
+		}
+
+		/** Gets the least tuple left, valid until the next call. */
+		Tuple next() {
+			advance = true;
+			return heads[tree[0]];
+		}
+
+		/** Plays the run's head up from its leaf to the root. */
+		void replay(int run) {
+			for (int node = (run + tree.length) / 2; node > 0; node /= 2) {
+				if (beats(tree[node], run)) {
+					int winner = tree[node];
+					tree[node] = run;
+					run = winner;
+				}
+			}
+			tree[0] = run;
+		}
+
+		/** Returns true if run a's head sorts before run b's; -1 before all. */
+		boolean beats(int a, int b) {
+			if (a < 0) return true;
+			if (b < 0) return false;
+			if (heads[a] == null) return false;
+			if (heads[b] == null) return true;
+			return compare(heads[a].data, heads[a].offset, heads[b].data, heads[b].offset) < 0;
+		}
+
+		void close() {
+			for (FileScan scan : scans) {
+				scan.close();
+			}
+		}
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Sorts the input on the given keys, with the memory budget set by
+	 * Minibase.SortMemory.
+	 */
+	public Sort(Iterator input, SortKey... orders) {
+		this(input, Minibase.SortMemory, orders);
+	}
+
+	/**
+	 * Sorts the input on the given keys, forming runs in and merging as many
+	 * as the given pages of memory (0 for a quarter of the buffer pool).
+	 *
+	 * @param orders keys by column name or field number, most significant first
+	 * @throws IllegalArgumentException if a key names no field of the input
+	 */
+	public Sort(Iterator input, int memPages, SortKey... orders) {
+		Schema schema = input.getSchema();
+		this.setSchema(schema);
+		this.input = input;
+		this.memPages = (memPages > 0) ? memPages : Math.max(1, Minibase.BufferManager.getNumBuffers() / 4);
+		this.length = schema.getLength();
+		this.keys = new int[orders.length];
+		this.descs = new boolean[orders.length];
+		this.keyOffsets = new int[orders.length];
+		this.keyLengths = new int[orders.length];
+		this.keyTypes = new int[orders.length];
+		for (int i = 0; i < orders.length; i++) {
+			int fldno = (orders[i].field instanceof Integer) ? (Integer) orders[i].field
+					: schema.fieldNumber(orders[i].field.toString());
+			if (fldno < 0 || fldno >= schema.getCount()) {
+				throw new IllegalArgumentException("no sort field " + orders[i].field);
+			}
+			keys[i] = fldno;
+			descs[i] = orders[i].isDesc;
+			keyOffsets[i] = schema.fieldOffset(fldno);
+			keyLengths[i] = schema.fieldLength(fldno);
+			keyTypes[i] = schema.fieldType(fldno);
+		}
+		this.view = new TupleView(schema);
+		this.record = new byte[length];
+		this.incoming = new byte[length];
+	}
+
+	public void explain(int depth) {
+		indent(depth);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(getSchema().fieldName(keys[i])).append(descs[i] ? " DESC" : " ASC");
+		}
+		System.out.println("Sort on " + sb);
+		input.explain(depth + 1);
+	}
+
+	public void restart() {
+		release();
+		input.restart();
+	}
+
+	public boolean isOpen() {
+		return input.isOpen();
+	}
+
+	public void close() {
+		release();
+		input.close();
+	}
+
+	/**
+	 * Drops the tuples in memory and the runs, deleting their files.
+	 */
+	private void release() {
+		if (merge != null) {
+			merge.close();
+			merge = null;
+		}
+		if (runFiles != null) {
+			for (HeapFile file : runFiles) {
+				file.deleteFile();
+			}
+			runFiles = null;
+		}
+		records = null;
+		heap = null;
+		runs = null;
+		inBatch = null;
+		heapSize = 0;
+		popLast = false;
+		sorted = false;
+		ready = false;
+	}
+
+	public boolean hasNext() {
+		if (ready) return true;
+		if (!this.isOpen()) return false;
+		if (!sorted) sort();
+		if (merge != null) return ready = merge.hasNext();
+
+		// the input fit in memory: the heap holds it all, in a single run
+		if (popLast) {
+			pop();
+			popLast = false;
+		}
+		return ready = (heapSize > 0);
+	}
+
+	public Tuple getNext() {
+		if (!this.isOpen()) {
+			throw new IllegalStateException(String.format("Iterator %s is not open", this.toString()));
+		}
+		if (!hasNext()) {
+			throw new IllegalStateException(String.format("Iterator %s has no next tuple", this.toString()));
+		}
+		ready = false;
+		if (merge != null) return merge.next();
+		popLast = true;
+		view.wrap(records, heap[0] * length);
+		return view;
+	}
+
+	/**
+	 * run generation
+	 * fill the heap from the input; unless the input ends first, replace the
+	 * least tuple by the next input tuple until the input ends, writing runs,
+	 * then merge them down to one last merge of at most the fan-in
+	 */
+	private void sort() {
+		sorted = true;
+		int capacity = (int) Math.max(2, (long) memPages * PAGE_SIZE / (length + ENTRY_SIZE));
+		records = new byte[0];
+		heap = new int[0];
+		runs = new int[0];
+		boolean more = nextInput();
+		while (heapSize < capacity && more) {
+			if (heapSize == heap.length) grow(capacity);
+			System.arraycopy(incoming, 0, records, heapSize * length, length);
+			push(heapSize);
+			more = nextInput();
+		}
+		if (!more) return;
+
+		// replacement selection
+		runFiles = new ArrayList<HeapFile>();
+		HeapFile run = null;
+		int current = -1;
+		while (heapSize > 0) {
+			int slot = heap[0];
+			if (runs[slot] != current) {
+				current = runs[slot];
+				run = new ExtentHeapFile(null);
+				runFiles.add(run);
+			}
+			System.arraycopy(records, slot * length, record, 0, length);
+			run.insertRecord(record);
+			if (more) {
+				int next = compare(incoming, 0, records, slot * length) < 0 ? current + 1 : current;
+				System.arraycopy(incoming, 0, records, slot * length, length);
+				runs[slot] = next;
+				siftDown(0);
+				more = nextInput();
+			} else {
+				pop();
+			}
+		}
+		records = null;
+		heap = null;
+		runs = null;
+
+		// merge passes; the scan of each run being merged pins two pages (its
+		// directory and data pages), and two more are left for the input's scan
+		// and two for the run being written
+		int fanIn = Math.max(2, Math.min(memPages, (Minibase.BufferManager.getNumBuffers() - 2) / 2 - 1));
+		while (runFiles.size() > fanIn) {
+			HeapFile[] group = new HeapFile[fanIn];
+			for (int i = 0; i < fanIn; i++) {
+				group[i] = runFiles.remove(0);
+			}
+			Merge pass = new Merge(getSchema(), group);
+			run = new ExtentHeapFile(null);
+			while (pass.hasNext()) {
+				Tuple t = pass.next();
+				System.arraycopy(t.data, t.offset, record, 0, length);
+				run.insertRecord(record);
+			}
+			pass.close();
+			for (HeapFile file : group) {
+				file.deleteFile();
+			}
+			runFiles.add(run);
+		}
+		merge = new Merge(getSchema(), runFiles.toArray(new HeapFile[runFiles.size()]));
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Reads the next input tuple into the incoming record; the input is
+	 * fetched a batch at a time, and encoded straight from its columns.
+	 * @return false if the input has no more tuples
+	 */
+	private boolean nextInput() {
+		if (inBatch == null || inRow == inBatch.size()) {
+			inBatch = input.nextBatch();
+			inRow = 0;
+			if (inBatch == null) return false;
+		}
+		inBatch.getRecord(inRow++, incoming, 0);
+		return true;
+	}
+
+	/**
+	 * Doubles the heap's arrays, up to the given capacity.
+	 */
+	private void grow(int capacity) {
+		int size = Math.min(capacity, Math.max(16, heap.length * 2));
+		byte[] records = new byte[size * length];
+		System.arraycopy(this.records, 0, records, 0, heapSize * length);
+		int[] heap = new int[size];
+		System.arraycopy(this.heap, 0, heap, 0, heapSize);
+		int[] runs = new int[size];
+		System.arraycopy(this.runs, 0, runs, 0, heapSize);
+		this.records = records;
+		this.heap = heap;
+		this.runs = runs;
+	}
+
+	/**
+	 * Adds the tuple in the given slot to the heap, in the first run.
+	 */
+	private void push(int slot) {
+		runs[slot] = 0;
+		int i = heapSize++;
+		heap[i] = slot;
+		while (i > 0 && before(heap[i], heap[(i - 1) / 2])) {
+			int parent = (i - 1) / 2;
+			heap[i] = heap[parent];
+			heap[parent] = slot;
+			i = parent;
+		}
+	}
+
+	/**
+	 * Removes the least tuple from the heap; its slot is left as it was.
+	 */
+	private void pop() {
+		heapSize--;
+		if (heapSize > 0) {
+			int slot = heap[0];
+			heap[0] = heap[heapSize];
+			heap[heapSize] = slot;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Moves the slot at the given heap position down to its place.
+	 */
+	private void siftDown(int i) {
+		int slot = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+			if (!before(heap[child], slot)) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = slot;
+	}
+
+	/**
+	 * Returns true if the tuple in slot a belongs before the one in slot b: in
+	 * an earlier run, or in the same run with a lesser key.
+	 */
+	private boolean before(int a, int b) {
+		if (runs[a] != runs[b]) return runs[a] < runs[b];
+		return compare(records, a * length, records, b * length) < 0;
+	}
+
+	/**
+	 * Compares two records in place on the sort keys.
+	 *
+	 * @return negative, zero or positive as the first sorts before, with or
+	 *         after the second
+	 */
+	private int compare(byte[] data1, int off1, byte[] data2, int off2) {
+		for (int i = 0; i < keys.length; i++) {
+			int o1 = off1 + keyOffsets[i];
+			int o2 = off2 + keyOffsets[i];
+			int c;
+			switch (keyTypes[i]) {
+
+				case AttrType.INTEGER:
+					c = Integer.compare(Convert.getIntValue(o1, data1), Convert.getIntValue(o2, data2));
+					break;
+
+				case AttrType.FLOAT:
+					float f1 = Convert.getFloatValue(o1, data1);
+					float f2 = Convert.getFloatValue(o2, data2);
+					c = (f1 < f2) ? -1 : (f1 > f2) ? 1 : 0;
+					break;
+
+				case AttrType.STRING:
+					c = CompiledPredicate.compareStrings(data1, o1, keyLengths[i], data2, o2, keyLengths[i], true);
+					break;
+
+				default:
+					throw new IllegalStateException("invalid attribute type");
+			}
+			if (c != 0) {
+				return descs[i] ? -c : c;
+			}
+		}
+		return 0;
+	}
+}
@@ -18,6 +18,9 @@ public class Tuple {
 	/** Schema information for the fields. */
 	protected Schema schema;
 
+	/** Where the tuple starts in data; 0 unless the tuple is a view. */
+	protected int offset;
+
 	// --------------------------------------------------------------------------
 
 	/**
@@ -104,11 +107,19 @@ public class Tuple {
   		return data;
   	}
 
+  	/**
+  	 * Gets a tuple with the same values that stays valid after the iterator
+  	 * that returned this one advances: this tuple itself, unless it is a view.
+  	 */
+  	public Tuple materialize() {
+  		return this;
+  	}
+
   	/**
   	 * Inserts the tuple into the given heap file.
   	 */
   	public RID insertIntoFile(HeapFile file) {
-  		return file.insertRecord(data);
+  		return file.insertRecord(getData());
   	}
 
   	/**
@@ -202,35 +213,35 @@ public class Tuple {
   	 * Gets an integer field.
   	 */
   	public int getIntFld(int fldno) {
-  		return Convert.getIntValue(schema.fieldOffset(fldno), data);
+  		return Convert.getIntValue(offset + schema.fieldOffset(fldno), data);
   	}
 
   	/**
   	 * Sets an integer field.
   	 */
   	public void setIntFld(int fldno, int val) {
-  		Convert.setIntValue(val, schema.fieldOffset(fldno), data);
+  		Convert.setIntValue(val, offset + schema.fieldOffset(fldno), data);
   	}
 
   	/**
   	 * Gets a float field.
   	 */
   	public float getFloatFld(int fldno) {
-  		return Convert.getFloatValue(schema.fieldOffset(fldno), data);
+  		return Convert.getFloatValue(offset + schema.fieldOffset(fldno), data);
   	}
 
   	/**
   	 * Sets a float field.
   	 */
   	public void setFloatFld(int fldno, float val) {
-  		Convert.setFloatValue(val, schema.fieldOffset(fldno), data);
+  		Convert.setFloatValue(val, offset + schema.fieldOffset(fldno), data);
   	}
 
   	/**
   	 * Gets a string field.
   	 */
   	public String getStringFld(int fldno) {
-	  return Convert.getStringValue(schema.fieldOffset(fldno), data, schema
+	  return Convert.getStringValue(offset + schema.fieldOffset(fldno), data, schema
         .fieldLength(fldno));
   	}
   	
@@ -246,7 +257,7 @@ public class Tuple {
   		}
 
   		// set the string and zero out the rest
-  		int off = schema.fieldOffset(fldno);
+  		int off = offset + schema.fieldOffset(fldno);
   		Convert.setStringValue(val, off, data);
   		for (int i = val.length(); i < len; i++) {
   			data[off + i] = 0;
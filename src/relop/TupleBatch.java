@@ -0,0 +1,265 @@
+package relop;
+
+import global.AttrType;
+import global.Convert;
+
+/**
+ * A block of tuples held by column: each integer, float and string field has
+ * an array with the value of every row. Operators that work on whole batches
+ * pass them along with nextBatch instead of one tuple per call, and reuse the
+ * same batch for every call, so a batch is only valid until the next one is
+ * asked for.
+ * <p>
+ * Rows are never moved once filled; filters narrow the batch by rewriting its
+ * selection vector, which lists the rows still live, in order.
+ */
+public class TupleBatch {
+
+	/** Rows per batch, by default. */
+	public static final int CAPACITY = 1024;
+
+	/** Schema of the rows. */
+	protected Schema schema;
+
+	/** Most rows the batch holds. */
+	protected int capacity;
+
+	/** Values of each field, by row; only the array of the field's type is set. */
+	protected int[][] ints;
+	protected float[][] floats;
+	protected String[][] strings;
+
+	/** Selection vector: the rows still live, in order. */
+	protected int[] rows;
+
+	/** Number of live rows. */
+	protected int size;
+
+	/** Number of rows filled. */
+	protected int filled;
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Creates an empty batch of the default capacity.
+	 *
+	 * @param schema logical information for the fields
+	 */
+	public TupleBatch(Schema schema) {
+		this(schema, CAPACITY);
+	}
+
+	/**
+	 * Creates an empty batch, given its capacity.
+	 *
+	 * @param schema logical information for the fields
+	 * @param capacity most rows the batch holds
+	 */
+	public TupleBatch(Schema schema, int capacity) {
+		int cnt = schema.getCount();
+		this.schema = schema;
+		this.capacity = capacity;
+		this.ints = new int[cnt][];
+		this.floats = new float[cnt][];
+		this.strings = new String[cnt][];
+		this.rows = new int[capacity];
+		for (int i = 0; i < ints.length; i++) {
+			switch (schema.fieldType(i)) {
+
+				case AttrType.INTEGER:
+					ints[i] = new int[capacity];
+					break;
+
+				case AttrType.FLOAT:
+					floats[i] = new float[capacity];
+					break;
+
+				case AttrType.STRING:
+					strings[i] = new String[capacity];
+					break;
+
+				default:
+					throw new IllegalStateException("invalid attribute type");
+			}
+		}
+	}
+
+	/**
+	 * Creates a batch that shows some columns of others, without copying them.
+	 *
+	 * @param schema logical information for the columns shown
+	 * @see #project(TupleBatch, Integer...)
+	 */
+	public static TupleBatch view(Schema schema) {
+		return new TupleBatch(schema, 0);
+	}
+
+	/**
+	 * Makes this batch show the given columns of another, and its live rows;
+	 * the columns are shared, not copied.
+	 *
+	 * @param source the batch to show
+	 * @param fields field numbers in source of each column shown
+	 */
+	public void project(TupleBatch source, Integer... fields) {
+		for (int i = 0; i < fields.length; i++) {
+			ints[i] = source.ints[fields[i]];
+			floats[i] = source.floats[fields[i]];
+			strings[i] = source.strings[fields[i]];
+		}
+		capacity = source.capacity;
+		rows = source.rows;
+		size = source.size;
+		filled = source.filled;
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Empties the batch, to be filled again.
+	 */
+	public void clear() {
+		size = 0;
+		filled = 0;
+	}
+
+	/**
+	 * Returns true if no more rows fit.
+	 */
+	public boolean isFull() {
+		return filled == capacity;
+	}
+
+	/**
+	 * Adds a row, decoding the fields of the given record.
+	 *
+	 * @param data record laid out by the batch's schema
+	 */
+	public void addRecord(byte[] data) {
+		addRecord(data, 0);
+	}
+
+	/**
+	 * Adds a row, decoding the fields of the record at the given offset (i.e.
+	 * in a page).
+	 *
+	 * @param data array holding the record, laid out by the batch's schema
+	 * @param offset where the record starts in data
+	 */
+	public void addRecord(byte[] data, int offset) {
+		int row = filled++;
+		for (int i = 0; i < ints.length; i++) {
+			int off = offset + schema.fieldOffset(i);
+			if (ints[i] != null) {
+				ints[i][row] = Convert.getIntValue(off, data);
+			} else if (floats[i] != null) {
+				floats[i][row] = Convert.getFloatValue(off, data);
+			} else {
+				strings[i][row] = Convert.getStringValue(off, data, schema.fieldLength(i));
+			}
+		}
+		rows[size++] = row;
+	}
+
+	/**
+	 * Adds a row, copying the fields of the given tuple, which may be a view.
+	 */
+	public void addTuple(Tuple tuple) {
+		addRecord(tuple.data, tuple.offset);
+	}
+
+	/**
+	 * Gets the schema of the rows.
+	 */
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Gets the number of live rows.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the row of the i-th live row, to index the columns with.
+	 */
+	public int row(int i) {
+		return rows[i];
+	}
+
+	/**
+	 * Gets the selection vector; filters keep the rows that pass at its front,
+	 * in order, and then call setSize.
+	 */
+	public int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * Sets the number of live rows, after a filter.
+	 */
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Gets the values of an integer field, by row.
+	 */
+	public int[] getIntColumn(int fldno) {
+		return ints[fldno];
+	}
+
+	/**
+	 * Gets the values of a float field, by row.
+	 */
+	public float[] getFloatColumn(int fldno) {
+		return floats[fldno];
+	}
+
+	/**
+	 * Gets the values of a string field, by row.
+	 */
+	public String[] getStringColumn(int fldno) {
+		return strings[fldno];
+	}
+
+	/**
+	 * Builds a new tuple from the i-th live row.
+	 */
+	public Tuple getTuple(int i) {
+		Tuple tuple = new Tuple(schema);
+		getRecord(i, tuple.data, 0);
+		return tuple;
+	}
+
+	/**
+	 * Encodes the i-th live row as a record, as a tuple would lay it out, at
+	 * the given offset (i.e. in a sort's memory), with no tuple in between.
+	 *
+	 * @param data array to hold the record, laid out by the batch's schema
+	 * @param offset where the record starts in data
+	 */
+	public void getRecord(int i, byte[] data, int offset) {
+		int row = rows[i];
+		for (int j = 0; j < ints.length; j++) {
+			int off = offset + schema.fieldOffset(j);
+			if (ints[j] != null) {
+				Convert.setIntValue(ints[j][row], off, data);
+			} else if (floats[j] != null) {
+				Convert.setFloatValue(floats[j][row], off, data);
+			} else {
+				String val = strings[j][row];
+				int len = schema.fieldLength(j);
+				if (val.length() > len) {
+					val = val.substring(0, len - 1);
+				}
+				Convert.setStringValue(val, off, data);
+				for (int k = off + val.length(); k < off + len; k++) {
+					data[k] = 0;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package relop;
+
+/**
+ * A tuple that reads its fields in place, from the data array of the pinned
+ * page holding the record, instead of from a copy. A scan hands out the same
+ * view for every record, moved to each in turn, so it is only valid until the
+ * scan advances; operators that keep tuples longer (i.e. joins building hash
+ * tables) must materialize them. Views are read-only.
+ */
+public class TupleView extends Tuple {
+
+	/**
+	 * Creates a view on no record yet, given its schema.
+	 *
+	 * @param schema logical information for the fields
+	 */
+	public TupleView(Schema schema) {
+		super(schema, (byte[]) null);
+	}
+
+	/**
+	 * Moves the view to the record at the given offset.
+	 *
+	 * @param data data array of the page holding the record
+	 * @param offset where the record starts in data
+	 */
+	public void wrap(byte[] data, int offset) {
+		this.data = data;
+		this.offset = offset;
+	}
+
+	/**
+	 * Gets a copy of the record; the page's data array is not handed out.
+	 */
+	public byte[] getData() {
+		byte[] copy = new byte[schema.getLength()];
+		System.arraycopy(data, offset, copy, 0, copy.length);
+		return copy;
+	}
+
+	/**
+	 * Copies the record into a tuple of its own.
+	 */
+	public Tuple materialize() {
+		return new Tuple(schema, getData());
+	}
+
+	public void setIntFld(int fldno, int val) {
+		throw new UnsupportedOperationException("tuple view is read-only");
+	}
+
+	public void setFloatFld(int fldno, float val) {
+		throw new UnsupportedOperationException("tuple view is read-only");
+	}
+
+	public void setStringFld(int fldno, String val) {
+		throw new UnsupportedOperationException("tuple view is read-only");
+	}
+}
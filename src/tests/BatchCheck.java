@@ -0,0 +1,195 @@
+package tests;
+
+import global.AttrOperator;
+import global.AttrType;
+import global.GlobalConst;
+import global.Minibase;
+import global.RID;
+import heap.ExtentHeapFile;
+import heap.HeapFile;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import relop.FileScan;
+import relop.Iterator;
+import relop.Predicate;
+import relop.Projection;
+import relop.Schema;
+import relop.Selection;
+import relop.Tuple;
+import relop.TupleBatch;
+
+/**
+ * Checks that scans, selections and projections return the same tuples a
+ * batch at a time as one at a time. Tables of sizes around multiples of the
+ * batch capacity, one with every few records deleted, are run through plans
+ * whose selections pass every tuple, none, a single one, only the first
+ * batch or only the last, or a few of each batch, on constants, other fields
+ * and strings, stacked and under projections. For each plan, the tuples
+ * from hasNext and getNext, those from nextBatch, and those the predicates
+ * pass when evaluated one tuple at a time must all be the same, in the same
+ * order; no batch may be empty or over capacity, and no page may be left
+ * pinned once the plan is closed.
+ * <p>
+ * Usage: java tests.BatchCheck
+ */
+public class BatchCheck implements GlobalConst {
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 100;
+
+  /** Tables: tuples, and every how many to delete (0 for none). */
+  protected static int[][] TABLES = { { 0, 0 }, { 1, 0 },
+      { TupleBatch.CAPACITY - 1, 0 }, { TupleBatch.CAPACITY, 0 },
+      { TupleBatch.CAPACITY + 1, 0 }, { 3 * TupleBatch.CAPACITY + 17, 0 },
+      { 3 * TupleBatch.CAPACITY + 17, 7 } };
+
+  /** Names of the plans, their stacked selections, and projected fields. */
+  protected static String[] PLANS = { "scan", "all", "none", "one",
+      "first batch", "last batch", "selective", "field to field", "string",
+      "projected scan", "projected selection" };
+  protected static Predicate[][][] SELECTIONS = { {},
+      { { intConst(AttrOperator.GTE, "id", 0) } },
+      { { intConst(AttrOperator.LT, "id", 0) } },
+      { { intConst(AttrOperator.EQ, "id", TupleBatch.CAPACITY) } },
+      { { intConst(AttrOperator.LT, "id", TupleBatch.CAPACITY) } },
+      { { intConst(AttrOperator.GTE, "id", 3 * TupleBatch.CAPACITY) } },
+      { { intConst(AttrOperator.EQ, "grp", 3) },
+          { new Predicate(AttrOperator.GT, AttrType.COLNAME, "val",
+              AttrType.FLOAT, 10.0F) } },
+      { { new Predicate(AttrOperator.EQ, AttrType.COLNAME, "grp",
+          AttrType.COLNAME, "id") } },
+      { { new Predicate(AttrOperator.GTE, AttrType.COLNAME, "name",
+          AttrType.STRING, "n5") } },
+      {},
+      { { intConst(AttrOperator.EQ, "grp", 3),
+          intConst(AttrOperator.NEQ, "id", 13) } } };
+  protected static Integer[][] PROJECTIONS = { null, null, null, null, null,
+      null, null, null, null, { 3, 0 }, { 2, 1 } };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every plan on every table and exits with status 1 if any differs.
+   */
+  public static void main(String[] args) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "batchcheck.minibase");
+    dbfile.delete();
+    new Minibase(dbfile.getPath(), 5000, FRAMES, "Clock", false);
+
+    Schema schema = new Schema(4);
+    schema.initField(0, AttrType.INTEGER, 4, "id");
+    schema.initField(1, AttrType.FLOAT, 4, "val");
+    schema.initField(2, AttrType.STRING, 12, "name");
+    schema.initField(3, AttrType.INTEGER, 4, "grp");
+
+    int failures = 0;
+    for (int[] table : TABLES) {
+
+      // the tuples, some then deleted
+      HeapFile file = new ExtentHeapFile(null);
+      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+      for (int i = 0; i < table[0]; i++) {
+        Tuple t = new Tuple(schema, i, (i % 100) / 4.0F, "n" + (i * 7919 % 1000),
+            i % 10);
+        RID rid = t.insertIntoFile(file);
+        if (table[1] > 0 && i % table[1] == 0) {
+          file.deleteRecord(rid);
+        } else {
+          tuples.add(t);
+        }
+      }
+
+      ArrayList<String> wrong = new ArrayList<String>();
+      int passed = 0;
+      for (int p = 0; p < PLANS.length; p++) {
+
+        // what the predicates pass, one tuple at a time
+        ArrayList<String> expected = new ArrayList<String>();
+        for (Tuple t : tuples) {
+          boolean pass = true;
+          for (Predicate[] preds : SELECTIONS[p]) {
+            pass &= Predicate.evaluate(t, preds);
+          }
+          if (pass) {
+            if (PROJECTIONS[p] != null) {
+              t = Tuple.project(t, new Schema(schema, PROJECTIONS[p]),
+                  PROJECTIONS[p]);
+            }
+            expected.add(Arrays.toString(t.getAllFields()));
+          }
+        }
+
+        ArrayList<String> single = new ArrayList<String>();
+        Iterator plan = plan(schema, file, p);
+        while (plan.hasNext()) {
+          single.add(Arrays.toString(plan.getNext().getAllFields()));
+        }
+        plan.close();
+
+        ArrayList<String> batched = new ArrayList<String>();
+        boolean sized = true;
+        plan = plan(schema, file, p);
+        for (TupleBatch batch = plan.nextBatch(); batch != null;
+            batch = plan.nextBatch()) {
+          sized &= batch.size() > 0 && batch.size() <= TupleBatch.CAPACITY;
+          for (int i = 0; i < batch.size(); i++) {
+            batched.add(Arrays.toString(batch.getTuple(i).getAllFields()));
+          }
+        }
+        plan.close();
+
+        int pinned = FRAMES - Minibase.BufferManager.getNumUnpinned();
+        if (!single.equals(expected) || !batched.equals(expected) || !sized
+            || pinned > 0) {
+          wrong.add(String.format("%s (%d expected, %d one at a time, "
+              + "%d batched%s, %d pinned)", PLANS[p], expected.size(),
+              single.size(), batched.size(), sized ? "" : ", BAD BATCHES",
+              pinned));
+        } else {
+          passed += expected.size();
+        }
+      }
+
+      System.out.println(String.format("%5d tuples, %s: %s", table[0],
+          (table[1] > 0) ? "every " + table[1] + " deleted" : "none deleted",
+          wrong.isEmpty() ? PLANS.length + " plans agree, " + passed
+              + " tuples passed" : "DIFFER " + wrong));
+      failures += wrong.size();
+      file.deleteFile();
+    }
+
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " plans differ");
+      System.exit(1);
+    }
+    System.out.println("batches and tuples agree");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Builds the given plan over a scan of the file.
+   */
+  protected static Iterator plan(Schema schema, HeapFile file, int p) {
+    Iterator plan = new FileScan(schema, file);
+    for (Predicate[] preds : SELECTIONS[p]) {
+      plan = new Selection(plan, preds);
+    }
+    if (PROJECTIONS[p] != null) {
+      plan = new Projection(plan, PROJECTIONS[p]);
+    }
+    return plan;
+  }
+
+  /**
+   * Makes a predicate comparing an integer column with a constant.
+   */
+  protected static Predicate intConst(int oper, String column, int value) {
+    return new Predicate(oper, AttrType.COLNAME, column, AttrType.INTEGER,
+        value);
+  }
+
+} // public class BatchCheck implements GlobalConst
@@ -0,0 +1,195 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Checks the buffer manager's optimistic page copies. Every int of a page
+ * holds the page number and a version, so a copy shows whether it is whole
+ * and of the right page. Writer threads copy new versions of pages in, each
+ * writer its own pages, which only succeeds while nobody has the page
+ * pinned, so a copy that pins the page never sees half a version; reader
+ * threads meanwhile copy random pages, most of them without pinning. Most
+ * copies and writes go to a few hot pages, and there are far more pages
+ * than frames, so copies race with pins, writes,
+ * evictions and replacements, and many pages are not resident. Every copy
+ * must hold a single version of the page asked for, no older than the last
+ * one written before the copy started. Copies must not pin, nor dirty, a
+ * frame: at the end, all frames are unpinned, and copying every page again
+ * leaves nothing to flush.
+ * <p>
+ * Usage: java tests.CopyPageCheck [copies per reader]
+ */
+public class CopyPageCheck implements GlobalConst {
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 32;
+
+  /** Pages copied and written, eight times the pool. */
+  protected static int PAGES = 256;
+
+  /** Pages most copies and writes go to, so that they overlap. */
+  protected static int HOT_PAGES = 8;
+
+  /** Reader and writer threads. */
+  protected static int READERS = 4;
+  protected static int WRITERS = 4;
+
+  /** Default number of copies per reader. */
+  protected static int COPIES = 500000;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs the readers and writers and exits with status 1 if any copy is
+   * wrong.
+   */
+  public static void main(String[] args) throws Exception {
+    final int copies = (args.length > 0) ? Integer.parseInt(args[0]) : COPIES;
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "copypagecheck.minibase");
+    dbfile.delete();
+    new Minibase(dbfile.getPath(), PAGES + 100, FRAMES, "Clock", false);
+    final int firstPid = Minibase.DiskManager.allocate_page(PAGES).pid;
+    for (int i = 0; i < PAGES; i++) {
+      Minibase.DiskManager.write_page(new PageId(firstPid + i),
+          version(firstPid + i, 0));
+    }
+    Minibase.BufferManager.flushAllPages();
+
+    // versions written so far, and what the readers saw
+    final AtomicIntegerArray committed = new AtomicIntegerArray(PAGES);
+    final AtomicInteger torn = new AtomicInteger();
+    final AtomicInteger stale = new AtomicInteger();
+    final AtomicInteger misplaced = new AtomicInteger();
+    final AtomicBoolean done = new AtomicBoolean();
+
+    Thread[] writers = new Thread[WRITERS];
+    for (int t = 0; t < WRITERS; t++) {
+      final int first = t;
+      writers[t] = new Thread() {
+        public void run() {
+          Random random = new Random(first);
+          while (!done.get()) {
+            int i = first + WRITERS * pick(random, PAGES / WRITERS);
+            int pid = firstPid + i;
+            PageId pageno = new PageId(pid);
+            try {
+              Minibase.BufferManager.pinPage(pageno,
+                  version(pid, committed.get(i) + 1), PIN_MEMCPY);
+            } catch (IllegalArgumentException exc) {
+              continue; // a reader has it pinned
+            }
+            Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+            committed.incrementAndGet(i);
+          }
+        }
+      };
+      writers[t].start();
+    }
+
+    Thread[] readers = new Thread[READERS];
+    for (int t = 0; t < READERS; t++) {
+      final int seed = 100 + t;
+      readers[t] = new Thread() {
+        public void run() {
+          Random random = new Random(seed);
+          Page page = new Page();
+          for (int n = 0; n < copies; n++) {
+            int i = pick(random, PAGES);
+            int pid = firstPid + i;
+            int oldest = committed.get(i);
+            Minibase.BufferManager.copyPage(new PageId(pid), page);
+            int value = page.getIntValue(0);
+            for (int offset = 4; offset < PAGE_SIZE; offset += 4) {
+              if (page.getIntValue(offset) != value) {
+                torn.incrementAndGet();
+                break;
+              }
+            }
+            if (value >>> 20 != pid) {
+              misplaced.incrementAndGet();
+            } else if ((value & 0xFFFFF) < oldest) {
+              stale.incrementAndGet();
+            }
+          }
+        }
+      };
+      readers[t].start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    done.set(true);
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    int failures = torn.get() + misplaced.get() + stale.get();
+    int written = 0;
+    for (int i = 0; i < PAGES; i++) {
+      written += committed.get(i);
+    }
+    System.out.println(READERS + " readers, " + copies + " copies each, "
+        + written + " pages written: " + torn.get() + " torn, "
+        + misplaced.get() + " of another page, " + stale.get() + " stale");
+
+    // copies leave frames unpinned and clean
+    Minibase.BufferManager.flushAllPages();
+    Page page = new Page();
+    for (int i = 0; i < PAGES; i++) {
+      Minibase.BufferManager.copyPage(new PageId(firstPid + i), page);
+    }
+    int unpinned = Minibase.BufferManager.getNumUnpinned();
+    int writes = Minibase.DiskManager.getWriteCount();
+    Minibase.BufferManager.flushAllPages();
+    writes = Minibase.DiskManager.getWriteCount() - writes;
+    System.out.println(PAGES + " pages copied: " + (FRAMES - unpinned)
+        + " frames pinned, " + writes + " pages to flush");
+    if (unpinned != FRAMES || writes != 0) {
+      failures++;
+    }
+
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("all copies whole and current");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Picks one of the first HOT_PAGES of the given number most of the time,
+   * or else any one.
+   */
+  protected static int pick(Random random, int count) {
+    return random.nextInt(random.nextInt(4) > 0 ? HOT_PAGES : count);
+  }
+
+  /**
+   * Gets the int every position of the given version of a page holds.
+   */
+  protected static int value(int pid, int version) {
+    return (pid << 20) | (version & 0xFFFFF);
+  }
+
+  /**
+   * Makes the given version of a page.
+   */
+  protected static Page version(int pid, int version) {
+    Page page = new Page();
+    for (int offset = 0; offset < PAGE_SIZE; offset += 4) {
+      page.setIntValue(value(pid, version), offset);
+    }
+    return page;
+  }
+
+} // public class CopyPageCheck implements GlobalConst
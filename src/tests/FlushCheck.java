@@ -0,0 +1,132 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that flushing all pages, which writes runs of consecutive dirty
+ * pages with one request each, leaves the disk as writing every dirty page
+ * whole, one at a time, would. Every page of the database is first written
+ * directly with random contents; then runs of random lengths, some longer
+ * than the longest run flushed at once, some next to each other, are given
+ * new contents in the pool, between pages left clean. After the flush, every
+ * page read back from disk must hold its latest contents, each dirty page
+ * must have been written once, and a second flush must write nothing. The
+ * check runs with one and several writer threads, with the pool on and off
+ * the Java heap, and through the channel and the mapped disk managers.
+ * <p>
+ * Usage: java tests.FlushCheck
+ */
+public class FlushCheck implements GlobalConst {
+
+  /** Pages written and checked; the pool holds them all. */
+  protected static int PAGES = 800;
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 1000;
+
+  /** Longest run of pages dirtied at once; half the runs are short. */
+  protected static int LONGEST_RUN = 150;
+
+  /** Flushes per configuration, each after dirtying new runs. */
+  protected static int ROUNDS = 5;
+
+  /** Configurations: mapped disk, off-heap pool, writer threads. */
+  protected static Object[][] CONFIGS = { { false, false, 1 },
+      { false, false, 4 }, { false, true, 4 }, { true, false, 1 },
+      { true, true, 4 } };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every configuration and exits with status 1 if any flush is wrong.
+   */
+  public static void main(String[] args) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "flushcheck.minibase");
+    int failures = 0;
+    Random random = new Random(42);
+    for (Object[] config : CONFIGS) {
+      Minibase.MappedDisk = (Boolean) config[0];
+      Minibase.OffHeapPool = (Boolean) config[1];
+      Minibase.FlushThreads = (Integer) config[2];
+      dbfile.delete();
+      new Minibase(dbfile.getPath(), PAGES + 100, FRAMES, "Clock", false);
+      int firstPid = Minibase.DiskManager.allocate_page(PAGES).pid;
+
+      // the contents every page must have on disk, written whole at first
+      byte[][] expected = new byte[PAGES][];
+      for (int i = 0; i < PAGES; i++) {
+        expected[i] = new byte[PAGE_SIZE];
+        random.nextBytes(expected[i]);
+        Minibase.DiskManager.write_page(new PageId(firstPid + i),
+            new Page(expected[i].clone()));
+      }
+      Minibase.BufferManager.flushAllPages(); // the space map
+
+      int wrong = 0;
+      for (int round = 0; round < ROUNDS; round++) {
+        int dirtied = 0;
+        int runs = 0;
+        Page page = new Page();
+        for (int i = random.nextInt(3); i < PAGES; i += random.nextInt(6)) {
+          int longest = random.nextBoolean() ? LONGEST_RUN : 8;
+          int length = Math.min(PAGES - i, 1 + random.nextInt(longest));
+          for (int end = i + length; i < end; i++) {
+            PageId pageno = new PageId(firstPid + i);
+            Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+            random.nextBytes(expected[i]);
+            System.arraycopy(expected[i], 0, page.getData(), 0, PAGE_SIZE);
+            Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+          }
+          dirtied += length;
+          runs++;
+        }
+
+        int writes = Minibase.DiskManager.getWriteCount();
+        Minibase.BufferManager.flushAllPages();
+        int written = Minibase.DiskManager.getWriteCount() - writes;
+        Minibase.BufferManager.flushAllPages();
+        int rewritten = Minibase.DiskManager.getWriteCount() - writes - written;
+
+        int differ = 0;
+        Page ondisk = new Page();
+        for (int i = 0; i < PAGES; i++) {
+          Minibase.DiskManager.read_page(new PageId(firstPid + i), ondisk);
+          if (!Arrays.equals(ondisk.getData(), expected[i])) {
+            differ++;
+          }
+        }
+        if (differ > 0 || written != dirtied || rewritten != 0) {
+          System.out.println("round " + round + ": " + differ
+              + " pages differ, " + written + " written of " + dirtied
+              + " dirty, " + rewritten + " written again");
+          wrong++;
+        }
+        if (round == 0) {
+          System.out.print(String.format(
+              "mapped %-5s off-heap %-5s %d writers: %d pages in %d runs",
+              config[0], config[1], config[2], dirtied, runs));
+        }
+      }
+      System.out.println((wrong == 0) ? ", same as whole pages"
+          : ", " + wrong + " FLUSHES WRONG");
+      failures += wrong;
+      Minibase.DiskManager.closeDB();
+    }
+
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " flushes failed");
+      System.exit(1);
+    }
+    System.out.println("all flushes correct");
+
+  } // public static void main(String[] args)
+
+} // public class FlushCheck implements GlobalConst
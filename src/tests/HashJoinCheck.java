@@ -0,0 +1,136 @@
+package tests;
+
+import global.AttrOperator;
+import global.AttrType;
+import global.GlobalConst;
+import global.Minibase;
+import heap.ExtentHeapFile;
+import heap.HeapFile;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import relop.FileScan;
+import relop.HashJoin;
+import relop.Iterator;
+import relop.NestedLoopJoin;
+import relop.Predicate;
+import relop.Schema;
+import relop.Tuple;
+
+/**
+ * Checks the hybrid hash join against the nested loops join, on integer and
+ * string keys, with memory budgets small enough to spill partitions and to
+ * repartition spilled ones (down to keys that never split), as well as the
+ * default budget. Each join must return the same tuples, and leave no pages
+ * pinned once closed.
+ * <p>
+ * Usage: java tests.HashJoinCheck
+ */
+public class HashJoinCheck implements GlobalConst {
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 64;
+
+  /** Database size (in pages). */
+  protected static int DB_PAGES = 20000;
+
+  /** Outer tuples, inner tuples and distinct keys of each data set. */
+  protected static int[][] DATA_SETS = { { 3000, 2500, 500 }, { 800, 700, 2 } };
+
+  /** Memory budgets (in pages) to join with; 0 for the default. */
+  protected static int[] MEMORY = { 1, 2, 4, 0 };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every join and exits with status 1 if any differs.
+   */
+  public static void main(String[] args) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "hashjoincheck.minibase");
+    dbfile.delete();
+    new Minibase(dbfile.getPath(), DB_PAGES, FRAMES, "Clock", false);
+
+    Schema outerSchema = new Schema(3);
+    outerSchema.initField(0, AttrType.INTEGER, 4, "id");
+    outerSchema.initField(1, AttrType.INTEGER, 4, "okey");
+    outerSchema.initField(2, AttrType.STRING, 12, "oname");
+    Schema innerSchema = new Schema(3);
+    innerSchema.initField(0, AttrType.STRING, 8, "iname");
+    innerSchema.initField(1, AttrType.FLOAT, 4, "val");
+    innerSchema.initField(2, AttrType.INTEGER, 4, "ikey");
+
+    int failures = 0;
+    Random random = new Random(42);
+    for (int[] set : DATA_SETS) {
+
+      // random tuples whose keys are among set[2] values
+      HeapFile outer = new ExtentHeapFile(null);
+      HeapFile inner = new ExtentHeapFile(null);
+      for (int i = 0; i < set[0]; i++) {
+        int key = random.nextInt(set[2]);
+        new Tuple(outerSchema, i, key, "k" + key).insertIntoFile(outer);
+      }
+      for (int i = 0; i < set[1]; i++) {
+        int key = random.nextInt(set[2]);
+        new Tuple(innerSchema, " k" + key, (float) i, key).insertIntoFile(inner);
+      }
+
+      // join on the integer keys, then on the string ones
+      for (int col = 0; col < 2; col++) {
+        int outerCol = (col == 0) ? 1 : 2;
+        int innerCol = (col == 0) ? 2 : 0;
+        Predicate pred = new Predicate(AttrOperator.EQ, AttrType.COLNAME,
+            outerSchema.fieldName(outerCol), AttrType.COLNAME,
+            innerSchema.fieldName(innerCol));
+        HashMap<String, Integer> expected = collect(new NestedLoopJoin(
+            new FileScan(outerSchema, outer), new FileScan(innerSchema, inner),
+            pred));
+
+        for (int mem : MEMORY) {
+          int unpinned = Minibase.BufferManager.getNumUnpinned();
+          HashMap<String, Integer> actual = collect(new HashJoin(
+              new FileScan(outerSchema, outer), new FileScan(innerSchema, inner),
+              outerCol, innerCol, mem));
+          int pins = unpinned - Minibase.BufferManager.getNumUnpinned();
+          boolean same = actual.equals(expected);
+          System.out.println(String.format(
+              "%5d x %4d over %3d %s keys, memory %d: %s, pins %d",
+              set[0], set[1], set[2], (col == 0) ? "int" : "string", mem,
+              same ? "same" : "DIFFERENT", pins));
+          if (!same || pins != 0) {
+            failures++;
+          }
+        }
+      }
+      outer.deleteFile();
+      inner.deleteFile();
+    }
+
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " joins failed");
+      System.exit(1);
+    }
+    System.out.println("all joins agree");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Counts each distinct tuple a join returns, by field values (strings as
+   * decoded, i.e. trimmed), and closes it.
+   */
+  protected static HashMap<String, Integer> collect(Iterator join) {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    while (join.hasNext()) {
+      String key = Arrays.toString(join.getNext().getAllFields());
+      Integer count = counts.get(key);
+      counts.put(key, (count == null) ? 1 : count + 1);
+    }
+    join.close();
+    return counts;
+  }
+
+} // public class HashJoinCheck implements GlobalConst
@@ -0,0 +1,140 @@
+package tests;
+
+import bufmgr.IntFrameMap;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Checks the buffer manager's open-addressing page table against a HashMap:
+ * sequential page numbers put and removed in runs, so removals must shift
+ * back the entries of long probe runs, then random puts, replacements and
+ * removals over a small key range, from a table sized for one page so that it
+ * grows many times. After every operation the size and the answer must match
+ * the HashMap's, and every key of the range is looked up, with get and
+ * getRacy, after each round.
+ * <p>
+ * Usage: java tests.IntFrameMapCheck [operations]
+ */
+public class IntFrameMapCheck {
+
+  /** Default number of random operations. */
+  protected static int OPS = 1000000;
+
+  /** Page numbers range over [0, KEYS). */
+  protected static int KEYS = 5000;
+
+  /** Random operations between full comparisons. */
+  protected static int ROUND = 10000;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every check and exits with status 1 if any fails.
+   */
+  public static void main(String[] args) {
+    int ops = (args.length > 0) ? Integer.parseInt(args[0]) : OPS;
+    int failures = 0;
+
+    // sequential runs: fill, remove every other page, then the rest
+    IntFrameMap map = new IntFrameMap(1);
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    for (int pid = 0; pid < KEYS; pid++) {
+      map.put(pid, pid + 1);
+      reference.put(pid, pid + 1);
+    }
+    failures += compare("sequential puts", map, reference);
+    for (int pid = 0; pid < KEYS; pid += 2) {
+      failures += expect("remove", pid, map.remove(pid), reference.remove(pid));
+    }
+    failures += compare("every other page removed", map, reference);
+    for (int pid = KEYS - 1; pid >= 0; pid--) {
+      failures += expect("remove", pid, map.remove(pid), reference.remove(pid));
+    }
+    failures += compare("all pages removed", map, reference);
+
+    // random puts, replacements and removals
+    Random random = new Random(42);
+    map = new IntFrameMap(1);
+    reference.clear();
+    for (int i = 1; i <= ops; i++) {
+      int pid = random.nextInt(KEYS);
+      int op = random.nextInt(3);
+      if (op == 0) {
+        int frameNo = random.nextInt(1 << 20);
+        map.put(pid, frameNo);
+        reference.put(pid, frameNo);
+      } else if (op == 1) {
+        failures += expect("remove", pid, map.remove(pid), reference.remove(pid));
+      } else {
+        failures += expect("get", pid, map.get(pid), reference.get(pid));
+      }
+      if (map.size() != reference.size()) {
+        System.out.println("size " + map.size() + ", expected "
+            + reference.size() + ", after operation " + i);
+        failures++;
+      }
+      if (i % ROUND == 0) {
+        failures += compare(null, map, reference);
+      }
+      if (failures > 10) {
+        break;
+      }
+    }
+    System.out.println(ops + " random operations: "
+        + ((failures == 0) ? "same" : "DIFFERENT"));
+
+    // negative page numbers are refused
+    try {
+      map.put(-1, 0);
+      System.out.println("negative page number accepted");
+      failures++;
+    } catch (IllegalArgumentException exc) {
+      System.out.println("negative page number refused");
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("page table agrees with HashMap");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Looks up every key of the range in both tables.
+   *
+   * @param what printed with the outcome, unless null
+   * @return number of differences
+   */
+  protected static int compare(String what, IntFrameMap map,
+      HashMap<Integer, Integer> reference) {
+    int failures = 0;
+    for (int pid = 0; pid < KEYS; pid++) {
+      failures += expect("get", pid, map.get(pid), reference.get(pid));
+      failures += expect("getRacy", pid, map.getRacy(pid), reference.get(pid));
+    }
+    if (map.size() != reference.size()) {
+      failures++;
+    }
+    if (what != null) {
+      System.out.println(what + ": " + ((failures == 0) ? "same" : "DIFFERENT")
+          + ", size " + map.size());
+    }
+    return failures;
+  }
+
+  /**
+   * Compares one answer of the table with the HashMap's.
+   *
+   * @return 1 if they differ, else 0
+   */
+  protected static int expect(String op, int pid, int actual, Integer expected) {
+    int wanted = (expected == null) ? IntFrameMap.NOT_FOUND : expected;
+    if (actual == wanted) {
+      return 0;
+    }
+    System.out.println(op + "(" + pid + ") = " + actual + ", expected " + wanted);
+    return 1;
+  }
+
+} // public class IntFrameMapCheck
@@ -0,0 +1,179 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that writing back only the changed parts of dirty pages leaves the
+ * disk as writing them whole would. Every page of the database is first
+ * written whole with random contents. Then pages are pinned and changed
+ * through the page setters, a few bytes here and there, each change applied
+ * to a copy of the expected contents too; some pages are changed whole, some
+ * are flushed while still pinned and then changed again, also through the
+ * data array their pinner got before the flush, and the pool is smaller than
+ * the pages used, so dirty pages are also written when evicted.
+ * After every round, all pages are flushed and read back from disk, and each
+ * must equal its expected contents. The check runs with several write units,
+ * whole pages among them, with the pool on and off the Java heap, and through
+ * the channel and the mapped disk managers.
+ * <p>
+ * Usage: java tests.PartialWriteCheck
+ */
+public class PartialWriteCheck implements GlobalConst {
+
+  /** Pages changed and checked. */
+  protected static int PAGES = 256;
+
+  /** Buffer pool size (in pages), and pages most changes go to. */
+  protected static int FRAMES = 48;
+  protected static int HOT_PAGES = 32;
+
+  /** Rounds per configuration, and pins per round. */
+  protected static int ROUNDS = 20;
+  protected static int ROUND_PINS = 1000;
+
+  /** Configurations: mapped disk, off-heap pool, write unit (0 = pages). */
+  protected static Object[][] CONFIGS = { { false, false, 512 },
+      { false, false, 16 }, { false, true, 64 }, { true, false, 16 },
+      { true, true, 256 }, { false, false, 0 } };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every configuration and exits with status 1 if any page differs.
+   */
+  public static void main(String[] args) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "partialwritecheck.minibase");
+    int failures = 0;
+    Random random = new Random(42);
+    for (Object[] config : CONFIGS) {
+      Minibase.MappedDisk = (Boolean) config[0];
+      Minibase.OffHeapPool = (Boolean) config[1];
+      Minibase.WriteUnit = (Integer) config[2];
+      dbfile.delete();
+      new Minibase(dbfile.getPath(), PAGES + 100, FRAMES, "Clock", false);
+      int firstPid = Minibase.DiskManager.allocate_page(PAGES).pid;
+
+      // the contents every page must have on disk, written whole at first
+      byte[][] expected = new byte[PAGES][];
+      for (int i = 0; i < PAGES; i++) {
+        expected[i] = new byte[PAGE_SIZE];
+        random.nextBytes(expected[i]);
+        Minibase.DiskManager.write_page(new PageId(firstPid + i),
+            new Page(expected[i].clone()));
+      }
+      Minibase.BufferManager.flushAllPages();
+      Minibase.BufferManager.getStats().reset();
+
+      int wrong = 0;
+      Page page = new Page();
+      for (int round = 0; round < ROUNDS; round++) {
+        for (int n = 0; n < ROUND_PINS; n++) {
+          int i = random.nextInt(random.nextInt(4) > 0 ? HOT_PAGES : PAGES);
+          PageId pageno = new PageId(firstPid + i);
+          Page mirror = new Page(expected[i]);
+          Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+          change(random, page, mirror);
+          if (random.nextInt(20) == 0) {
+            // a pinner may keep the data array and write to it later
+            byte[] data = page.getData();
+            Minibase.BufferManager.flushAllPages();
+            int offset = random.nextInt(PAGE_SIZE);
+            data[offset] = mirror.getData()[offset] = (byte) random.nextInt();
+            change(random, page, mirror);
+          }
+          Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+        }
+
+        Minibase.BufferManager.flushAllPages();
+        Page ondisk = new Page();
+        int differ = 0;
+        for (int i = 0; i < PAGES; i++) {
+          Minibase.DiskManager.read_page(new PageId(firstPid + i), ondisk);
+          if (!Arrays.equals(ondisk.getData(), expected[i])) {
+            differ++;
+          }
+        }
+        if (differ > 0) {
+          System.out.println("round " + round + ": " + differ
+              + " pages differ");
+          wrong++;
+        }
+      }
+
+      // partial writes are made, unless whole pages are asked for
+      long partial = Minibase.BufferManager.getStats().getPartialWrites();
+      int unit = (Integer) config[2];
+      System.out.println(String.format(
+          "mapped %-5s off-heap %-5s unit %4d: %d partial writes, %s", config[0],
+          config[1], unit, partial, (wrong == 0) ? "same as whole pages"
+              : wrong + " ROUNDS WRONG"));
+      if ((unit > 0) != (partial > 0)) {
+        wrong++;
+      }
+      failures += wrong;
+      Minibase.DiskManager.closeDB();
+    }
+
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("all pages written correctly");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Makes one to three random changes to a pinned page, and the same ones to
+   * its expected contents; now and then, the whole page is changed.
+   */
+  protected static void change(Random random, Page page, Page mirror) {
+    if (random.nextInt(50) == 0) {
+      byte[] data = new byte[PAGE_SIZE];
+      random.nextBytes(data);
+      System.arraycopy(data, 0, page.getData(), 0, PAGE_SIZE);
+      System.arraycopy(data, 0, mirror.getData(), 0, PAGE_SIZE);
+      return;
+    }
+    for (int count = 1 + random.nextInt(3); count > 0; count--) {
+      switch (random.nextInt(4)) {
+        case 0:
+          int offset = random.nextInt(PAGE_SIZE - 3);
+          int value = random.nextInt();
+          page.setIntValue(value, offset);
+          mirror.setIntValue(value, offset);
+          break;
+        case 1:
+          offset = random.nextInt(PAGE_SIZE - 1);
+          short small = (short) random.nextInt();
+          page.setShortValue(small, offset);
+          mirror.setShortValue(small, offset);
+          break;
+        case 2:
+          offset = random.nextInt(PAGE_SIZE - 3);
+          float real = random.nextFloat();
+          page.setFloatValue(real, offset);
+          mirror.setFloatValue(real, offset);
+          break;
+        default:
+          char[] chars = new char[1 + random.nextInt(40)];
+          for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+          }
+          String text = new String(chars);
+          offset = random.nextInt(PAGE_SIZE - chars.length);
+          page.setStringValue(text, offset);
+          mirror.setStringValue(text, offset);
+          break;
+      }
+    }
+  }
+
+} // public class PartialWriteCheck implements GlobalConst
@@ -0,0 +1,110 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.IntFrameMap;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Microbenchmark for the buffer manager's page table and pin/unpin hit path on
+ * a large pool. The "before" numbers replay the old HashMap page table access
+ * pattern (containsKey then get, boxing the PID); the "after" numbers use the
+ * primitive IntFrameMap and the real BufMgr.
+ * <p>
+ * Usage: java tests.PinBench [frames] [operations]
+ */
+public class PinBench implements GlobalConst {
+
+  /** Default buffer pool size (in pages). */
+  protected static int FRAMES = 100000;
+
+  /** Default number of timed operations per measurement. */
+  protected static int OPS = 10000000;
+
+  /** Untimed rounds run first, so the JIT has compiled the loops. */
+  protected static int WARMUP_ROUNDS = 3;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs all measurements and prints the cost per operation.
+   */
+  public static void main(String[] args) {
+    int frames = (args.length > 0) ? Integer.parseInt(args[0]) : FRAMES;
+    int ops = (args.length > 1) ? Integer.parseInt(args[1]) : OPS;
+
+    // random page numbers among the resident ones, shared by every run
+    Random random = new Random(42);
+    int[] pids = new int[ops];
+    for (int i = 0; i < ops; i++) {
+      pids[i] = random.nextInt(frames);
+    }
+
+    // fill both page tables as if every frame held a page
+    HashMap<Integer, Integer> hashTable = new HashMap<Integer, Integer>(frames);
+    IntFrameMap intTable = new IntFrameMap(frames);
+    for (int pid = 0; pid < frames; pid++) {
+      hashTable.put(pid, pid);
+      intTable.put(pid, pid);
+    }
+
+    // pin every page once (no disk access for PIN_MEMCPY), then unpin it
+    Minibase.BufferManager = new BufMgr(frames);
+    Page page = new Page();
+    PageId pageno = new PageId();
+    for (int pid = 0; pid < frames; pid++) {
+      pageno.pid = pid;
+      Minibase.BufferManager.pinPage(pageno, page, PIN_MEMCPY);
+      Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+    }
+
+    // run each measurement, keeping the last (warmed up) round
+    long sink = 0;
+    double hashNs = 0, intNs = 0, pinNs = 0;
+    for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+
+      long start = System.nanoTime();
+      for (int i = 0; i < ops; i++) {
+        if (hashTable.containsKey(pids[i])) {
+          sink += hashTable.get(pids[i]);
+        }
+      }
+      hashNs = (double) (System.nanoTime() - start) / ops;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ops; i++) {
+        int frameNo = intTable.get(pids[i]);
+        if (frameNo != IntFrameMap.NOT_FOUND) {
+          sink += frameNo;
+        }
+      }
+      intNs = (double) (System.nanoTime() - start) / ops;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ops; i++) {
+        pageno.pid = pids[i];
+        Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+      }
+      pinNs = (double) (System.nanoTime() - start) / ops;
+
+    }
+
+    // print the results
+    System.out.println("frames     = " + frames);
+    System.out.println("operations = " + ops);
+    System.out.println(String.format("before: HashMap lookup    %8.1f ns",
+        hashNs));
+    System.out.println(String.format("after:  IntFrameMap get   %8.1f ns",
+        intNs));
+    System.out.println(String.format("BufMgr pin + unpin (hit)  %8.1f ns",
+        pinNs));
+    System.out.println("(checksum " + sink + ")");
+
+  } // public static void main(String[] args)
+
+} // public class PinBench implements GlobalConst
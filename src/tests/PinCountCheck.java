@@ -0,0 +1,177 @@
+package tests;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the buffer manager's running counts of unpinned and empty frames
+ * under concurrent sessions. Several threads pin and unpin random pages, more
+ * than the pool holds, each keeping a few pinned at a time, so pins hit,
+ * miss, evict and share frames. Every round they all stop, and the count of
+ * unpinned frames must equal the pool size less the distinct pages pinned.
+ * Once they are done, freed pages must leave empty frames that new pages take
+ * without evicting anything, and only then do pins evict again.
+ * <p>
+ * Usage: java tests.PinCountCheck [threads] [rounds]
+ */
+public class PinCountCheck implements GlobalConst {
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 64;
+
+  /** Pages the sessions pin, four times the pool. */
+  protected static int PAGES = 256;
+
+  /** Default number of sessions. */
+  protected static int THREADS = 8;
+
+  /** Default number of rounds, and operations per session per round. */
+  protected static int ROUNDS = 50;
+  protected static int ROUND_OPS = 500;
+
+  /** Most pages each session keeps pinned at once. */
+  protected static int HELD = 3;
+
+  /** Pages freed at the end, to check the empty frames. */
+  protected static int FREED = 10;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs the sessions and exits with status 1 if a count is ever wrong.
+   */
+  public static void main(String[] args) throws Exception {
+    int threads = (args.length > 0) ? Integer.parseInt(args[0]) : THREADS;
+    final int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : ROUNDS;
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "pincountcheck.minibase");
+    dbfile.delete();
+    new Minibase(dbfile.getPath(), PAGES * 2, FRAMES, "Clock", false);
+    final int firstPid = Minibase.DiskManager.allocate_page(PAGES).pid;
+    final AtomicInteger failures = new AtomicInteger();
+
+    // each round ends with every session stopped, its pins still held
+    @SuppressWarnings("unchecked")
+    final ArrayList<Integer>[] held = new ArrayList[threads];
+    for (int t = 0; t < threads; t++) {
+      held[t] = new ArrayList<Integer>();
+    }
+    final CyclicBarrier barrier = new CyclicBarrier(threads, new Runnable() {
+      public void run() {
+        HashSet<Integer> pinned = new HashSet<Integer>();
+        for (ArrayList<Integer> pids : held) {
+          pinned.addAll(pids);
+        }
+        int expected = FRAMES - pinned.size();
+        int actual = Minibase.BufferManager.getNumUnpinned();
+        if (actual != expected) {
+          System.out.println("unpinned frames " + actual + ", expected "
+              + expected);
+          failures.incrementAndGet();
+        }
+      }
+    });
+
+    Thread[] sessions = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final ArrayList<Integer> pids = held[t];
+      final Random random = new Random(t);
+      sessions[t] = new Thread() {
+        public void run() {
+          Page page = new Page();
+          try {
+            for (int round = 0; round < rounds; round++) {
+              for (int i = 0; i < ROUND_OPS; i++) {
+                if (pids.size() == HELD
+                    || (!pids.isEmpty() && random.nextBoolean())) {
+                  int pid = pids.remove(random.nextInt(pids.size()));
+                  Minibase.BufferManager.unpinPage(new PageId(pid),
+                      UNPIN_CLEAN);
+                } else {
+                  int pid = firstPid + random.nextInt(PAGES);
+                  Minibase.BufferManager.pinPage(new PageId(pid), page,
+                      PIN_DISKIO);
+                  pids.add(pid);
+                }
+              }
+              barrier.await();
+            }
+            for (int pid : pids) {
+              Minibase.BufferManager.unpinPage(new PageId(pid), UNPIN_CLEAN);
+            }
+            pids.clear();
+          } catch (InterruptedException exc) {
+            failures.incrementAndGet();
+          } catch (BrokenBarrierException exc) {
+            failures.incrementAndGet();
+          } catch (RuntimeException exc) {
+            exc.printStackTrace();
+            failures.incrementAndGet();
+            barrier.reset();
+          }
+        }
+      };
+      sessions[t].start();
+    }
+    for (Thread session : sessions) {
+      session.join();
+    }
+    int unpinned = Minibase.BufferManager.getNumUnpinned();
+    System.out.println(threads + " sessions, " + rounds + " rounds: "
+        + ((failures.get() == 0) ? "counts right" : "COUNTS WRONG")
+        + ", unpinned at the end " + unpinned);
+    if (unpinned != FRAMES) {
+      failures.incrementAndGet();
+    }
+
+    // freed pages leave empty frames, which new pages take first; the new
+    // pages are allocated first, as that reads the space map into the pool
+    int newPid = Minibase.DiskManager.allocate_page(FREED + 1).pid;
+    int[] resident = Minibase.BufferManager.getResidentPages(
+        Minibase.BufferManager.getPartition("default"));
+    int freed = 0;
+    for (int i = 0; i < resident.length && freed < FREED; i++) {
+      if (resident[i] >= firstPid) {
+        Minibase.BufferManager.freePage(new PageId(resident[i]));
+        freed++;
+      }
+    }
+    long evictions = Minibase.BufferManager.getStats().getEvictions();
+    Page page = new Page();
+    for (int i = 0; i < freed; i++) {
+      PageId pageno = new PageId(newPid + i);
+      Minibase.BufferManager.pinPage(pageno, page, PIN_MEMCPY);
+      Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+    }
+    long reused = Minibase.BufferManager.getStats().getEvictions() - evictions;
+    PageId pageno = new PageId(newPid + freed);
+    Minibase.BufferManager.pinPage(pageno, page, PIN_MEMCPY);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+    long evicted = Minibase.BufferManager.getStats().getEvictions() - evictions
+        - reused;
+    System.out.println(freed + " pages freed: " + reused
+        + " evictions to read as many, " + evicted + " for one more");
+    if (reused != 0 || evicted != 1) {
+      failures.incrementAndGet();
+    }
+
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    if (failures.get() > 0) {
+      System.out.println(failures.get() + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("frame counts agree");
+
+  } // public static void main(String[] args)
+
+} // public class PinCountCheck implements GlobalConst
@@ -0,0 +1,139 @@
+package tests;
+
+import bufmgr.PinLeakDetector;
+import global.GlobalConst;
+import global.Minibase;
+import heap.HeapFile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import parser.AST_Start;
+import parser.MiniSql;
+import query.Optimizer;
+import relop.FileScan;
+
+/**
+ * Checks that the pin leak detector reports a scan left open, and only that.
+ * A scan of a table that is read from but not closed must be reported once
+ * its scope ends, with the scan as the owner of the pin; once closed, nothing
+ * is left to report. Then queries are planned and run inside scopes as the
+ * command line front end does, selections through an index and joins, whose
+ * planning reads the catalog: none may leave a pin behind.
+ * <p>
+ * Usage: java tests.PinLeakCheck
+ */
+public class PinLeakCheck implements GlobalConst {
+
+  /** Buffer pool size (in pages). */
+  protected static int FRAMES = 50;
+
+  /** Statements setting up the tables. */
+  protected static String[] SETUP = {
+      "CREATE TABLE Students (sid INTEGER, name STRING(50), age FLOAT);",
+      "CREATE TABLE Grades (gsid INTEGER, gcid INTEGER, points FLOAT);",
+      "CREATE INDEX IX_Age ON Students(age);",
+      "INSERT INTO Students VALUES (1, 'Alice', 25.67);",
+      "INSERT INTO Students VALUES (2, 'Chris', 12.34);",
+      "INSERT INTO Students VALUES (3, 'Bob', 30.0);",
+      "INSERT INTO Grades VALUES (1, 448, 4.0);",
+      "INSERT INTO Grades VALUES (3, 448, 2.0);",
+      "INSERT INTO Grades VALUES (3, 542, 3.5);" };
+
+  /** Queries that must not leak. */
+  protected static String[] QUERIES = {
+      "SELECT * FROM Students;",
+      "SELECT * FROM Students WHERE age = 30.0;",
+      "SELECT sid, name, points FROM Students, Grades WHERE sid = gsid;",
+      "SELECT * FROM Students, Grades WHERE sid = gsid AND age = 30.0;",
+      "SELECT name FROM Students WHERE age > 20.0 ORDER BY name;" };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every check and exits with status 1 if any fails.
+   */
+  public static void main(String[] args) throws Exception {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "pinleakcheck.minibase");
+    dbfile.delete();
+    Minibase.PinLeakCheck = true;
+    new Minibase(dbfile.getPath(), 1000, FRAMES, "Clock", false);
+    PinLeakDetector leaks = Minibase.BufferManager.getLeakDetector();
+    for (String sql : SETUP) {
+      run(sql);
+    }
+    int failures = 0;
+
+    // a scan left open is reported, with the scan as the owner
+    PinLeakDetector.Scope scope = leaks.beginScope("Open scan");
+    FileScan scan = new FileScan(Minibase.SystemCatalog.getSchema("Students"),
+        new HeapFile("Students"));
+    scan.getNext();
+    String[] reports = leaks.endScope(scope);
+    boolean named = reports.length > 0;
+    for (String report : reports) {
+      named &= report.contains("in Open scan")
+          && report.contains("owner relop.FileScan");
+    }
+    System.out.println("scan left open: " + reports.length + " pins reported"
+        + (named ? ", by the scan" : ", NOT BY THE SCAN"));
+    if (!named) {
+      failures++;
+    }
+    scan.close();
+
+    // a closed scan leaves nothing to report
+    scope = leaks.beginScope("Closed scan");
+    scan = new FileScan(Minibase.SystemCatalog.getSchema("Students"),
+        new HeapFile("Students"));
+    scan.getNext();
+    scan.close();
+    reports = leaks.endScope(scope);
+    System.out.println("scan closed: " + reports.length + " pins reported");
+    if (reports.length > 0) {
+      failures++;
+    }
+
+    // queries, planned and run in a scope
+    for (String sql : QUERIES) {
+      scope = leaks.beginScope("Select");
+      run(sql);
+      reports = leaks.endScope(scope);
+      int pinned = FRAMES - Minibase.BufferManager.getNumUnpinned();
+      System.out.println(sql + " " + reports.length + " pins reported, "
+          + pinned + " held");
+      for (String report : reports) {
+        System.out.println("  " + report);
+      }
+      if (reports.length > 0 || pinned > 0) {
+        failures++;
+      }
+    }
+
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("leaks reported, and only leaks");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Plans and runs a statement, hiding what it prints.
+   */
+  protected static void run(String sql) throws Exception {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new ByteArrayOutputStream()));
+    try {
+      AST_Start node = new MiniSql(new ByteArrayInputStream(sql.getBytes()))
+          .Start();
+      Optimizer.evaluate(node).execute();
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+} // public class PinLeakCheck implements GlobalConst
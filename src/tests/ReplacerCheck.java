@@ -0,0 +1,236 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.BufferPartition;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Checks the LRU, LRU-K, 2Q and ARC replacement policies on fixed reference
+ * strings, in a buffer manager of a few frames. Each reference pins a page and
+ * unpins it at once; pages not in the pool are copied in, so no disk is used.
+ * The pages each policy evicts, in order, must be those the policy's
+ * definition picks: least recently used for LRU, fewest references then
+ * oldest K-th one for LRU-K, the FIFO of pages seen once for 2Q (with pages
+ * read again while remembered in its ghost queue promoted), and for ARC the
+ * list its target size points at, as hits in either ghost list adapt it.
+ * Then a hot set, referenced again after being read, must survive a scan of
+ * many pages referenced once under the scan resistant policies, and again
+ * when the scan reads its pages ahead before pinning them: a page read ahead
+ * is not referenced yet, so its first pin must not count as a second one.
+ * <p>
+ * Usage: java tests.ReplacerCheck
+ */
+public class ReplacerCheck implements GlobalConst {
+
+  /** Frames of the pool for the victim order checks. */
+  protected static int SMALL_POOL = 4;
+
+  /** Frames of the pool for the scan checks. */
+  protected static int POOL = 8;
+
+  /** Pages scanned past a hot set. */
+  protected static int SCAN = 40;
+
+  /** Pages the scan reads ahead at a time, half the pool. */
+  protected static int READ_AHEAD = 4;
+
+  /** The buffer manager being checked, and its only partition. */
+  protected static BufMgr bufmgr;
+  protected static BufferPartition partition;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every check and exits with status 1 if any fails.
+   */
+  public static void main(String[] args) {
+    int failures = 0;
+
+    // LRU: a hit moves the page to the most recent end
+    failures += victims("LRU", SMALL_POOL, new int[] { 1, 2, 3, 4, 1, 5, 2, 3 },
+        new int[] { 2, 3, 4 });
+
+    // LRU-2: pages referenced once go first, least recently referenced first
+    failures += victims("LRU-2", SMALL_POOL, new int[] { 1, 2, 3, 4, 1, 2, 5, 6,
+        7 }, new int[] { 3, 4, 5 });
+
+    // 2Q: A1in is a FIFO; 1 is read again while in A1out, so it goes to Am
+    failures += victims("2Q", SMALL_POOL, new int[] { 1, 2, 3, 4, 5, 1, 6, 7, 8,
+        9, 10 }, new int[] { 1, 2, 3, 4, 5, 6, 7 });
+
+    // ARC: hits move 1 and 2 to T2, the scan leaves through T1 into B1; 4
+    // read again from B1 grows T1's target, so 1 leaves T2 for B2; 1 read
+    // again from B2 shrinks the target, so T1 gives up 7 and then 8
+    failures += victims("ARC", SMALL_POOL, new int[] { 1, 2, 3, 4, 1, 2, 5, 6, 7,
+        4, 8, 1, 9 }, new int[] { 3, 4, 5, 6, 1, 7, 8 });
+
+    // a hot set survives a scan
+    failures += survives("LRU-2", new int[] { 1, 2, 3, 4, 1, 2, 3, 4 });
+    failures += survives("2Q", new int[] { 1, 2, 3, 4, 10, 11, 12, 13, 14, 15,
+        16, 17, 1, 2, 3, 4 });
+    failures += survives("ARC", new int[] { 1, 2, 3, 4, 1, 2, 3, 4 });
+
+    // ... also when the scan reads ahead
+    failures += survivesReadAhead("LRU-2", new int[] { 0, 1, 2, 3, 0, 1, 2, 3 });
+    failures += survivesReadAhead("2Q", new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8,
+        9, 10, 11, 0, 1, 2, 3 });
+    failures += survivesReadAhead("ARC", new int[] { 0, 1, 2, 3, 0, 1, 2, 3 });
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("all replacers behave");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Runs a reference string and compares the pages evicted with the expected
+   * ones, in order.
+   *
+   * @return 1 if they differ, else 0
+   */
+  protected static int victims(String policy, int frames, int[] refs,
+      int[] expected) {
+    start(policy, frames);
+    ArrayList<Integer> evicted = new ArrayList<Integer>();
+    for (int pid : refs) {
+      evicted.addAll(reference(pid));
+    }
+    int[] actual = new int[evicted.size()];
+    for (int i = 0; i < actual.length; i++) {
+      actual[i] = evicted.get(i);
+    }
+    boolean same = Arrays.equals(actual, expected);
+    System.out.println(String.format("%-5s evicts %s: %s", policy,
+        Arrays.toString(actual), same ? "as expected"
+            : "EXPECTED " + Arrays.toString(expected)));
+    return same ? 0 : 1;
+  }
+
+  /**
+   * Makes a hot set with the given references, then scans SCAN pages past it
+   * once each, and checks that the hot set is still resident.
+   *
+   * @return 1 if any of it was evicted, else 0
+   */
+  protected static int survives(String policy, int[] warmup) {
+    start(policy, POOL);
+    HashSet<Integer> hot = new HashSet<Integer>();
+    for (int pid : warmup) {
+      reference(pid);
+    }
+    for (int pid : bufmgr.getResidentPages(partition)) {
+      hot.add(pid);
+    }
+    hot.retainAll(Arrays.asList(1, 2, 3, 4));
+    int lost = 4 - hot.size();
+    for (int pid = 1000; pid < 1000 + SCAN; pid++) {
+      lost += count(reference(pid), 1, 2, 3, 4);
+    }
+    System.out.println(String.format("%-5s scan of %d pages: %s", policy, SCAN,
+        (lost == 0) ? "hot set kept" : lost + " HOT PAGES EVICTED"));
+    return (lost == 0) ? 0 : 1;
+  }
+
+  /**
+   * Makes a hot set of the first four pages of a database with the given
+   * references (offsets from its first page), then scans SCAN pages past it,
+   * reading READ_AHEAD pages ahead and then pinning them, and checks that the
+   * hot set is still resident.
+   *
+   * @return 1 if any of it was evicted, else 0
+   */
+  protected static int survivesReadAhead(String policy, int[] warmup) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "replacercheck.minibase");
+    dbfile.delete();
+    new Minibase(dbfile.getPath(), 2 * (SCAN + POOL) + 10, POOL, policy, false);
+    int first = Minibase.DiskManager.allocate_page(SCAN + 2 * POOL).pid;
+
+    // start from an empty pool, not the one that formatted the database
+    Minibase.BufferManager.flushAllPages();
+    start(policy, POOL);
+    for (int offset : warmup) {
+      reference(first + offset);
+    }
+
+    int scan = first + 2 * POOL;
+    PageId[] ahead = new PageId[READ_AHEAD];
+    for (int pid = scan; pid < scan + SCAN; pid += READ_AHEAD) {
+      for (int i = 0; i < READ_AHEAD; i++) {
+        ahead[i] = new PageId(pid + i);
+      }
+      bufmgr.prefetch(ahead, READ_AHEAD);
+      for (int i = 0; i < READ_AHEAD; i++) {
+        reference(pid + i);
+      }
+    }
+    long prefetched = bufmgr.getStats().getPrefetchedPages();
+
+    HashSet<Integer> hot = new HashSet<Integer>();
+    for (int pid : bufmgr.getResidentPages(partition)) {
+      hot.add(pid);
+    }
+    hot.retainAll(Arrays.asList(first, first + 1, first + 2, first + 3));
+    int lost = 4 - hot.size();
+    System.out.println(String.format(
+        "%-5s scan of %d pages, %d read ahead: %s", policy, SCAN, prefetched,
+        (lost == 0) ? "hot set kept" : lost + " HOT PAGES EVICTED"));
+    Minibase.DiskManager.closeDB();
+    dbfile.delete();
+    return (lost == 0 && prefetched > 0) ? 0 : 1;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Starts a buffer manager of the given size and policy.
+   */
+  protected static void start(String policy, int frames) {
+    bufmgr = new BufMgr(frames, policy);
+    Minibase.BufferManager = bufmgr;
+    partition = bufmgr.getPartition(BufMgr.DEFAULT_PARTITION);
+  }
+
+  /**
+   * Pins and unpins the given page, copying it in if it is not resident.
+   *
+   * @return the pages evicted meanwhile
+   */
+  protected static ArrayList<Integer> reference(int pid) {
+    HashSet<Integer> before = new HashSet<Integer>();
+    for (int p : bufmgr.getResidentPages(partition)) {
+      before.add(p);
+    }
+    PageId pageno = new PageId(pid);
+    bufmgr.pinPage(pageno, new Page(), before.contains(pid) ? PIN_DISKIO
+        : PIN_MEMCPY);
+    bufmgr.unpinPage(pageno, UNPIN_CLEAN);
+    for (int p : bufmgr.getResidentPages(partition)) {
+      before.remove(p);
+    }
+    return new ArrayList<Integer>(before);
+  }
+
+  /**
+   * Counts the given pages among the evicted ones.
+   */
+  protected static int count(ArrayList<Integer> evicted, Integer... pids) {
+    int count = 0;
+    for (Integer pid : pids) {
+      if (evicted.contains(pid)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+} // public class ReplacerCheck implements GlobalConst
@@ -0,0 +1,143 @@
+package tests;
+
+import global.AttrType;
+import global.GlobalConst;
+import global.Minibase;
+import global.SortKey;
+import heap.ExtentHeapFile;
+import heap.HeapFile;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import relop.FileScan;
+import relop.Iterator;
+import relop.Schema;
+import relop.Sort;
+import relop.Tuple;
+
+/**
+ * Checks the external merge sort on two keys, one descending and one
+ * ascending, with memory budgets from a single page, which makes many runs
+ * and merge passes, up to a quarter of the buffer pool, and the default one.
+ * The small pool is barely large enough to merge at the budgets given, so
+ * merge passes must not pin more pages than it has. Each sort must return
+ * the input tuples, in order, and leave no pages pinned once closed.
+ * <p>
+ * Usage: java tests.SortCheck
+ */
+public class SortCheck implements GlobalConst {
+
+  /** Database size (in pages). */
+  protected static int DB_PAGES = 20000;
+
+  /** Buffer pool size (in pages), tuples and largest budget of each run. */
+  protected static int[][] POOLS = { { 12, 5000, 6 }, { 100, 20000, 25 } };
+
+  /** Sort keys: most significant first. */
+  protected static SortKey[] KEYS = { new SortKey("f", true),
+      new SortKey("name", false) };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs every sort and exits with status 1 if any is wrong.
+   */
+  public static void main(String[] args) {
+    File dbfile = new File(System.getProperty("java.io.tmpdir"),
+        "sortcheck.minibase");
+
+    Schema schema = new Schema(3);
+    schema.initField(0, AttrType.INTEGER, 4, "id");
+    schema.initField(1, AttrType.FLOAT, 4, "f");
+    schema.initField(2, AttrType.STRING, 12, "name");
+    int[] fields = { 1, 2 };
+
+    int failures = 0;
+    Random random = new Random(42);
+    for (int[] pool : POOLS) {
+      dbfile.delete();
+      new Minibase(dbfile.getPath(), DB_PAGES, pool[0], "Clock", false);
+
+      // random tuples, with few distinct values of the first key
+      HeapFile file = new ExtentHeapFile(null);
+      for (int i = 0; i < pool[1]; i++) {
+        new Tuple(schema, i, (float) random.nextInt(20) - 10,
+            "n" + random.nextInt(1000)).insertIntoFile(file);
+      }
+      HashMap<String, Integer> expected = new HashMap<String, Integer>();
+      FileScan scan = new FileScan(schema, file);
+      while (scan.hasNext()) {
+        count(expected, scan.getNext());
+      }
+      scan.close();
+
+      for (int mem = 0; mem <= pool[2]; mem++) {
+        int unpinned = Minibase.BufferManager.getNumUnpinned();
+        HashMap<String, Integer> actual = new HashMap<String, Integer>();
+        int disorders = 0;
+        String error = null;
+        Iterator sort = new Sort(new FileScan(schema, file), mem, KEYS);
+        try {
+          Tuple last = null;
+          while (sort.hasNext()) {
+            Tuple t = sort.getNext();
+            if (last != null && compare(last, t, fields) > 0) {
+              disorders++;
+            }
+            count(actual, t);
+            last = t.materialize();
+          }
+          sort.close();
+        } catch (IllegalStateException exc) {
+          error = exc.getMessage();
+        }
+        int pins = unpinned - Minibase.BufferManager.getNumUnpinned();
+        boolean ok = (error == null) && (disorders == 0)
+            && actual.equals(expected) && (pins == 0);
+        System.out.println(String.format(
+            "%5d tuples, %3d frames, memory %2d: %s, pins %d",
+            pool[1], pool[0], mem,
+            (error != null) ? error : (disorders > 0) ? "OUT OF ORDER"
+                : actual.equals(expected) ? "sorted" : "DIFFERENT TUPLES",
+            pins));
+        if (!ok) {
+          failures++;
+        }
+      }
+      file.deleteFile();
+      Minibase.DiskManager.closeDB();
+    }
+
+    dbfile.delete();
+    if (failures > 0) {
+      System.out.println(failures + " sorts failed");
+      System.exit(1);
+    }
+    System.out.println("all sorts correct");
+
+  } // public static void main(String[] args)
+
+  /**
+   * Compares two tuples on the sort keys.
+   */
+  protected static int compare(Tuple t1, Tuple t2, int[] fields) {
+    for (int i = 0; i < fields.length; i++) {
+      int c = Tuple.Compare(t1, t2, fields[i]);
+      if (c != 0) {
+        return KEYS[i].isDesc ? -c : c;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Counts a tuple among the distinct ones seen.
+   */
+  protected static void count(HashMap<String, Integer> counts, Tuple t) {
+    String key = Arrays.toString(t.getData());
+    Integer count = counts.get(key);
+    counts.put(key, (count == null) ? 1 : count + 1);
+  }
+
+} // public class SortCheck implements GlobalConst